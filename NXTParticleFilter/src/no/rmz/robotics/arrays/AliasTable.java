@@ -0,0 +1,168 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.arrays;
+
+import no.rmz.robotics.random.RandomSource;
+
+/**
+ * An alias table (Walker's method, built with Vose's algorithm) for
+ * picking indexes according to a fixed set of weights.  Building the
+ * table takes linear time, after that every pick takes constant time:
+ * one random number, one array lookup and one comparison.
+ *
+ * A table that isn't rebuilt is immutable, so it can be shared between
+ * threads without locking.  Rebuilding reuses the arrays, for owners that
+ * need a new table every round and don't want to allocate one.
+ */
+public final class AliasTable {
+
+    /**
+     * The number of indexes in the table.
+     */
+    private int size;
+
+    /**
+     * The probability of keeping index i when i is the column drawn.
+     */
+    private final double[] probability;
+
+    /**
+     * The index picked instead of i when i isn't kept.
+     */
+    private final int[] alias;
+
+    /**
+     * Work space for building the table.
+     */
+    private final int[] worklist;
+
+    /**
+     * Build a table from the first 'size' weights.  The weights don't
+     * have to be normalized, but they can't be negative and they can't
+     * all be zero.
+     *
+     * @param weights
+     * @param size
+     */
+    public AliasTable(final double[] weights, final int size) {
+        this(size);
+        rebuild(weights, size);
+    }
+
+    /**
+     * Make room for a table of up to 'capacity' indexes, to be built
+     * with rebuild().
+     *
+     * @param capacity
+     */
+    public AliasTable(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive, was: " + capacity);
+        }
+        this.probability = new double[capacity];
+        this.alias = new int[capacity];
+        this.worklist = new int[capacity];
+    }
+
+    /**
+     * Build the table again, from the first 'size' weights.  Nothing is
+     * allocated.  The rules for the weights are the same as for the
+     * constructor.
+     *
+     * @param weights
+     * @param size at most the capacity the table was made with.
+     */
+    public void rebuild(final double[] weights, final int size) {
+        if (size < 1 || size > weights.length || size > probability.length) {
+            throw new IllegalArgumentException("Illegal number of weights: " + size);
+        }
+
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            if (weights[i] < 0) {
+                throw new IllegalArgumentException("Negative weight " + weights[i] + " at index " + i);
+            }
+            sum += weights[i];
+        }
+        if (sum <= 0) {
+            throw new IllegalArgumentException("non-positive sum of weights detected");
+        }
+        this.size = size;
+
+        // Scale the weights so that they average to one, then split
+        // them into those below one ("small", stacked from the front of
+        // the worklist) and the rest ("large", stacked from the back).
+        final double[] scaled = probability;
+        int noOfSmall = 0;
+        int firstLarge = size;
+        for (int i = 0; i < size; i++) {
+            scaled[i] = weights[i] * size / sum;
+            if (scaled[i] < 1.0) {
+                worklist[noOfSmall++] = i;
+            } else {
+                worklist[--firstLarge] = i;
+            }
+        }
+
+        // Fill up each small column with a piece of a large one.
+        while (noOfSmall > 0 && firstLarge < size) {
+            final int small = worklist[--noOfSmall];
+            final int large = worklist[firstLarge++];
+            alias[small] = large;
+            scaled[large] = (scaled[large] + scaled[small]) - 1.0;
+            if (scaled[large] < 1.0) {
+                worklist[noOfSmall++] = large;
+            } else {
+                worklist[--firstLarge] = large;
+            }
+        }
+
+        // Whatever is left is one, give or take rounding errors.
+        while (firstLarge < size) {
+            final int large = worklist[firstLarge++];
+            scaled[large] = 1.0;
+            alias[large] = large;
+        }
+        while (noOfSmall > 0) {
+            final int small = worklist[--noOfSmall];
+            scaled[small] = 1.0;
+            alias[small] = small;
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Pick an index with a probability proportional to its weight.
+     * @param randomness
+     * @return the picked index.
+     */
+    public int pick(final RandomSource randomness) {
+        final double u = randomness.nextDouble() * size;
+        int i = (int) u;
+        if (i >= size) {
+            i = size - 1;
+        }
+        // The fractional part of u is uniform too, use it as the coin.
+        if (u - i < probability[i]) {
+            return i;
+        } else {
+            return alias[i];
+        }
+    }
+}
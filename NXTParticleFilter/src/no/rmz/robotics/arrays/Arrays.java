@@ -22,7 +22,8 @@ package no.rmz.robotics.arrays;
  * class in java...
  *
  * It provides a sorting method for arrays.  It is currently
- * implented using quicksort.
+ * implented using quicksort.  For double keys there is also a radix
+ * sort, that sorts in linear time without calling a comparator.
  */
 public final class Arrays {
 
@@ -117,4 +118,154 @@ public final class Arrays {
 
         quicksort(values, comparator, 0, values.length - 1);
     }
+
+    /**
+     * The number of bits sorted on in each pass of the radix sort.
+     */
+    private static final int RADIX_BITS = 8;
+
+    /**
+     * The number of buckets in each pass of the radix sort.
+     */
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    /**
+     * The number of passes needed to sort on all 64 bits of a double.
+     */
+    private static final int RADIX_PASSES = 64 / RADIX_BITS;
+
+    /**
+     * Map a double to a long so that comparing the longs as unsigned
+     * numbers gives the same order as comparing the doubles.  Positive
+     * numbers get the sign bit set, negative numbers get all bits flipped.
+     */
+    private static long sortableBits(final double d) {
+        final long bits = Double.doubleToLongBits(d);
+        if (bits < 0) {
+            return ~bits;
+        } else {
+            return bits ^ Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Sort the first 'size' keys, without moving them, by producing the
+     * permutation that would sort them: after the call
+     * keys[permutation[0]] <= keys[permutation[1]] <= ... and so on.
+     *
+     * This is an LSD radix sort on the bit patterns of the keys, eight
+     * bits at a time.  It takes linear time whatever the keys are, equal
+     * keys included, it is stable, and it never calls a comparator.
+     * Passes where all the keys have the same digit are skipped, which for
+     * weights between zero and one is most of the high-order ones.
+     *
+     * @param keys The keys to sort on.
+     * @param size The number of keys to sort, starting at index zero.
+     * @param permutation Where the sorting permutation is written.
+     * @param scratch Work space, at least 'size' long.
+     */
+    public static void radixSort(
+            final double[] keys,
+            final int size,
+            final int[] permutation,
+            final int[] scratch) {
+
+        if (size < 0 || size > keys.length
+                || size > permutation.length || size > scratch.length) {
+            throw new IllegalArgumentException("Arrays too short for size " + size);
+        }
+
+        // Histograms for all passes, made in a single run over the keys.
+        final int[] counts = new int[RADIX_PASSES * RADIX];
+        for (int i = 0; i < size; i++) {
+            final long bits = sortableBits(keys[i]);
+            for (int pass = 0; pass < RADIX_PASSES; pass++) {
+                final int digit = (int) (bits >>> (pass * RADIX_BITS)) & (RADIX - 1);
+                counts[pass * RADIX + digit]++;
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            permutation[i] = i;
+        }
+
+        int[] source = permutation;
+        int[] destination = scratch;
+        for (int pass = 0; pass < RADIX_PASSES; pass++) {
+            final int base = pass * RADIX;
+            final int shift = pass * RADIX_BITS;
+
+            // If every key has the same digit this pass changes nothing.
+            boolean trivial = false;
+            for (int d = 0; d < RADIX; d++) {
+                if (counts[base + d] == size) {
+                    trivial = true;
+                    break;
+                }
+            }
+            if (trivial) {
+                continue;
+            }
+
+            // Turn the counts into starting offsets.
+            int offset = 0;
+            for (int d = 0; d < RADIX; d++) {
+                final int count = counts[base + d];
+                counts[base + d] = offset;
+                offset += count;
+            }
+
+            for (int k = 0; k < size; k++) {
+                final int index = source[k];
+                final int digit =
+                        (int) (sortableBits(keys[index]) >>> shift) & (RADIX - 1);
+                destination[counts[base + digit]++] = index;
+            }
+
+            final int[] tmp = source;
+            source = destination;
+            destination = tmp;
+        }
+
+        if (source != permutation) {
+            System.arraycopy(source, 0, permutation, 0, size);
+        }
+    }
+
+    /**
+     * Rearrange the first 'size' values so that values[i] becomes what
+     * values[permutation[i]] was.  This is done in place, following the
+     * cycles of the permutation.  The permutation array is used to mark
+     * visited positions, and is restored before returning.
+     *
+     * @param <T> The type of the values
+     * @param values The values to rearrange.
+     * @param permutation A permutation of 0 .. size - 1.
+     * @param size The number of values to rearrange.
+     */
+    public static <T> void permute(
+            final T[] values,
+            final int[] permutation,
+            final int size) {
+        for (int i = 0; i < size; i++) {
+            if (permutation[i] < 0) {
+                continue;
+            }
+            final T first = values[i];
+            int j = i;
+            while (true) {
+                final int k = permutation[j];
+                permutation[j] = ~k;
+                if (k == i) {
+                    values[j] = first;
+                    break;
+                }
+                values[j] = values[k];
+                j = k;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            permutation[i] = ~permutation[i];
+        }
+    }
 }
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.arrays;
+
+/**
+ * Something that can be given a weight through its logarithm.  Log
+ * weights are not checked, they can be any number including negative
+ * infinity.  The log weight is kept apart from the weight: getWeight
+ * only ever returns a plain weight, and throws an IllegalStateException
+ * while there is a log weight that the pool the object is in hasn't yet
+ * normalized with WeightedPool.normalizeLogWeights.  The pool's other
+ * methods therefore refuse to work on log weights.
+ */
+public interface LogWeighted extends Weighted {
+
+    /**
+     * Set the log weight.  The weight is invalid until it is set again.
+     * @param lw
+     */
+    public void setLogWeight(final double lw);
+
+    /**
+     * @return the log weight.
+     * @throws IllegalStateException if there is none.
+     */
+    public double getLogWeight();
+
+    /**
+     * @return true if a log weight has been set, and the weight hasn't
+     *         been set since.
+     */
+    public boolean hasLogWeight();
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.arrays;
+
+/**
+ * Helpers for weights kept as logarithms.  Products of many small
+ * likelihoods underflow to zero as plain doubles, but their logarithms are
+ * just sums of moderately sized negative numbers.  The log weights are
+ * turned back into normalized weights by subtracting the logarithm of the
+ * sum of the weights, which is computed with the log-sum-exp trick so that
+ * the exponentials never overflow or underflow all at once.
+ */
+public final class LogWeights {
+
+    /**
+     *  It should't be possible to instantiate this class.
+     */
+    private LogWeights() {
+    }
+
+    /**
+     * The logarithm of the sum of two numbers, given their logarithms:
+     * log(exp(logA) + exp(logB)).  Either may be negative infinity,
+     * meaning the number is zero.
+     *
+     * @param logA
+     * @param logB
+     * @return
+     */
+    public static double add(final double logA, final double logB) {
+        if (logA == Double.NEGATIVE_INFINITY) {
+            return logB;
+        }
+        if (logB == Double.NEGATIVE_INFINITY) {
+            return logA;
+        }
+        if (logA > logB) {
+            return logA + Math.log(1.0 + Math.exp(logB - logA));
+        } else {
+            return logB + Math.log(1.0 + Math.exp(logA - logB));
+        }
+    }
+
+    /**
+     * The logarithm of the sum of the weights, given their logarithms.
+     * This is done in a single pass, by keeping a running maximum and a
+     * running sum scaled by that maximum.  Weights of zero, log weights
+     * of negative infinity, are skipped, since they add nothing and
+     * exp(-inf - -inf) is NaN.
+     *
+     * @param logWeights
+     * @param from first index, inclusive.
+     * @param to last index, exclusive.
+     * @return the logarithm of the sum, negative infinity if all weights are zero.
+     */
+    public static double logSumExp(
+            final double[] logWeights,
+            final int from,
+            final int to) {
+        double max = Double.NEGATIVE_INFINITY;
+        double scaledSum = 0;
+        for (int i = from; i < to; i++) {
+            final double lw = logWeights[i];
+            if (lw == Double.NEGATIVE_INFINITY) {
+                continue;
+            }
+            if (lw <= max) {
+                scaledSum += Math.exp(lw - max);
+            } else {
+                scaledSum = scaledSum * Math.exp(max - lw) + 1.0;
+                max = lw;
+            }
+        }
+        if (max == Double.NEGATIVE_INFINITY) {
+            return max;
+        }
+        return max + Math.log(scaledSum);
+    }
+
+    /**
+     * Replace the log weights with normalized weights, exp(lw - logSum).
+     * There are no checks in the loop: a log weight of negative infinity,
+     * or one so small that the weight underflows, simply becomes zero.
+     *
+     * @param logWeights
+     * @param size the number of weights.
+     * @param logSumOfWeights the logarithm of the sum, as given by logSumExp.
+     * @return the effective sample size, 1 / sum(w * w) of the normalized
+     *         weights, computed in the same pass.
+     */
+    public static double normalize(
+            final double[] logWeights,
+            final int size,
+            final double logSumOfWeights) {
+        if (Double.isNaN(logSumOfWeights) || Double.isInfinite(logSumOfWeights)) {
+            throw new IllegalArgumentException("Can't normalize with log sum: " + logSumOfWeights);
+        }
+        double sumOfSquares = 0;
+        for (int i = 0; i < size; i++) {
+            final double w = Math.exp(logWeights[i] - logSumOfWeights);
+            logWeights[i] = w;
+            sumOfSquares += w * w;
+        }
+        return 1.0 / sumOfSquares;
+    }
+}
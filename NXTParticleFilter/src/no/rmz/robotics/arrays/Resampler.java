@@ -0,0 +1,45 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.arrays;
+
+import no.rmz.robotics.random.RandomSource;
+
+/**
+ * A strategy for resampling: given a set of normalized weights, pick a
+ * number of indexes so that each index is picked with a probability
+ * proportional to its weight.
+ *
+ * Implementations walk the weights once, accumulating them as they go,
+ * so they need neither a sorted array nor a search per pick.
+ */
+public interface Resampler {
+
+    /**
+     * Pick indexes according to weight.
+     *
+     * @param weights Normalized (not cumulated) weights, summing to one.
+     * @param size The number of weights to use, starting at index zero.
+     * @param picks Where the picked indexes are written.
+     * @param noOfPicks The number of indexes to pick.
+     * @param randomness The source of randomness to use.
+     */
+    public void resample(
+            final double[] weights,
+            final int size,
+            final int[] picks,
+            final int noOfPicks,
+            final RandomSource randomness);
+}
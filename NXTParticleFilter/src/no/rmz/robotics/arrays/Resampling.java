@@ -0,0 +1,41 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.arrays;
+
+/**
+ * Helpers shared by the resamplers.
+ */
+final class Resampling {
+
+    /**
+     *  It should't be possible to instantiate this class.
+     */
+    private Resampling() {
+    }
+
+    static void checkArguments(
+            final double[] weights,
+            final int size,
+            final int[] picks,
+            final int noOfPicks) {
+        if (size < 1 || size > weights.length) {
+            throw new IllegalArgumentException("Illegal number of weights: " + size);
+        }
+        if (noOfPicks < 0 || noOfPicks > picks.length) {
+            throw new IllegalArgumentException("Illegal number of picks: " + noOfPicks);
+        }
+    }
+}
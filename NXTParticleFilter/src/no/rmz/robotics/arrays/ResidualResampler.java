@@ -0,0 +1,80 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.arrays;
+
+import no.rmz.robotics.random.RandomSource;
+
+/**
+ * Residual resampling.  Every index is first picked floor(noOfPicks * w)
+ * times without any randomness at all.  The remaining picks are then made
+ * systematically from what is left of the weights (the residuals).
+ */
+public final class ResidualResampler implements Resampler {
+
+    @Override
+    public void resample(
+            final double[] weights,
+            final int size,
+            final int[] picks,
+            final int noOfPicks,
+            final RandomSource randomness) {
+        Resampling.checkArguments(weights, size, picks, noOfPicks);
+
+        // The deterministic part, also summing up the residuals.
+        int k = 0;
+        double sumOfResiduals = 0;
+        for (int i = 0; i < size; i++) {
+            final double expected = noOfPicks * weights[i];
+            int copies = (int) expected;
+            sumOfResiduals += expected - copies;
+            while (copies > 0 && k < noOfPicks) {
+                picks[k++] = i;
+                copies--;
+            }
+        }
+
+        final int remaining = noOfPicks - k;
+        if (remaining == 0) {
+            return;
+        }
+        if (sumOfResiduals <= 0) {
+            // Can only happen through rounding, so fill up with the last index.
+            while (k < noOfPicks) {
+                picks[k++] = size - 1;
+            }
+            return;
+        }
+
+        // Then the random part, picking systematically among the residuals.
+        final double step = sumOfResiduals / remaining;
+        int i = 0;
+        double cumulative = residual(weights[0], noOfPicks);
+        double u = randomness.nextDouble() * step;
+        for (; k < noOfPicks; k++) {
+            while (u >= cumulative && i < size - 1) {
+                i++;
+                cumulative += residual(weights[i], noOfPicks);
+            }
+            picks[k] = i;
+            u += step;
+        }
+    }
+
+    private static double residual(final double w, final int noOfPicks) {
+        final double expected = noOfPicks * w;
+        return expected - (int) expected;
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.arrays;
+
+import no.rmz.robotics.random.RandomSource;
+
+/**
+ * Systematic resampling.  A single random offset is drawn, and the picks
+ * are then evenly spaced, 1/noOfPicks apart, along the cumulative weights.
+ * This gives the lowest variance of the resamplers, and uses only one
+ * random number per round.
+ */
+public final class SystematicResampler implements Resampler {
+
+    @Override
+    public void resample(
+            final double[] weights,
+            final int size,
+            final int[] picks,
+            final int noOfPicks,
+            final RandomSource randomness) {
+        Resampling.checkArguments(weights, size, picks, noOfPicks);
+
+        final double step = 1.0 / noOfPicks;
+        int i = 0;
+        double cumulative = weights[0];
+        double u = randomness.nextDouble() * step;
+        for (int k = 0; k < noOfPicks; k++) {
+            // Rounding may leave the last cumulative weight a little below
+            // one, so never walk past the last index.
+            while (u >= cumulative && i < size - 1) {
+                i++;
+                cumulative += weights[i];
+            }
+            picks[k] = i;
+            u += step;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.arrays;
+
+/**
+ * Makes copies of the objects in a WeightedPool, so that snapshots of the
+ * pool can hold copies instead of the live objects.
+ *
+ * @param <T>
+ */
+public interface WeightedCopier<T extends Weighted> {
+
+    /**
+     * @param original
+     * @return a new object with the same content as the original.
+     */
+    T newCopy(T original);
+
+    /**
+     * Copy the content of one object, weight included, into another.
+     *
+     * @param source
+     * @param destination
+     */
+    void copy(T source, T destination);
+}
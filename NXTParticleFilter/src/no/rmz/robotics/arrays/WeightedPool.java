@@ -15,20 +15,33 @@
  */
 package no.rmz.robotics.arrays;
 
-import java.util.Random;
 import no.rmz.robotics.particlefilter.ComparatorAccordingToWeight;
+import no.rmz.robotics.random.RandomSource;
+import no.rmz.robotics.random.Xoroshiro128PlusRandom;
 
 /**
  * A pool that holds particles, and can do some things on them to make sure they
  * are sorted and easy to search, etc.
+ *
+ * A pool has a single writer: one thread (typically the filter thread) owns
+ * it, and that thread is the only one that may call its methods.  None of
+ * them take a lock.  Other threads read the pool through snapshots, which
+ * the owner makes with publish() when the pool is in a consistent state, and
+ * which the readers get with acquireSnapshot().  A reader will therefore
+ * never see a pool that is halfway through being sorted or normalized.  With
+ * a WeightedCopier the snapshots hold copies of the objects, so readers
+ * don't see the objects being changed either.  The snapshots are reused
+ * once their readers have released them, so publishing allocates nothing
+ * as long as readers keep up.
  */
 public final  class WeightedPool<T extends Weighted> {
 
-    private final Object monitor = new Object();
     /**
-     * Randomness used to add noise to position estimates.
+     * The randomness used when picking objects, one source per pool so
+     * that pools used by different threads don't contend for it.
      */
-    static final Random RANDOMNESS = new Random();
+    private RandomSource randomness = new Xoroshiro128PlusRandom();
+
     /**
      * The comparator we use to compare particles where the weights has been
      * updated.
@@ -42,6 +55,12 @@ public final  class WeightedPool<T extends Weighted> {
      */
     private final T[] objects;
 
+    /**
+     * The number of objects in use, the first 'size' objects of the
+     * array.  The length of the array is the capacity of the pool.
+     */
+    private int size;
+
     /**
      * True iff the content is known to be sorted, which it only is
      * after it has been sorted.
@@ -53,6 +72,59 @@ public final  class WeightedPool<T extends Weighted> {
      */
     private final String name;
 
+    /**
+     * An alias table built from the current weights, or null if there is
+     * none.  It is thrown away whenever the pool is changed.
+     */
+    private AliasTable aliasTable;
+
+    /**
+     * The version of the most recently published snapshot.
+     */
+    private long version = 0;
+
+    /**
+     * Copies the objects into snapshots, or null if snapshots hold the
+     * live objects.
+     */
+    private WeightedCopier<T> copier;
+
+    /**
+     * Guards the hand over of snapshots between the owner and readers.
+     * It is only taken when publishing, acquiring and releasing, never
+     * while reading.
+     */
+    private final Object snapshotLock = new Object();
+
+    /**
+     * The most recently published snapshot, or null if nothing has been
+     * published yet.  Guarded by snapshotLock.
+     */
+    private WeightedPoolSnapshot<T> snapshot;
+
+    /**
+     * A snapshot no reader holds, ready to be filled by the next
+     * publish(), or null.  Guarded by snapshotLock.
+     */
+    private WeightedPoolSnapshot<T> spareSnapshot;
+
+    /**
+     * The weights, copied out of the objects when resampling or
+     * building an alias table.
+     */
+    private double[] scratchWeights;
+
+    /**
+     * The indexes picked when resampling.
+     */
+    private int[] scratchPicks;
+
+    /**
+     * The permutation that sorts the pool, and work space for finding it.
+     */
+    private int[] sortPermutation;
+    private int[] sortScratch;
+
     /**
      * Create a new instance.  The objects array may be of any size, but
      * it is assumed not to be shared with anything else.  It is not
@@ -66,15 +138,15 @@ public final  class WeightedPool<T extends Weighted> {
             final T[]    objects) {
         this.name = name;
         this.objects = objects;
+        this.size = objects.length;
     }
 
     /**
      * Mark the pool as unsorted.
      */
     public void unsort() {
-        synchronized (monitor) {
-            sorted = false;
-        }
+        sorted = false;
+        aliasTable = null;
     }
 
 
@@ -84,19 +156,52 @@ public final  class WeightedPool<T extends Weighted> {
      * @return
      */
     public boolean isSorted() {
-        synchronized (monitor) {
-            return sorted;
-        }
+        return sorted;
     }
 
     public int getSize() {
+        return size;
+    }
+
+    /**
+     * The largest size the pool can have, the length of the objects array.
+     * @return
+     */
+    public int getCapacity() {
         return objects.length;
     }
 
+    /**
+     * Change the number of objects in use.  The objects beyond the new
+     * size stay in the array, but are ignored by everything else.  Marks
+     * the pool as unsorted.
+     *
+     * @param size a number from one up to the capacity.
+     */
+    public void setSize(final int size) {
+        if (size < 1 || size > objects.length) {
+            throw new IllegalArgumentException("size must be between 1 and " + objects.length + ", was: " + size);
+        }
+        unsort();
+        this.size = size;
+    }
+
     public String getName() {
         return name;
     }
 
+    /**
+     * Replace the randomness used when picking objects, for instance
+     * with a seeded source to make picks repeatable.
+     * @param randomness
+     */
+    public void setRandomSource(final RandomSource randomness) {
+        if (randomness == null) {
+            throw new IllegalArgumentException("randomness can't be null");
+        }
+        this.randomness = randomness;
+    }
+
 
     /**
      * Get object with index 'i' in the internal ordering.
@@ -104,9 +209,7 @@ public final  class WeightedPool<T extends Weighted> {
      * @return the ith element in the internal ordering
      */
     public T get(final int i) {
-        synchronized (monitor) {
-            return objects[i];
-        }
+        return objects[i];
     }
 
     /**
@@ -117,30 +220,26 @@ public final  class WeightedPool<T extends Weighted> {
      * @param p
      */
     public void put(final int i, final T p) {
-        synchronized (monitor) {
-            unsort();
-            objects[i] = p;
-        }
+        unsort();
+        objects[i] = p;
     }
 
     public T binarySearchForNumber(final double r) {
-        synchronized (monitor) {
-            int min = 0;
-            int max = objects.length - 1;
+        int min = 0;
+        int max = size - 1;
 
-            while (min + 1  < max) {
+        while (min + 1  < max) {
 
-                final int center = min + (max - min)/2;
-                final T centerp = get(center);
+            final int center = min + (max - min)/2;
+            final T centerp = get(center);
 
-                if (centerp.getWeight() <= r) {
-                    min = center;
-                } else {
-                    max = center;
-                }
+            if (centerp.getWeight() <= r) {
+                min = center;
+            } else {
+                max = center;
             }
-            return get(max);
         }
+        return get(max);
     }
 
     /**
@@ -150,66 +249,298 @@ public final  class WeightedPool<T extends Weighted> {
      * @return
      */
     public T pickInstanceAccordingToProbability() {
-        synchronized (monitor) {
-            if (!sorted) {
-                sortThenCumulateWeights();
-            }
-
-            final double r = RANDOMNESS.nextDouble();
-            return binarySearchForNumber(r);
+        if (!sorted) {
+            sortThenCumulateWeights();
         }
+
+        final double r = randomness.nextDouble();
+        return binarySearchForNumber(r);
     }
 
+    /**
+     * Sort the objects by weight.  The weights are copied out and radix
+     * sorted, so this takes linear time and makes no comparator calls,
+     * also when many of the weights are equal, as they are just after
+     * resampling.
+     */
     private void sortAccordingToWeight() {
-        Arrays.sort(objects, PARTICLE_COMPARATOR_ACCORDING_TO_WEIGHT);
+        // Sorting moves the objects around, so the alias table no longer
+        // points to the right ones.
+        aliasTable = null;
+
+        if (scratchWeights == null) {
+            scratchWeights = new double[objects.length];
+        }
+        if (sortPermutation == null) {
+            sortPermutation = new int[objects.length];
+            sortScratch = new int[objects.length];
+        }
+        for (int i = 0; i < size; i++) {
+            scratchWeights[i] = objects[i].getWeight();
+        }
+        Arrays.radixSort(scratchWeights, size, sortPermutation, sortScratch);
+        Arrays.permute(objects, sortPermutation, size);
+    }
+
+    /**
+     * Build an alias table from the current weights, so that
+     * pickInstanceFromAliasTable can pick objects in constant time.  This
+     * is meant to be called after normalizeWeights, when the weights are
+     * probabilities and not cumulated probabilities.  The table is thrown
+     * away by unsort() and put().
+     */
+    public void buildAliasTable() {
+        if (sorted) {
+            throw new IllegalStateException("Can't build alias table from cumulated weights");
+        }
+        if (scratchWeights == null) {
+            scratchWeights = new double[objects.length];
+        }
+        for (int i = 0; i < size; i++) {
+            scratchWeights[i] = objects[i].getWeight();
+        }
+        aliasTable = new AliasTable(scratchWeights, size);
+    }
+
+    /**
+     * Return true iff there is an alias table for the current weights.
+     * @return
+     */
+    public boolean hasAliasTable() {
+        return aliasTable != null;
     }
 
-    public void normalizeWeights(final double sumOfWeights) {
+    /**
+     * Pick an instance with a probability proportional to its weight,
+     * using the alias table.  If there is no table one is built first,
+     * otherwise this takes constant time.
+     *
+     * @return the picked instance.
+     */
+    public T pickInstanceFromAliasTable() {
+        if (aliasTable == null) {
+            buildAliasTable();
+        }
+        return objects[aliasTable.pick(randomness)];
+    }
+
+    /**
+     * Divide the weights by their sum.
+     *
+     * @param sumOfWeights
+     * @return the effective sample size, 1 / sum(w * w) of the normalized
+     *         weights, computed in the same pass.
+     */
+    public double normalizeWeights(final double sumOfWeights) {
         if (sumOfWeights <= 0 ) {
             throw new IllegalArgumentException("Can't normalize with non-positive number: " + sumOfWeights);
         }
-        for (int i = 0; i < objects.length; i++) {
+        double sumOfSquares = 0;
+        for (int i = 0; i < size; i++) {
             final Weighted p = objects[i];
             final double w = p.getWeight();
             if (w <= 0.0) {
                 throw new IllegalStateException("Non-positive non-normalized weight detected " + w);
             }
-            p.setWeight(w / sumOfWeights);
+            final double normalized = w / sumOfWeights;
+            p.setWeight(normalized);
+            sumOfSquares += normalized * normalized;
+        }
+        return 1.0 / sumOfSquares;
+    }
+
+    /**
+     * Normalize weights that were set as log weights, see LogWeighted.
+     * The logarithm of the sum is found in one pass and the weights are
+     * set in a second one, without the checks done by normalizeWeights.
+     * Weights too small to be represented are set to the smallest
+     * positive double, so that they stay valid weights.
+     *
+     * @return the logarithm of the sum of the weights before normalization.
+     * @throws IllegalStateException if an object has no log weight.
+     */
+    public double normalizeLogWeights() {
+        if (scratchWeights == null) {
+            scratchWeights = new double[objects.length];
+        }
+        for (int i = 0; i < size; i++) {
+            scratchWeights[i] = logWeightOf(objects[i]);
         }
+        final double logSumOfWeights = LogWeights.logSumExp(scratchWeights, 0, size);
+        if (Double.isNaN(logSumOfWeights) || Double.isInfinite(logSumOfWeights)) {
+            throw new IllegalStateException("Can't normalize log weights with log sum " + logSumOfWeights);
+        }
+
+        for (int i = 0; i < size; i++) {
+            final double w = Math.exp(scratchWeights[i] - logSumOfWeights);
+            objects[i].setWeight(w > 0 ? w : Double.MIN_VALUE);
+        }
+        return logSumOfWeights;
+    }
+
+    private static double logWeightOf(final Weighted p) {
+        if (!(p instanceof LogWeighted) || !((LogWeighted) p).hasLogWeight()) {
+            throw new IllegalStateException("Not a log weight: " + p);
+        }
+        return ((LogWeighted) p).getLogWeight();
     }
 
     public double getSumOfWeights() {
-        synchronized (monitor) {
 
-            double sum = 0;
-            for (int i = 0; i < objects.length; i++) {
-                sum += get(i).getWeight();
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += get(i).getWeight();
+        }
+        
+        if (sum <= 0) {
+            throw new IllegalStateException("non-positive sum of weights detected");
+        }
+        return sum;
+    }
+
+    public void sortThenCumulateWeights() {
+        sortAccordingToWeight();
+
+        double cumulatedWeights = 0;
+        for (int i = 0; i < size; i++) {
+            double w = get(i).getWeight();
+            if (w <= 0) {
+                throw new IllegalStateException("Non-positive weight " + w + " detected at index" + i);
             }
-            
-            if (sum <= 0) {
-                throw new IllegalStateException("non-positive sum of weights detected");
+            cumulatedWeights += w;
+            get(i).setWeight(cumulatedWeights);
+        }
+        sorted = true;
+    }
+
+    /**
+     * Resample the pool: fill the destination array with objects from the
+     * pool, each object being picked with a probability proportional to
+     * its weight.  The weights must be normalized but not cumulated, so
+     * this can't be used after sortThenCumulateWeights.  Unlike
+     * pickInstanceAccordingToProbability nothing is sorted, and all the
+     * picks are made in a single pass over the weights.
+     *
+     * @param resampler the resampling strategy to use.
+     * @param destination where the picked objects are written.
+     */
+    public void resample(final Resampler resampler, final T[] destination) {
+        if (sorted) {
+            throw new IllegalStateException("Can't resample from cumulated weights");
+        }
+        if (scratchWeights == null) {
+            scratchWeights = new double[objects.length];
+        }
+        if (scratchPicks == null || scratchPicks.length < destination.length) {
+            scratchPicks = new int[destination.length];
+        }
+        for (int i = 0; i < size; i++) {
+            scratchWeights[i] = objects[i].getWeight();
+        }
+        resampler.resample(
+                scratchWeights, size,
+                scratchPicks, destination.length,
+                randomness);
+        for (int k = 0; k < destination.length; k++) {
+            destination[k] = objects[scratchPicks[k]];
+        }
+    }
+
+    /**
+     * Make snapshots hold copies of the objects, made by a copier, instead
+     * of the live objects.  Only the owner of the pool may call this.
+     *
+     * @param copier the copier, or null for no copies.
+     */
+    public void setCopier(final WeightedCopier<T> copier) {
+        synchronized (snapshotLock) {
+            this.copier = copier;
+            // Spares made for the old copier can't be reused.
+            spareSnapshot = null;
+        }
+    }
+
+    /**
+     * Make a snapshot of the current content of the pool available to
+     * other threads through acquireSnapshot().  Only the owner of the pool
+     * may call this, and it should only do so when the pool is consistent.
+     *
+     * A snapshot is reused when a newer one has been published and no
+     * reader holds it.  Nothing is allocated unless a reader still holds
+     * the snapshot before the latest one.
+     *
+     * @return the new snapshot.  The owner may read it until the next
+     *         publish(), and must acquire it to keep it for longer.
+     */
+    public WeightedPoolSnapshot<T> publish() {
+        WeightedPoolSnapshot<T> s;
+        final WeightedCopier<T> c;
+        synchronized (snapshotLock) {
+            s = spareSnapshot;
+            spareSnapshot = null;
+            c = copier;
+        }
+        if (s == null) {
+            s = new WeightedPoolSnapshot<T>(this, objects.length, c);
+        }
+        version++;
+        s.fill(name, version, objects, size, sorted);
+        synchronized (snapshotLock) {
+            final WeightedPoolSnapshot<T> old = snapshot;
+            snapshot = s;
+            if (old != null) {
+                old.retired = true;
+                reuseIfUnread(old);
             }
-            return sum;
         }
+        return s;
     }
 
-    public void sortThenCumulateWeights() {
-        synchronized (monitor) {
-            sortAccordingToWeight();
-
-            double cumulatedWeights = 0;
-            for (int i = 0; i < objects.length; i++) {
-                double w = get(i).getWeight();
-                if (w <= 0) {
-                    throw new IllegalStateException("Non-positive weight " + w + " detected at index" + i);
-                }
-                cumulatedWeights += w;
-                get(i).setWeight(cumulatedWeights);
+    /**
+     * Make a retired snapshot the spare if no reader holds it.  Called
+     * with snapshotLock held.
+     */
+    private void reuseIfUnread(final WeightedPoolSnapshot<T> s) {
+        if (s.retired && s.noOfReaders == 0 && spareSnapshot == null
+                && s.getCopier() == copier) {
+            s.retired = false;
+            spareSnapshot = s;
+        }
+    }
+
+    /**
+     * The most recently published snapshot of the pool, which won't be
+     * reused until the reader releases it.  This may be called from any
+     * thread.  It takes a short lock, but reading the snapshot takes none.
+     *
+     * @return the snapshot, or null if none has been published.
+     */
+    public WeightedPoolSnapshot<T> acquireSnapshot() {
+        synchronized (snapshotLock) {
+            final WeightedPoolSnapshot<T> s = snapshot;
+            if (s != null) {
+                s.noOfReaders++;
+            }
+            return s;
+        }
+    }
+
+    void release(final WeightedPoolSnapshot<T> s) {
+        synchronized (snapshotLock) {
+            if (s.noOfReaders <= 0) {
+                throw new IllegalStateException("Snapshot released more often than acquired");
             }
-            sorted = true;
+            s.noOfReaders--;
+            reuseIfUnread(s);
         }
     }
 
+    /**
+     * The array holding the objects in the pool.  This is the live array,
+     * so only the owner of the pool may use it.  Only the first getSize()
+     * objects are in use.
+     * @return
+     */
     public T[] getParticles() {
         return objects;
     }
@@ -0,0 +1,166 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.arrays;
+
+/**
+ * A copy of the content of a WeightedPool, made by the thread that owns
+ * the pool and handed to threads that only want to read it.
+ *
+ * The weights are always copied.  If the pool has a WeightedCopier, the
+ * objects are copied too, so nothing the owner does to the pool
+ * afterwards is visible through the snapshot.  Without one, the snapshot
+ * holds the live objects, and the owner must not change their other
+ * fields while readers may be looking at them.
+ *
+ * Snapshots are reused, so that publishing doesn't allocate.  A reader
+ * gets one with WeightedPool.acquireSnapshot(), and must release() it
+ * when it is done; until then the snapshot is never reused.
+ *
+ * @param <T>
+ */
+public final class WeightedPoolSnapshot<T extends Weighted> {
+
+    private final WeightedPool<T> pool;
+
+    private final WeightedCopier<T> copier;
+
+    private final Object[] objects;
+
+    private final double[] weights;
+
+    private String name;
+
+    private long version;
+
+    private int size;
+
+    private boolean cumulative;
+
+    /**
+     * The number of readers that have acquired the snapshot and not yet
+     * released it.  Guarded by the pool's snapshot lock.
+     */
+    int noOfReaders = 0;
+
+    /**
+     * True when a newer snapshot has been published, so that this one
+     * can be reused once the last reader has released it.  Guarded by
+     * the pool's snapshot lock.
+     */
+    boolean retired = false;
+
+    WeightedPoolSnapshot(
+            final WeightedPool<T> pool,
+            final int capacity,
+            final WeightedCopier<T> copier) {
+        this.pool = pool;
+        this.copier = copier;
+        this.objects = new Object[capacity];
+        this.weights = new double[capacity];
+    }
+
+    /**
+     * Copy the content of the pool.  Only called while no reader can see
+     * the snapshot.
+     */
+    @SuppressWarnings("unchecked")
+    void fill(
+            final String name,
+            final long version,
+            final T[] source,
+            final int size,
+            final boolean cumulative) {
+        this.name = name;
+        this.version = version;
+        this.size = size;
+        this.cumulative = cumulative;
+        for (int i = 0; i < size; i++) {
+            final T object = source[i];
+            weights[i] = object.getWeight();
+            if (copier == null) {
+                objects[i] = object;
+            } else if (objects[i] == null) {
+                objects[i] = copier.newCopy(object);
+            } else {
+                copier.copy(object, (T) objects[i]);
+            }
+        }
+        if (copier == null) {
+            // Don't keep objects that have left the pool alive.
+            for (int i = size; i < objects.length; i++) {
+                objects[i] = null;
+            }
+        }
+    }
+
+    WeightedCopier<T> getCopier() {
+        return copier;
+    }
+
+    /**
+     * Tell the pool that the reader is done with the snapshot.  It must
+     * not be used afterwards.
+     */
+    public void release() {
+        pool.release(this);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The version of the pool this is a snapshot of.  Every snapshot
+     * published from a pool has a higher version than the one before it.
+     * @return the version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(final int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " in a snapshot of " + size);
+        }
+        return (T) objects[i];
+    }
+
+    /**
+     * The weight object i had when the snapshot was made.
+     * @param i
+     * @return
+     */
+    public double getWeight(final int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " in a snapshot of " + size);
+        }
+        return weights[i];
+    }
+
+    /**
+     * True iff the weights were sorted and cumulated when the snapshot was
+     * made.
+     * @return
+     */
+    public boolean isCumulative() {
+        return cumulative;
+    }
+}
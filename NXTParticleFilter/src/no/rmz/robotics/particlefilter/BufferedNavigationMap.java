@@ -0,0 +1,35 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package no.rmz.robotics.particlefilter;
+
+import no.rmz.robotics.sensors.SensorInput;
+
+/**
+ * A map that can write the expected sensor value into an input owned by
+ * the caller, instead of returning one.  Weighers use this when it is
+ * available, so that weighing a particle allocates nothing.
+ */
+public interface BufferedNavigationMap extends NavigationMap {
+
+    /**
+     * Write the sensor value expected for a particle into the destination.
+     * Only the brightness is written.
+     *
+     * @param p The particle, only valid during the call.
+     * @param destination The input to write into.
+     */
+    public void getExpectedSensorValue(final Particle p, final SensorInput destination);
+}
@@ -0,0 +1,326 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter;
+
+import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
+import no.rmz.robotics.particlefilter.geometry.XYPair;
+import no.rmz.robotics.sensors.SensorInput;
+
+/**
+ * A cache in front of an expensive navigation map, such as a polygon map
+ * or a ray cast one.  Once the filter has converged, most particles are
+ * within a few millimetres of each other, and there is no need to ask the
+ * map about every one of them.
+ *
+ * Poses are quantized into cells of a chosen size and heading range, and
+ * the map is asked about the middle of the cell the first time a pose in
+ * it is looked up.  Every other pose in the cell gets the same answer, so
+ * the answers don't depend on the order of the lookups.  A map that
+ * doesn't depend on the heading should get a heading resolution of 2 pi,
+ * which puts all headings in the same range.
+ *
+ * Cells are keyed on their coordinates packed into 21 bits each, so only
+ * cells less than 2^20 cells from the origin, in x and in y, are cached.
+ * Poses further out, or in heading ranges beyond the 2^21st, are asked
+ * about every time, with the same answer as for a cached cell.
+ *
+ * The answers, which are brightnesses, are kept in an open addressing
+ * hash table of primitives with room for a fixed number of cells.  When
+ * it is full, a cell is evicted with the clock algorithm: a hand sweeps
+ * the table, and evicts the first cell that hasn't been looked up since
+ * the hand last passed it.  Nothing is allocated after construction,
+ * unless the map behind it allocates.
+ *
+ * Like other maps that don't implement ThreadSafe, the cache must only be
+ * used from one thread at a time.
+ */
+public final class CachingNavigationMap implements BufferedNavigationMap {
+
+    /**
+     * Cell coordinates are packed into 21 bits each.
+     */
+    private static final int CELL_BITS = 21;
+    private static final long CELL_MASK = (1L << CELL_BITS) - 1;
+
+    /**
+     * The range of columns and rows that fit in the bits of a key.
+     */
+    private static final long MIN_CELL = -(1L << (CELL_BITS - 1));
+    private static final long MAX_CELL = (1L << (CELL_BITS - 1)) - 1;
+
+    private static final double TWO_PI = 2 * Math.PI;
+
+    private static final byte USED = 1;
+    private static final byte REFERENCED = 2;
+
+    private final NavigationMap map;
+
+    private final double resolution;
+
+    private final double headingResolution;
+
+    private final int maxNoOfEntries;
+
+    private final long[] keys;
+
+    private final byte[] brightness;
+
+    /**
+     * USED and REFERENCED bits per slot.
+     */
+    private final byte[] flags;
+
+    private final int mask;
+
+    private int noOfEntries = 0;
+
+    private int hand = 0;
+
+    private long noOfHits = 0;
+
+    private long noOfMisses = 0;
+
+    private long noOfEvictions = 0;
+
+    /**
+     * The particle the map is asked about, in the middle of a cell.
+     */
+    private final Particle probe =
+            new Particle(new XYPair(0.0, 0.0), new PolarCoordinate(0.0, 0.0), 1.0);
+
+    private final SensorInput probeInput = new SensorInput();
+
+    /**
+     * One sensor input for every possible brightness, so that lookups
+     * don't create new ones.
+     */
+    private final SensorInput[] inputs = new SensorInput[256];
+
+    /**
+     * @param map the map to cache.
+     * @param resolution the width and height of a cell, in map units.
+     * @param headingResolution the heading range of a cell, in radians.
+     * @param maxNoOfEntries the most cells kept.
+     */
+    public CachingNavigationMap(
+            final NavigationMap map,
+            final double resolution,
+            final double headingResolution,
+            final int maxNoOfEntries) {
+        if (map == null) {
+            throw new IllegalArgumentException("map can't be null");
+        }
+        if (!(resolution > 0) || !(headingResolution > 0)) {
+            throw new IllegalArgumentException("Resolutions must be positive");
+        }
+        if (maxNoOfEntries < 1 || maxNoOfEntries > (1 << 29)) {
+            throw new IllegalArgumentException("maxNoOfEntries out of range: " + maxNoOfEntries);
+        }
+        this.map = map;
+        this.resolution = resolution;
+        this.headingResolution = Math.min(headingResolution, TWO_PI);
+        this.maxNoOfEntries = maxNoOfEntries;
+
+        // At most half full, so that probe sequences stay short.
+        int tableSize = 16;
+        while (tableSize < 2 * maxNoOfEntries) {
+            tableSize *= 2;
+        }
+        keys = new long[tableSize];
+        brightness = new byte[tableSize];
+        flags = new byte[tableSize];
+        mask = tableSize - 1;
+
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = new SensorInput((byte) i, null);
+        }
+    }
+
+    @Override
+    public SensorInput getExpectedSensorValue(final Particle p) {
+        return inputs[lookup(p) & 0xff];
+    }
+
+    @Override
+    public void getExpectedSensorValue(final Particle p, final SensorInput destination) {
+        destination.setBrightness(lookup(p));
+    }
+
+    private byte lookup(final Particle p) {
+        final XYPair position = p.getPosition();
+        final long column = (long) Math.floor(position.getX() / resolution);
+        final long row = (long) Math.floor(position.getY() / resolution);
+        double t = p.getSpeed().getTheta() % TWO_PI;
+        if (t < 0) {
+            t += TWO_PI;
+        }
+        final long heading = (long) (t / headingResolution);
+        if (column < MIN_CELL || column > MAX_CELL
+                || row < MIN_CELL || row > MAX_CELL
+                || heading > CELL_MASK) {
+            // Outside what a key can tell apart, so not cached.
+            noOfMisses++;
+            return ask(column, row, heading);
+        }
+        final long key = ((column & CELL_MASK) << (2 * CELL_BITS))
+                | ((row & CELL_MASK) << CELL_BITS)
+                | (heading & CELL_MASK);
+
+        int slot = slotOf(key);
+        while ((flags[slot] & USED) != 0) {
+            if (keys[slot] == key) {
+                flags[slot] = USED | REFERENCED;
+                noOfHits++;
+                return brightness[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        noOfMisses++;
+        final byte value = ask(column, row, heading);
+        if (noOfEntries >= maxNoOfEntries) {
+            evict();
+            // The eviction may have moved entries, so find the free slot again.
+            slot = slotOf(key);
+            while ((flags[slot] & USED) != 0) {
+                slot = (slot + 1) & mask;
+            }
+        }
+        keys[slot] = key;
+        brightness[slot] = value;
+        // New cells start unreferenced, so that a cell looked up only
+        // once is the first to go.
+        flags[slot] = USED;
+        noOfEntries++;
+        return value;
+    }
+
+    private int slotOf(final long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Ask the map about the middle of a cell.
+     */
+    private byte ask(final long column, final long row, final long heading) {
+        probe.getPosition().setX((column + 0.5) * resolution);
+        probe.getPosition().setY((row + 0.5) * resolution);
+        probe.getSpeed().setTheta((heading + 0.5) * headingResolution);
+        if (map instanceof BufferedNavigationMap) {
+            ((BufferedNavigationMap) map).getExpectedSensorValue(probe, probeInput);
+            return probeInput.getBrightness();
+        } else {
+            return map.getExpectedSensorValue(probe).getBrightness();
+        }
+    }
+
+    /**
+     * Move the clock hand to the first unreferenced cell, clearing the
+     * reference bits on the way, and remove it.
+     */
+    private void evict() {
+        while (true) {
+            final byte f = flags[hand];
+            if ((f & USED) != 0) {
+                if ((f & REFERENCED) == 0) {
+                    remove(hand);
+                    noOfEvictions++;
+                    return;
+                }
+                flags[hand] = USED;
+            }
+            hand = (hand + 1) & mask;
+        }
+    }
+
+    /**
+     * Remove the entry in a slot, moving later entries of the probe
+     * sequence back so that they can still be found.
+     */
+    private void remove(final int removed) {
+        int hole = removed;
+        int slot = (hole + 1) & mask;
+        while ((flags[slot] & USED) != 0) {
+            final int home = slotOf(keys[slot]);
+            // Move the entry into the hole unless its home is cyclically
+            // between the hole and the entry.
+            final boolean stays = (hole <= slot)
+                    ? (hole < home && home <= slot)
+                    : (hole < home || home <= slot);
+            if (!stays) {
+                keys[hole] = keys[slot];
+                brightness[hole] = brightness[slot];
+                flags[hole] = flags[slot];
+                hole = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        flags[hole] = 0;
+        noOfEntries--;
+    }
+
+    /**
+     * Forget every cell, for instance after the map has changed.  The
+     * statistics are kept.
+     */
+    public void clear() {
+        for (int i = 0; i < flags.length; i++) {
+            flags[i] = 0;
+        }
+        noOfEntries = 0;
+        hand = 0;
+    }
+
+    public void resetStatistics() {
+        noOfHits = 0;
+        noOfMisses = 0;
+        noOfEvictions = 0;
+    }
+
+    public NavigationMap getMap() {
+        return map;
+    }
+
+    public int getNoOfEntries() {
+        return noOfEntries;
+    }
+
+    public int getMaxNoOfEntries() {
+        return maxNoOfEntries;
+    }
+
+    public long getNoOfHits() {
+        return noOfHits;
+    }
+
+    public long getNoOfMisses() {
+        return noOfMisses;
+    }
+
+    public long getNoOfEvictions() {
+        return noOfEvictions;
+    }
+
+    /**
+     * @return the fraction of the lookups that were answered from the
+     *         cache, zero if there have been none.
+     */
+    public double getHitRate() {
+        final long lookups = noOfHits + noOfMisses;
+        return lookups == 0 ? 0.0 : (double) noOfHits / lookups;
+    }
+}
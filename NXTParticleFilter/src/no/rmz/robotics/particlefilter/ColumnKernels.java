@@ -0,0 +1,77 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter;
+
+/**
+ * Loops over whole particle columns, the parts of the filter that do the
+ * same arithmetic for every particle.  There is a plain implementation,
+ * ScalarColumnKernels, and implementations can use whatever the platform
+ * offers to do several particles at a time, such as SIMD instructions.
+ *
+ * Implementations have no state, so they can be shared between threads.
+ */
+public interface ColumnKernels {
+
+    /**
+     * Move the particles with indexes from 'from' (inclusive) to 'to'
+     * (exclusive), the same way as PositionEstimation.applyMovement: turn
+     * by deltaTheta, set the speed to radius, then move along the new
+     * heading.
+     *
+     * @param store
+     * @param from
+     * @param to
+     * @param deltaTheta
+     * @param radius
+     */
+    public void applyMovement(
+            final ParticleStore store,
+            final int from,
+            final int to,
+            final double deltaTheta,
+            final double radius);
+
+    /**
+     * Look up the likelihood of every particle in a likelihood table, as
+     * made by SequentialParticleWeigher.fillLikelihoodTable.
+     *
+     * @param expected the table index, the expected brightness &amp; 0xff,
+     *        for every particle.
+     * @param from
+     * @param to
+     * @param table
+     * @param weights where the likelihoods are written.
+     * @return the sum of the likelihoods.
+     */
+    public double likelihoods(
+            final int[] expected,
+            final int from,
+            final int to,
+            final double[] table,
+            final double[] weights);
+
+    /**
+     * Like likelihoods, but with a table of log likelihoods.
+     *
+     * @return the logarithm of the sum of the likelihoods.
+     */
+    public double logLikelihoods(
+            final int[] expected,
+            final int from,
+            final int to,
+            final double[] logTable,
+            final double[] weights);
+}
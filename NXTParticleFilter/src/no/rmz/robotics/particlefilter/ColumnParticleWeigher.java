@@ -0,0 +1,116 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter;
+
+import no.rmz.robotics.sensors.BatchSensorModel;
+import no.rmz.robotics.sensors.LogSensorModel;
+import no.rmz.robotics.sensors.SensorInput;
+import no.rmz.robotics.sensors.SensorModel;
+
+/**
+ * Weighs the particles in two passes, so that the second can be done by
+ * column kernels.  The first pass asks the map for the expected value of
+ * every particle and keeps its likelihood table index in a column, the
+ * second looks up all the likelihoods in one go.
+ *
+ * This needs a BatchSensorModel, for the table.  With other sensor
+ * models the particles are weighed by a SequentialParticleWeigher.  Like
+ * that one, an instance must not be shared between filters running on
+ * different threads.
+ */
+public final class ColumnParticleWeigher implements ParticleWeigher {
+
+    private final ColumnKernels kernels;
+
+    private final SequentialParticleWeigher sequential = new SequentialParticleWeigher();
+
+    private final Particle cursor = SequentialParticleWeigher.newCursor();
+
+    private final SensorInput expectedBuffer = new SensorInput();
+
+    private final double[] likelihoodTable = new double[BatchSensorModel.TABLE_SIZE];
+
+    /**
+     * The table index of every particle, grown to the capacity of the
+     * largest store weighed.
+     */
+    private int[] expected = new int[0];
+
+    public ColumnParticleWeigher(final ColumnKernels kernels) {
+        if (kernels == null) {
+            throw new IllegalArgumentException("kernels can't be null");
+        }
+        this.kernels = kernels;
+    }
+
+    public ColumnKernels getKernels() {
+        return kernels;
+    }
+
+    @Override
+    public double weigh(
+            final ParticleStore store,
+            final NavigationMap navigationMap,
+            final SensorModel sensorModel,
+            final SensorInput sensorInput) {
+        if (!(sensorModel instanceof BatchSensorModel)) {
+            return sequential.weigh(store, navigationMap, sensorModel, sensorInput);
+        }
+        SequentialParticleWeigher.fillLikelihoodTable(
+                (BatchSensorModel) sensorModel, sensorInput, false, likelihoodTable);
+        lookUpExpected(store, navigationMap);
+        return kernels.likelihoods(
+                expected, 0, store.getSize(), likelihoodTable, store.getWeights());
+    }
+
+    @Override
+    public double weighLog(
+            final ParticleStore store,
+            final NavigationMap navigationMap,
+            final LogSensorModel sensorModel,
+            final SensorInput sensorInput) {
+        if (!(sensorModel instanceof BatchSensorModel)) {
+            return sequential.weighLog(store, navigationMap, sensorModel, sensorInput);
+        }
+        SequentialParticleWeigher.fillLikelihoodTable(
+                (BatchSensorModel) sensorModel, sensorInput, true, likelihoodTable);
+        lookUpExpected(store, navigationMap);
+        return kernels.logLikelihoods(
+                expected, 0, store.getSize(), likelihoodTable, store.getWeights());
+    }
+
+    private void lookUpExpected(
+            final ParticleStore store,
+            final NavigationMap navigationMap) {
+        if (expected.length < store.getCapacity()) {
+            expected = new int[store.getCapacity()];
+        }
+        final int size = store.getSize();
+        if (navigationMap instanceof BufferedNavigationMap) {
+            final BufferedNavigationMap map = (BufferedNavigationMap) navigationMap;
+            for (int i = 0; i < size; i++) {
+                store.get(i, cursor);
+                map.getExpectedSensorValue(cursor, expectedBuffer);
+                expected[i] = expectedBuffer.getBrightness() & 0xff;
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                store.get(i, cursor);
+                expected[i] = navigationMap.getExpectedSensorValue(cursor).getBrightness() & 0xff;
+            }
+        }
+    }
+}
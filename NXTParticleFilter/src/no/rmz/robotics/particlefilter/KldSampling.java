@@ -0,0 +1,205 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter;
+
+/**
+ * KLD-sampling (Fox, 2003): choose the number of particles in every round
+ * from how spread out the belief is.  The new particles are put in bins
+ * over (x, y, theta) as they are made, and the filter stops making them
+ * when there are enough that, with probability 1 - delta, the
+ * Kullback-Leibler distance between the particles and the true belief is
+ * less than epsilon.  A belief concentrated in a few bins then needs few
+ * particles, and one spread over many bins needs many.
+ *
+ * The occupied bins are counted in an open addressing hash table of
+ * primitives.  The table isn't cleared between rounds; every round has its
+ * own stamp, and slots with an older stamp count as empty.  Only one
+ * thread may use an instance.
+ */
+public final class KldSampling {
+
+    /**
+     * Bin coordinates are packed into 21 bits each.
+     */
+    private static final int BIN_BITS = 21;
+    private static final long BIN_MASK = (1L << BIN_BITS) - 1;
+
+    private static final double TWO_PI = 2 * Math.PI;
+
+    private final double epsilon;
+
+    private final double upperQuantile;
+
+    private final double binSize;
+
+    private final double angularBinSize;
+
+    private final int minNoOfParticles;
+
+    private long[] keys = new long[0];
+
+    private int[] stamps = new int[0];
+
+    private int mask;
+
+    private int stamp = 0;
+
+    private int noOfBins;
+
+    private int requiredNoOfParticles;
+
+    /**
+     * @param epsilon The largest acceptable Kullback-Leibler distance.
+     * @param upperQuantile The upper 1 - delta quantile of the standard
+     *        normal distribution, for instance 2.326 for delta = 0.01.
+     * @param binSize The width and height of a bin, in map units.
+     * @param angularBinSize The angular size of a bin, in radians.
+     * @param minNoOfParticles The number of particles to make even when
+     *        they all end up in the same bin.
+     */
+    public KldSampling(
+            final double epsilon,
+            final double upperQuantile,
+            final double binSize,
+            final double angularBinSize,
+            final int minNoOfParticles) {
+        if (!(epsilon > 0)) {
+            throw new IllegalArgumentException("epsilon must be positive, was: " + epsilon);
+        }
+        if (!(binSize > 0) || !(angularBinSize > 0)) {
+            throw new IllegalArgumentException("Bin sizes must be positive");
+        }
+        if (minNoOfParticles < 1) {
+            throw new IllegalArgumentException("minNoOfParticles must be positive, was: " + minNoOfParticles);
+        }
+        this.epsilon = epsilon;
+        this.upperQuantile = upperQuantile;
+        this.binSize = binSize;
+        this.angularBinSize = angularBinSize;
+        this.minNoOfParticles = minNoOfParticles;
+        reset();
+    }
+
+    public int getMinNoOfParticles() {
+        return minNoOfParticles;
+    }
+
+    /**
+     * Make room for up to maxNoOfParticles particles per round.  The
+     * table is allocated here, and not while the filter is running.
+     *
+     * @param maxNoOfParticles
+     */
+    public void ensureCapacity(final int maxNoOfParticles) {
+        int tableSize = 16;
+        while (tableSize < 2 * maxNoOfParticles) {
+            tableSize *= 2;
+        }
+        if (tableSize > keys.length) {
+            keys = new long[tableSize];
+            stamps = new int[tableSize];
+            mask = tableSize - 1;
+            stamp = 0;
+        }
+        reset();
+    }
+
+    /**
+     * Start a new round, with no occupied bins.
+     */
+    public void reset() {
+        stamp++;
+        if (stamp == 0) {
+            // The stamp has wrapped, so old slots could look current.
+            for (int i = 0; i < stamps.length; i++) {
+                stamps[i] = 0;
+            }
+            stamp = 1;
+        }
+        noOfBins = 0;
+        requiredNoOfParticles = minNoOfParticles;
+    }
+
+    /**
+     * Record a new particle.
+     *
+     * @param x
+     * @param y
+     * @param theta
+     * @return true if the particle is the first one in its bin.
+     */
+    public boolean add(final double x, final double y, final double theta) {
+        if (keys.length == 0) {
+            throw new IllegalStateException("ensureCapacity hasn't been called");
+        }
+        double t = theta % TWO_PI;
+        if (t < 0) {
+            t += TWO_PI;
+        }
+        final long key =
+                (((long) Math.floor(x / binSize) & BIN_MASK) << (2 * BIN_BITS))
+                | (((long) Math.floor(y / binSize) & BIN_MASK) << BIN_BITS)
+                | ((long) (t / angularBinSize) & BIN_MASK);
+
+        long h = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while (stamps[slot] == stamp) {
+            if (keys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (noOfBins >= (keys.length >> 1)) {
+            // Never more bins than particles, so only a caller that hasn't
+            // made room for its particles gets here.
+            throw new IllegalStateException("More particles than ensureCapacity made room for");
+        }
+        stamps[slot] = stamp;
+        keys[slot] = key;
+        noOfBins++;
+        requiredNoOfParticles = noOfParticlesFor(noOfBins);
+        return true;
+    }
+
+    public int getNoOfBins() {
+        return noOfBins;
+    }
+
+    /**
+     * The number of particles needed for the bins occupied so far.
+     * @return
+     */
+    public int getRequiredNoOfParticles() {
+        return requiredNoOfParticles;
+    }
+
+    /**
+     * The KLD bound, using the Wilson-Hilferty approximation of the
+     * chi-square quantile.
+     */
+    private int noOfParticlesFor(final int k) {
+        if (k < 2) {
+            return minNoOfParticles;
+        }
+        final double a = 2.0 / (9.0 * (k - 1));
+        final double b = 1.0 - a + Math.sqrt(a) * upperQuantile;
+        final double n = (k - 1) / (2.0 * epsilon) * b * b * b;
+        if (n > Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        return Math.max(minNoOfParticles, (int) Math.ceil(n));
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter;
+
+import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
+import no.rmz.robotics.particlefilter.geometry.XYPair;
+import no.rmz.robotics.random.RandomSource;
+import no.rmz.robotics.random.ZigguratGaussian;
+
+/**
+ * Gaussian noise added to the particles after they have been moved,
+ * standing in for the error in the robot's sensed movement.  Without it
+ * particles that were resampled from the same starting point stay on
+ * top of each other forever.
+ *
+ * The noise for a whole range of particles is drawn in one go into a
+ * reused array, so perturbing the particles costs little more than
+ * moving them.  Instances are not thread safe, give every thread its own
+ * with a split of the random source.
+ */
+public final class MotionNoise {
+
+    /**
+     * The standard deviation of the noise added to x and to y.
+     */
+    private final double positionStandardDeviation;
+
+    /**
+     * The standard deviation of the noise added to the heading, in
+     * radians.
+     */
+    private final double headingStandardDeviation;
+
+    /**
+     * Where the noise comes from.
+     */
+    private final RandomSource randomness;
+
+    /**
+     * The noise for the range being perturbed: x noise, then y noise,
+     * then heading noise.  Grown when needed, never shrunk.
+     */
+    private double[] noise = new double[0];
+
+    /**
+     * @param positionStandardDeviation noise added to x and y, in map
+     *        units.  Zero for none.
+     * @param headingStandardDeviation noise added to the heading, in
+     *        radians.  Zero for none.
+     * @param randomness where the noise comes from.
+     */
+    public MotionNoise(
+            final double positionStandardDeviation,
+            final double headingStandardDeviation,
+            final RandomSource randomness) {
+        if (positionStandardDeviation < 0) {
+            throw new IllegalArgumentException("positionStandardDeviation can't be negative, was: "
+                    + positionStandardDeviation);
+        }
+        if (headingStandardDeviation < 0) {
+            throw new IllegalArgumentException("headingStandardDeviation can't be negative, was: "
+                    + headingStandardDeviation);
+        }
+        if (randomness == null) {
+            throw new IllegalArgumentException("randomness can't be null");
+        }
+        this.positionStandardDeviation = positionStandardDeviation;
+        this.headingStandardDeviation = headingStandardDeviation;
+        this.randomness = randomness;
+    }
+
+    public double getPositionStandardDeviation() {
+        return positionStandardDeviation;
+    }
+
+    public double getHeadingStandardDeviation() {
+        return headingStandardDeviation;
+    }
+
+    /**
+     * @return true if this adds no noise at all.
+     */
+    public boolean isNone() {
+        return positionStandardDeviation == 0 && headingStandardDeviation == 0;
+    }
+
+    /**
+     * Add noise to the particles with indexes from 'from', inclusive, to
+     * 'to', exclusive.
+     *
+     * @param store the particles.
+     * @param from
+     * @param to
+     */
+    public void perturb(final ParticleStore store, final int from, final int to) {
+        if (isNone()) {
+            return;
+        }
+        final int n = to - from;
+        if (noise.length < 3 * n) {
+            noise = new double[3 * Math.max(n, store.getCapacity())];
+        }
+        ZigguratGaussian.fill(randomness, noise, 0, n, positionStandardDeviation);
+        ZigguratGaussian.fill(randomness, noise, n, 2 * n, positionStandardDeviation);
+        ZigguratGaussian.fill(randomness, noise, 2 * n, 3 * n, headingStandardDeviation);
+
+        final double[] x = store.getXs();
+        final double[] y = store.getYs();
+        final double[] theta = store.getThetas();
+        for (int k = 0; k < n; k++) {
+            final int i = from + k;
+            x[i] += noise[k];
+            y[i] += noise[n + k];
+            theta[i] += noise[2 * n + k];
+        }
+    }
+
+    /**
+     * Add noise to a single particle object.
+     *
+     * @param particle the particle.
+     */
+    public void perturb(final Particle particle) {
+        if (isNone()) {
+            return;
+        }
+        final XYPair position = particle.getPosition();
+        final PolarCoordinate speed = particle.getSpeed();
+        position.setX(position.getX() + positionStandardDeviation * randomness.nextGaussian());
+        position.setY(position.getY() + positionStandardDeviation * randomness.nextGaussian());
+        speed.setTheta(speed.getTheta() + headingStandardDeviation * randomness.nextGaussian());
+    }
+}
@@ -19,6 +19,14 @@ package no.rmz.robotics.particlefilter;
 import no.rmz.robotics.particlefilter.Particle;
 import no.rmz.robotics.sensors.SensorInput;
 
+/**
+ * A map, telling what the sensors are expected to see for a particle.
+ *
+ * Thread safety: the filter calls getExpectedSensorValue once for every
+ * particle, and by default it does so from a single thread.  Parallel
+ * weighers only call an implementation concurrently if it implements
+ * ThreadSafe.  The particle passed in is only valid during the call.
+ */
 public interface NavigationMap {
     public SensorInput getExpectedSensorValue(Particle p);
 }
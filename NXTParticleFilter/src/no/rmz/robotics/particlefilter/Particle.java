@@ -18,7 +18,7 @@ package no.rmz.robotics.particlefilter;
 
 import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
 import no.rmz.robotics.particlefilter.geometry.XYPair;
-import no.rmz.robotics.arrays.Weighted;
+import no.rmz.robotics.arrays.LogWeighted;
 
 /**
  * A particle is an hypothesis of where the robot is located and what its
@@ -28,7 +28,7 @@ import no.rmz.robotics.arrays.Weighted;
  * algorithm to calculate the probability that this particular particle
  * represents the real location/speed of the robot.
  */
-public final class Particle  implements Weighted {
+public final class Particle  implements LogWeighted {
 
     /**
      * The position encoded as an XY pair in map coordinates.
@@ -50,6 +50,19 @@ public final class Particle  implements Weighted {
      */
     double weight;
 
+    /**
+     * A log weight set with setLogWeight, kept apart from the weight so
+     * that getWeight never returns a logarithm.
+     */
+    private double logWeight;
+
+    /**
+     * True from setLogWeight until the weight is set again, normally by
+     * WeightedPool.normalizeLogWeights.  Until then there is no valid
+     * weight.
+     */
+    private boolean logWeightPending = false;
+
     public Particle(final XYPair position, final PolarCoordinate speed, final double weight) {
         this.position = position;
         this.speed = speed;
@@ -74,14 +87,54 @@ public final class Particle  implements Weighted {
         if (w <= 0.0) {
             throw new IllegalArgumentException("Attempt to set weight that wasn't positive, was: " +w);
         }
+        setWeightUnchecked(w);
+    }
+
+    /**
+     * Set the weight without checking it, as done when copying particles.
+     * @param w
+     */
+    void setWeightUnchecked(final double w) {
         this.weight = w;
+        this.logWeightPending = false;
     }
 
+    /**
+     * @return the weight, always a plain, linear, weight.
+     * @throws IllegalStateException if a log weight has been set and not
+     *         yet normalized.
+     */
     @Override
     public double getWeight() {
+        if (logWeightPending) {
+            throw new IllegalStateException("The particle has a log weight that hasn't been normalized");
+        }
         return weight;
     }
 
+    /**
+     * Set the weight through its logarithm.  Not checked, see LogWeighted.
+     * @param lw
+     */
+    @Override
+    public void setLogWeight(final double lw) {
+        this.logWeight = lw;
+        this.logWeightPending = true;
+    }
+
+    @Override
+    public double getLogWeight() {
+        if (!logWeightPending) {
+            throw new IllegalStateException("The particle has no log weight");
+        }
+        return logWeight;
+    }
+
+    @Override
+    public boolean hasLogWeight() {
+        return logWeightPending;
+    }
+
     public XYPair getPosition() {
         return position;
     }
@@ -101,7 +154,7 @@ public final class Particle  implements Weighted {
     // Copy everything, except weight, which is set to 
     // zero
     void copyTo(final Particle destination) {
-        destination.weight = 0;
+        destination.setWeightUnchecked(0);
         position.copyTo(destination.getPosition());
         speed.copyTo(destination.getSpeed());
     }
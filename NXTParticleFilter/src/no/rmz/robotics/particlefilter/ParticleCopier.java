@@ -0,0 +1,46 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter;
+
+import no.rmz.robotics.arrays.WeightedCopier;
+import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
+import no.rmz.robotics.particlefilter.geometry.XYPair;
+
+/**
+ * Copies particles, position, speed and weight, for snapshots of pools
+ * of particles.
+ */
+public final class ParticleCopier implements WeightedCopier<Particle> {
+
+    @Override
+    public Particle newCopy(final Particle original) {
+        final Particle copy = new Particle(new XYPair(0.0, 0.0), new PolarCoordinate(0.0, 0.0), 1.0);
+        copy(original, copy);
+        return copy;
+    }
+
+    @Override
+    public void copy(final Particle source, final Particle destination) {
+        source.getPosition().copyTo(destination.getPosition());
+        source.getSpeed().copyTo(destination.getSpeed());
+        if (source.hasLogWeight()) {
+            destination.setLogWeight(source.getLogWeight());
+        } else {
+            // Bypass the check in setWeight, copied particles may have weight zero.
+            destination.setWeightUnchecked(source.weight);
+        }
+    }
+}
@@ -19,6 +19,15 @@ package no.rmz.robotics.particlefilter;
 import no.rmz.robotics.arrays.WeightedPool;
 
 
+/**
+ * Something that wants to see the particles after every round of the
+ * filter.  The pool is owned by the filter thread, and may only be used
+ * during the call.  A consumer that hands the particles on to another
+ * thread should call pool.publish(), which copies the particles into a
+ * snapshot, and hand over pool.acquireSnapshot() instead of the pool.
+ * The other thread should release the snapshot when it is done with it.
+ * Consumers that don't do this cost no copying beyond the pool itself.
+ */
 public interface ParticleFieldConsumer {
 
     void consumeParticles(final WeightedPool pool);
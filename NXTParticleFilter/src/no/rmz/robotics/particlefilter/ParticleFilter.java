@@ -17,8 +17,16 @@ package no.rmz.robotics.particlefilter;
 
 import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
 
+import no.rmz.robotics.arrays.AliasTable;
+import no.rmz.robotics.arrays.LogWeights;
+import no.rmz.robotics.arrays.Resampler;
+import no.rmz.robotics.arrays.SystematicResampler;
 import no.rmz.robotics.arrays.WeightedPool;
 import no.rmz.robotics.particlefilter.geometry.XYPair;
+import no.rmz.robotics.random.RandomSource;
+import no.rmz.robotics.random.Xoroshiro128PlusRandom;
+import no.rmz.robotics.sensors.BufferedSensor;
+import no.rmz.robotics.sensors.LogSensorModel;
 import no.rmz.robotics.sensors.SensorInput;
 import no.rmz.robotics.sensors.Sensor;
 import no.rmz.robotics.sensors.SensorModel;
@@ -26,22 +34,23 @@ import no.rmz.robotics.sensors.SensorModel;
 /**
  * This class implements a particle filter localization estimation algorithm.
  *
- * It has two sets of particles, old and new, both implemented as arrays of
- * particle. The basic flow of the algorithm is:
+ * It has two sets of particles, old and new, both implemented as particle
+ * stores (one primitive array per particle field). The basic flow of the
+ * algorithm is:
  *
  * Start with a set of particles randomly spread out over the area where we
  * suspect the vehicle is located in.
  *
  * Then, given the current sensor input, filter and resample, then then add
  * movement based on estimated speed (with Gaussian noise) and repeat.
+ * Resampling is skipped in rounds where the weights are still close to
+ * uniform, see setResamplingThreshold.
  *
  * XXX Refactor to niceness before continuing.
  *
  */
 public final class ParticleFilter {
 
-    private final static double EPSILON = 0.00000000000001;
-
     /**
      * The number of particles that should replace a single selected particle.
      */
@@ -51,11 +60,30 @@ public final class ParticleFilter {
      */
     private final int PARTICLE_POSITION_ERROR = 5;
     /**
-     * The number of particles in the particle pools. The actual number of
+     * The capacity of the particle pools. The actual number of
      * particles managed by the filter is two times the noOfParticles, since we
-     * have an old and a new pool.
+     * have an old and a new pool.  Unless KLD-sampling is used, every
+     * particle is in use in every round.
      */
     private final int noOfParticles;
+    /**
+     * Chooses the number of particles in every round, or null if all of
+     * them are used.
+     */
+    private KldSampling kldSampling;
+    /**
+     * The grid the moved particles are sorted into every round, or null.
+     */
+    private ParticleGrid particleGrid;
+    /**
+     * The alias table starting points are drawn from with KLD-sampling,
+     * rebuilt every round.
+     */
+    private AliasTable kldAliasTable;
+    /**
+     * The input buffered sensors are read into.
+     */
+    private final SensorInput sensorBuffer = new SensorInput();
     /**
      * A map that is used to calculate probable locations.
      */
@@ -78,16 +106,102 @@ public final class ParticleFilter {
      * The old particle pool. The pool that is evaluated for probabilities of
      * locations based on knowledge about maps and sensors' reactions to them.
      */
-    private WeightedPool<Particle> oldParticles;
+    private ParticleStore oldParticles;
     /**
      * The new particle pool. The set of particles that is being built based on
      * the old particle pool.
      */
-    private WeightedPool<Particle> newParticles;
+    private ParticleStore newParticles;
+    /**
+     * The strategy used to weigh the particles.
+     */
+    private ParticleWeigher weigher = new SequentialParticleWeigher();
+    /**
+     * True if the particles are weighed in the log domain.
+     */
+    private boolean logWeights = false;
+    /**
+     * The loops that move all the particles.
+     */
+    private ColumnKernels kernels = new ScalarColumnKernels();
+    /**
+     * Randomness used when resampling.
+     */
+    private RandomSource randomness = new Xoroshiro128PlusRandom();
+    /**
+     * The noise added to the particles after they are moved, none to
+     * begin with.
+     */
+    private MotionNoise motionNoise = new MotionNoise(0, 0, randomness);
+    /**
+     * The resampling strategy.
+     */
+    private Resampler resampler = new SystematicResampler();
+    /**
+     * The number of particles picked when resampling.  Each of them
+     * is the starting point for REPLACEMENT_FACTOR new particles.
+     */
+    private final int noOfStartingPoints;
+    /**
+     * The indexes of the starting points picked when resampling.
+     */
+    private final int[] startingPoints;
+    /**
+     * Resampling is skipped when the effective sample size is larger than
+     * this fraction of the number of particles.
+     */
+    private double resamplingThreshold = 1.0;
+    /**
+     * The effective sample size of the most recently normalized weights.
+     */
+    private double effectiveSampleSize;
+    /**
+     * The pose estimate, published every time the weights are normalized.
+     */
+    private final PoseEstimate poseEstimate = new PoseEstimate();
+    /**
+     * The number of rounds where resampling was skipped.
+     */
+    private long noOfSkippedResamples = 0;
+    /**
+     * When resampling is skipped, the particles keep their weights into
+     * the next round, where they are multiplied by the new likelihoods.
+     * In log mode these are log weights.
+     */
+    private final double[] carriedWeights;
+    /**
+     * True if the previous round skipped resampling, so that there are
+     * carried weights.
+     */
+    private boolean weightsCarried = false;
+    /**
+     * True if resampling should store each starting point once, with a
+     * count, when there is no motion noise to make its copies differ.
+     */
+    private boolean compactResampling = false;
+    /**
+     * True if the particles weighed next round have counts other than
+     * one, see ParticleStore.getCount.
+     */
+    private boolean particlesCounted = false;
+    /**
+     * Where counted particles are expanded before they are handed on,
+     * made when compact resampling is first turned on.
+     */
+    private ParticleStore expandedParticles;
+    /**
+     * Which round each old particle was last picked as a starting point
+     * in, and where its compact copy is, for compact resampling.
+     */
+    private final int[] pickedInRound;
+    private final int[] compactIndex;
+    private int compactRound = 0;
     /**
      * As long as this variable is true, the filter will continue to run.
+     * It is volatile since the filter is typically stopped from another
+     * thread than the one running it.
      */
-    private boolean runStatus;
+    private volatile boolean runStatus;
 
 
     public ParticleFilter(
@@ -126,73 +240,332 @@ public final class ParticleFilter {
         oldParticles = newPool("a", noOfParticles);
         newParticles = newPool("b", noOfParticles);
 
+        noOfStartingPoints =
+                (noOfParticles + REPLACEMENT_FACTOR - 1) / REPLACEMENT_FACTOR;
+        startingPoints = new int[noOfStartingPoints];
+        carriedWeights = new double[noOfParticles];
+        pickedInRound = new int[noOfParticles];
+        compactIndex = new int[noOfParticles];
+
     }
 
-    private static WeightedPool<Particle> newPool(
+    private static ParticleStore newPool(
             final String name,
             final int noOfParticles) {
 
         // The weight must be some positive number, but it doesn't
         // matter which.
         final double initial_weight = 0.3;
-        final Particle[] np = new Particle[noOfParticles];
-
-        for (int i = 0; i < np.length; i++) {
-            final Particle p =
-                    new Particle(
-                      new XYPair(0.0, 0.0),
-                      new PolarCoordinate(0.0, 0.0),
-                      initial_weight);
-            if (p.getWeight() <= 0) {
-                throw new IllegalStateException("Particle weight of new p can't be non-positive");
+        return new ParticleStore(name, noOfParticles, initial_weight);
+    }
+
+    /**
+     * Select the resampling strategy used by this filter.
+     * @param resampler
+     */
+    public void setResampler(final Resampler resampler) {
+        if (resampler == null) {
+            throw new IllegalArgumentException("resampler can't be null");
+        }
+        this.resampler = resampler;
+    }
+
+    public Resampler getResampler() {
+        return resampler;
+    }
+
+    /**
+     * Replace the randomness used when resampling, for instance with a
+     * seeded source to make runs repeatable.
+     * @param randomness
+     */
+    public void setRandomSource(final RandomSource randomness) {
+        if (randomness == null) {
+            throw new IllegalArgumentException("randomness can't be null");
+        }
+        this.randomness = randomness;
+    }
+
+    public RandomSource getRandomSource() {
+        return randomness;
+    }
+
+    /**
+     * Select the noise added to the particles every time they are moved.
+     * The noise should have a random source of its own, for instance a
+     * split of this filter's.
+     * @param motionNoise
+     */
+    public void setMotionNoise(final MotionNoise motionNoise) {
+        if (motionNoise == null) {
+            throw new IllegalArgumentException("motionNoise can't be null");
+        }
+        this.motionNoise = motionNoise;
+    }
+
+    public MotionNoise getMotionNoise() {
+        return motionNoise;
+    }
+
+    /**
+     * Select the strategy used to weigh the particles, for instance one
+     * that does the weighing in parallel.
+     * @param weigher
+     */
+    public void setWeigher(final ParticleWeigher weigher) {
+        if (weigher == null) {
+            throw new IllegalArgumentException("weigher can't be null");
+        }
+        this.weigher = weigher;
+    }
+
+    public ParticleWeigher getWeigher() {
+        return weigher;
+    }
+
+    /**
+     * Select the kernels used to move the particles, for instance ones
+     * that use SIMD instructions, or new ScalarColumnKernels(true) for
+     * faster, table based, trigonometry in this filter only.  To weigh
+     * with the same kernels, use a ColumnParticleWeigher.
+     * @param kernels
+     */
+    public void setColumnKernels(final ColumnKernels kernels) {
+        if (kernels == null) {
+            throw new IllegalArgumentException("kernels can't be null");
+        }
+        this.kernels = kernels;
+    }
+
+    public ColumnKernels getColumnKernels() {
+        return kernels;
+    }
+
+    /**
+     * Weigh the particles with log probabilities instead of probabilities.
+     * This avoids the underflow of products of small likelihoods, which
+     * the plain weights work around by smoothing zero weights.  It needs
+     * a sensor model that implements LogSensorModel.
+     *
+     * @param logWeights
+     */
+    public void setLogWeights(final boolean logWeights) {
+        if (logWeights && !(sensorModel instanceof LogSensorModel)) {
+            throw new IllegalStateException("Log weights need a LogSensorModel");
+        }
+        this.logWeights = logWeights;
+    }
+
+    public boolean isLogWeights() {
+        return logWeights;
+    }
+
+    /**
+     * Only resample when the effective sample size of the weights is at
+     * most this fraction of the number of particles.  While the weights
+     * are nearly uniform, resampling costs time and loses diversity for
+     * nothing, so the particles are only moved and keep their weights.
+     * The default, one, always resamples, in every round.
+     *
+     * @param resamplingThreshold a fraction between zero and one.
+     */
+    public void setResamplingThreshold(final double resamplingThreshold) {
+        if (!(resamplingThreshold >= 0.0 && resamplingThreshold <= 1.0)) {
+            throw new IllegalArgumentException(
+                    "resamplingThreshold must be between zero and one, was: " + resamplingThreshold);
+        }
+        this.resamplingThreshold = resamplingThreshold;
+    }
+
+    public double getResamplingThreshold() {
+        return resamplingThreshold;
+    }
+
+    /**
+     * @return the effective sample size of the weights in the most recent round.
+     */
+    public double getEffectiveSampleSize() {
+        return effectiveSampleSize;
+    }
+
+    /**
+     * The estimate of the robot's pose, computed from the weighted
+     * particles every round, before they are resampled and moved.  It is
+     * updated in place, and may be polled from any thread, see
+     * PoseEstimate.
+     *
+     * @return the live pose estimate.
+     */
+    public PoseEstimate getPoseEstimate() {
+        return poseEstimate;
+    }
+
+    /**
+     * @return the number of rounds where resampling was skipped.
+     */
+    public long getNoOfSkippedResamples() {
+        return noOfSkippedResamples;
+    }
+
+    /**
+     * Use KLD-sampling to choose the number of particles in every round,
+     * from one up to the number the filter was created with.  A converged
+     * belief then runs on a fraction of the particles, and more are used
+     * as soon as it spreads out.  Null turns it off, using all particles.
+     *
+     * @param kldSampling
+     */
+    public void setKldSampling(final KldSampling kldSampling) {
+        if (kldSampling != null) {
+            kldSampling.ensureCapacity(noOfParticles);
+            if (kldAliasTable == null) {
+                kldAliasTable = new AliasTable(noOfParticles);
             }
-            np[i] = p;
+        }
+        this.kldSampling = kldSampling;
+    }
+
+    public KldSampling getKldSampling() {
+        return kldSampling;
+    }
 
+    /**
+     * Sort the new particles into a grid every round, right after they
+     * are moved, so that consumers can ask it for clusters and masses
+     * instead of walking the particles.  The masses are the weights the
+     * particles carry into the next round, or equal when they were
+     * resampled.
+     *
+     * @param particleGrid the grid, or null for none.
+     */
+    public void setParticleGrid(final ParticleGrid particleGrid) {
+        if (particleGrid != null) {
+            particleGrid.ensureCapacity(noOfParticles);
         }
-        return new WeightedPool<Particle>(name, np);
+        this.particleGrid = particleGrid;
+    }
+
+    /**
+     * @return the grid of the new particles, or null if there is none.
+     */
+    public ParticleGrid getParticleGrid() {
+        return particleGrid;
+    }
+
+    /**
+     * After convergence most starting points are picked many times, and
+     * their copies are identical until motion noise makes them differ.
+     * With compact resampling, and no motion noise, each starting point
+     * is stored once with a count of the particles it stands for.  The
+     * duplicates then share a single map lookup and likelihood, and the
+     * new particle store has one entry per distinct particle, see
+     * ParticleStore.getCount.  The consumer still gets every particle,
+     * see getExpandedNewParticleStore.  With motion noise every copy
+     * differs, so they are made separately as before.
+     *
+     * @param compactResampling
+     */
+    public void setCompactResampling(final boolean compactResampling) {
+        this.compactResampling = compactResampling;
+        if (compactResampling && expandedParticles == null) {
+            expandedParticles = newPool("expandedParticles", noOfParticles);
+        }
+    }
+
+    public boolean isCompactResampling() {
+        return compactResampling;
+    }
+
+    /**
+     * @return the number of particles in use in the most recent round.
+     */
+    public int getNoOfParticles() {
+        return newParticles.getSize();
+    }
+
+    public Sensor getSensor() {
+        return sensor;
+    }
+
+    public ParticleFieldConsumer getParticleFieldConsumer() {
+        return particleFieldConsumer;
     }
 
     private boolean getRunStatus() {
         return runStatus;
     }
 
-    private final double smoothed(final double w) {
-        if (w == 0) {
-            return EPSILON;
-        } else {
-            return w;
-        }
+    /**
+     * Decide whether mainLoop, or whatever else is driving the filter,
+     * should keep running.  Set it to true before starting mainLoop.
+     * @param runStatus
+     */
+    public void setRunStatus(final boolean runStatus) {
+        this.runStatus = runStatus;
+    }
+
+    /**
+     * @return true if the filter should keep running.
+     */
+    public boolean isRunning() {
+        return runStatus;
+    }
+
+    /**
+     * Make mainLoop return after the round it is in.  May be called
+     * from any thread.
+     */
+    public void stop() {
+        runStatus = false;
     }
 
     /**
      * A single round of sense/estimate. It is factored out as a method to be
      * easier to test, hence it is also public although there is no intrinsic
      * reason for it to be public.
+     *
+     * With a BufferedSensor, a map that doesn't allocate (such as a
+     * BufferedNavigationMap) and the sequential weigher, a round
+     * allocates nothing.
      */
     public void senseEstimate() {
 
-        // Switch old and new data
-
-        final WeightedPool tmp = newParticles;
-        newParticles = oldParticles;
-        oldParticles = tmp;
-
         ///
         /// Sensing phase
         ///
         if (sensor == null) {
             throw new RuntimeException("Sensor is null");
         }
-        final SensorInput sensorInput = sensor.sense();
+        final SensorInput sensorInput;
+        if (sensor instanceof BufferedSensor) {
+            ((BufferedSensor) sensor).sense(sensorBuffer);
+            sensorInput = sensorBuffer;
+        } else {
+            sensorInput = sensor.sense();
+        }
 
+        estimate(sensorInput);
+    }
+
+    /**
+     * The round of senseEstimate without the sensing, for a reading that
+     * was made elsewhere, for instance on another thread.  The input is
+     * not kept after the method returns, so it may be reused.
+     *
+     * @param sensorInput the reading.
+     */
+    public void estimate(final SensorInput sensorInput) {
+
+        // Switch old and new data
+
+        final ParticleStore tmp = newParticles;
+        newParticles = oldParticles;
+        oldParticles = tmp;
 
         ///
         /// Estimating posterior probabilities wrt sensor input
         ///
 
-        // We'll use this to normalize later
-        double sumOfWeights = 0;
-
         if (oldParticles == null) {
             throw new RuntimeException("oldParticles is null");
         }
@@ -205,32 +578,74 @@ public final class ParticleFilter {
             throw new RuntimeException("navigationMap is null");
         }
 
-        for (final Particle p : oldParticles.getParticles()) {
+        if (logWeights) {
+            double logSumOfWeights = weigher.weighLog(
+                    oldParticles, navigationMap,
+                    (LogSensorModel) sensorModel, sensorInput);
 
+            if (weightsCarried) {
+                logSumOfWeights = addCarriedLogWeights(oldParticles);
+            } else if (particlesCounted) {
+                logSumOfWeights = addLogCounts(oldParticles);
+            }
 
-            final double w =
-                    smoothed(
-                       sensorModel.probabilityOfMeasuredResultGivenExpectedValue(
-                       navigationMap.getExpectedSensorValue(p),
-                       sensorInput));
+            if (logSumOfWeights == Double.NEGATIVE_INFINITY) {
+                throw new IllegalStateException("Sum of weights is zero");
+            }
 
-            if (p == null) {
-                throw new RuntimeException("p is null");
+            effectiveSampleSize = oldParticles.normalizeLogWeights(logSumOfWeights, poseEstimate);
+        } else {
+            // We'll use this to normalize later
+            double sumOfWeights =
+                    weigher.weigh(oldParticles, navigationMap, sensorModel, sensorInput);
+
+            if (weightsCarried) {
+                sumOfWeights = multiplyCarriedWeights(oldParticles);
+            } else if (particlesCounted) {
+                sumOfWeights = multiplyCounts(oldParticles);
             }
 
-            p.setWeight(w);
-            sumOfWeights += w;
-        }
+            if (sumOfWeights == 0) {
+                throw new IllegalStateException("Sum of weights is zero");
+            }
 
-        if (oldParticles == null) {
-            throw new RuntimeException("oldParticles is null");
+            effectiveSampleSize = oldParticles.normalizeWeights(sumOfWeights, poseEstimate);
         }
 
-        if (sumOfWeights == 0) {
-            throw new IllegalStateException("Sum of weights is zero");
+        if (sensorInput == null) {
+            throw new RuntimeException("sensorInput is null");
         }
 
-        oldParticles.normalizeWeights(sumOfWeights);
+        final PolarCoordinate speed = sensorInput.getSpeed();
+
+        final int noOfOldParticles = oldParticles.getSize();
+        int noOfRepresentedParticles = noOfOldParticles;
+        if (particlesCounted) {
+            noOfRepresentedParticles = oldParticles.getNoOfRepresentedParticles();
+            effectiveSampleSize = countedEffectiveSampleSize(oldParticles);
+        }
+        // With uniform weights 1/sum(w^2) can round to just above the number
+        // of particles, so a threshold of one must not be compared at all.
+        if (resamplingThreshold < 1.0
+                && effectiveSampleSize > resamplingThreshold * noOfRepresentedParticles) {
+            // The weights are nearly uniform, so just move the particles.
+            final int[] counts = oldParticles.getCounts();
+            for (int i = 0; i < noOfOldParticles; i++) {
+                oldParticles.copyTo(i, newParticles, i, counts[i]);
+            }
+            kernels.applyMovement(
+                    newParticles, 0, noOfOldParticles,
+                    speed.getTheta(), speed.getRadius());
+            motionNoise.perturb(newParticles, 0, noOfOldParticles);
+            newParticles.setSize(noOfOldParticles);
+            if (particleGrid != null) {
+                particleGrid.build(newParticles, oldParticles.getWeights());
+            }
+            carryWeights(oldParticles);
+            noOfSkippedResamples++;
+            return;
+        }
+        weightsCarried = false;
 
 
         ///
@@ -238,44 +653,278 @@ public final class ParticleFilter {
         ///
 
 
-        oldParticles.sortThenCumulateWeights();
-
         // Resample (with replacement)
         // with probabilities of being basis
         // for resampling being based on normalized weights
 
-        if (sensorInput == null) {
-            throw new RuntimeException("sensorInput is null");
+        particlesCounted = false;
+        if (kldSampling != null) {
+            kldResample(speed);
+            return;
         }
 
-        final PolarCoordinate speed = sensorInput.getSpeed();
-        for (int i = 0; i < noOfParticles; i++) {
-            final Particle startingPoint = oldParticles.pickInstanceAccordingToProbability();
+        resampler.resample(
+                oldParticles.getWeights(), oldParticles.getSize(),
+                startingPoints, noOfStartingPoints,
+                randomness);
+
+        if (compactResampling && motionNoise.isNone()) {
+            compactResample(speed);
+            return;
+        }
+
+        int i = 0;
+        for (int k = 0; k < noOfStartingPoints; k++) {
+            final int startingPoint = startingPoints[k];
+            for (int j = 0; j < REPLACEMENT_FACTOR && i < noOfParticles; j++, i++) {
+                oldParticles.copyTo(startingPoint, newParticles, i);
+            }
+        }
+        kernels.applyMovement(
+                newParticles, 0, noOfParticles,
+                speed.getTheta(), speed.getRadius());
+        motionNoise.perturb(newParticles, 0, noOfParticles);
+        newParticles.setSize(noOfParticles);
+        if (particleGrid != null) {
+            particleGrid.build(newParticles, null);
+        }
+    }
+
+    /**
+     * Store every starting point once, with the number of copies it
+     * would have had as its count.
+     */
+    private void compactResample(final PolarCoordinate speed) {
+        compactRound++;
+        if (compactRound == 0) {
+            // The round has wrapped, so old picks could look current.
+            for (int i = 0; i < pickedInRound.length; i++) {
+                pickedInRound[i] = 0;
+            }
+            compactRound = 1;
+        }
+        final int[] counts = newParticles.getCounts();
+        int noOfEntries = 0;
+        int remaining = noOfParticles;
+        for (int k = 0; k < noOfStartingPoints && remaining > 0; k++) {
+            final int startingPoint = startingPoints[k];
+            final int copies = Math.min(REPLACEMENT_FACTOR, remaining);
+            remaining -= copies;
+            if (pickedInRound[startingPoint] == compactRound) {
+                counts[compactIndex[startingPoint]] += copies;
+            } else {
+                pickedInRound[startingPoint] = compactRound;
+                compactIndex[startingPoint] = noOfEntries;
+                oldParticles.copyTo(startingPoint, newParticles, noOfEntries, copies);
+                noOfEntries++;
+            }
+        }
+        kernels.applyMovement(
+                newParticles, 0, noOfEntries,
+                speed.getTheta(), speed.getRadius());
+        newParticles.setSize(noOfEntries);
+        particlesCounted = true;
+        if (particleGrid != null) {
+            particleGrid.build(newParticles, null);
+        }
+    }
+
+    /**
+     * Resample until KLD-sampling says there are enough new particles.
+     * The starting points are drawn independently from an alias table, not
+     * with the resampler, since the resamplers' picks are ordered and
+     * stopping early would favour the first particles in the store.
+     */
+    private void kldResample(final PolarCoordinate speed) {
+        final AliasTable aliasTable = kldAliasTable;
+        aliasTable.rebuild(oldParticles.getWeights(), oldParticles.getSize());
+        kldSampling.reset();
+
+        int i = 0;
+        while (i < noOfParticles && i < kldSampling.getRequiredNoOfParticles()) {
+            final int startingPoint = aliasTable.pick(randomness);
+            final int first = i;
             for (int j = 0; j < REPLACEMENT_FACTOR && i < noOfParticles; j++, i++) {
-                final Particle destination = newParticles.get(j);
-                if (destination == null) {
-                    throw new RuntimeException("destination is null");
-                }
-                PositionEstimation.estimateNewParticle(destination, startingPoint, speed);
+                oldParticles.copyTo(startingPoint, newParticles, i);
             }
+            kernels.applyMovement(
+                    newParticles, first, i,
+                    speed.getTheta(), speed.getRadius());
+            motionNoise.perturb(newParticles, first, i);
+            for (int k = first; k < i; k++) {
+                kldSampling.add(
+                        newParticles.getX(k),
+                        newParticles.getY(k),
+                        newParticles.getTheta(k));
+            }
+        }
+        newParticles.setSize(i);
+        if (particleGrid != null) {
+            particleGrid.build(newParticles, null);
+        }
+    }
+
+    /**
+     * Remember the normalized weights of the particles, which have been
+     * moved to the same indexes in the other store.
+     */
+    private void carryWeights(final ParticleStore store) {
+        final double[] weights = store.getWeights();
+        final int size = store.getSize();
+        if (logWeights) {
+            for (int i = 0; i < size; i++) {
+                carriedWeights[i] = Math.log(weights[i]);
+            }
+        } else {
+            System.arraycopy(weights, 0, carriedWeights, 0, size);
+        }
+        weightsCarried = true;
+    }
+
+    /**
+     * Multiply the fresh weights by the carried ones.
+     * @return the new sum of weights.
+     */
+    private double multiplyCarriedWeights(final ParticleStore store) {
+        final double[] weights = store.getWeights();
+        final int size = store.getSize();
+        double sumOfWeights = 0;
+        for (int i = 0; i < size; i++) {
+            final double w = weights[i] * carriedWeights[i];
+            // Keep the weights positive even if the product underflows.
+            weights[i] = (w > 0) ? w : Double.MIN_VALUE;
+            sumOfWeights += weights[i];
         }
+        return sumOfWeights;
     }
 
+    /**
+     * Add the carried log weights to the fresh ones.
+     * @return the new logarithm of the sum of weights.
+     */
+    private double addCarriedLogWeights(final ParticleStore store) {
+        final double[] weights = store.getWeights();
+        final int size = store.getSize();
+        for (int i = 0; i < size; i++) {
+            weights[i] += carriedWeights[i];
+        }
+        return LogWeights.logSumExp(weights, 0, size);
+    }
+
+    /**
+     * Multiply the fresh weights by the counts, since an entry's weight
+     * is that of all its particles.
+     * @return the new sum of weights.
+     */
+    private double multiplyCounts(final ParticleStore store) {
+        final double[] weights = store.getWeights();
+        final int[] counts = store.getCounts();
+        final int size = store.getSize();
+        double sumOfWeights = 0;
+        for (int i = 0; i < size; i++) {
+            weights[i] *= counts[i];
+            sumOfWeights += weights[i];
+        }
+        return sumOfWeights;
+    }
+
+    /**
+     * Add the logarithms of the counts to the fresh log weights.
+     * @return the new logarithm of the sum of weights.
+     */
+    private double addLogCounts(final ParticleStore store) {
+        final double[] weights = store.getWeights();
+        final int[] counts = store.getCounts();
+        final int size = store.getSize();
+        for (int i = 0; i < size; i++) {
+            if (counts[i] != 1) {
+                weights[i] += Math.log(counts[i]);
+            }
+        }
+        return LogWeights.logSumExp(weights, 0, size);
+    }
+
+    /**
+     * The effective sample size of the particles the normalized entries
+     * stand for: every particle of entry i has weight w / c, so it is
+     * 1 / sum(c * (w / c)^2) = 1 / sum(w * w / c).
+     */
+    private static double countedEffectiveSampleSize(final ParticleStore store) {
+        final double[] weights = store.getWeights();
+        final int[] counts = store.getCounts();
+        final int size = store.getSize();
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += weights[i] * weights[i] / counts[i];
+        }
+        return 1.0 / sum;
+    }
+
+    /**
+     * A single round of sense/estimate, followed by handing the new
+     * particles to the consumer.  This is what mainLoop repeats, and what
+     * schedulers driving many filters should call.
+     */
+    public void step() {
+        senseEstimate();
+
+        // At this point newData contains the best guess at the
+        // present position
+        particleFieldConsumer.consumeParticles(getExpandedNewParticleStore().asPool());
+    }
+
+    /**
+     * Run rounds until stopped, on the calling thread.
+     */
     public void mainLoop() {
         while (getRunStatus()) {
-            senseEstimate();
-
-            // At this point newData contains the best guess at the
-            // present position
-            particleFieldConsumer.consumeParticles(newParticles);
+            step();
         }
     }
 
+    /**
+     * The new particles, as a pool of particle objects.  This is a copy
+     * of the content of the expanded particle store, see
+     * getExpandedNewParticleStore and ParticleStore.asPool().
+     * @return the new particles.
+     */
     public WeightedPool<Particle> getNewParticles() {
-        return newParticles;
+        return getExpandedNewParticleStore().asPool();
     }
 
+    /**
+     * The old particles, as a pool of particle objects.
+     * @return the old particles.
+     */
     public WeightedPool<Particle> getOldParticles() {
+        return oldParticles.asPool();
+    }
+
+    /**
+     * The new particles as they are stored, which after compact
+     * resampling means one entry per distinct particle, with a count.
+     * @return the new particle store.
+     */
+    public ParticleStore getNewParticleStore() {
+        return newParticles;
+    }
+
+    /**
+     * The new particles with a count of one each, as consumers expect
+     * them.  After compact resampling the entries are expanded into a
+     * store kept for the purpose, which is overwritten by the next call.
+     * Otherwise this is the new particle store itself.
+     * @return the new particles.
+     */
+    public ParticleStore getExpandedNewParticleStore() {
+        if (!particlesCounted) {
+            return newParticles;
+        }
+        newParticles.expandTo(expandedParticles);
+        return expandedParticles;
+    }
+
+    public ParticleStore getOldParticleStore() {
         return oldParticles;
     }
 }
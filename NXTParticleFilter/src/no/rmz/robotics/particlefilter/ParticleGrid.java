@@ -0,0 +1,567 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter;
+
+import no.rmz.robotics.arrays.WeightedPool;
+import no.rmz.robotics.particlefilter.geometry.XYPair;
+
+/**
+ * A uniform grid over the positions of the particles, for questions that
+ * are about where the belief is rather than about single particles: how
+ * much weight there is in a cell or within a radius of a point, and which
+ * separate clusters the particles form, with the mass and centroid of
+ * each.  A robot on a symmetric track, such as a circle, has several
+ * equally likely positions, and the clusters tell them apart.
+ *
+ * The grid covers the bounding box of the particles, with square cells.
+ * The cells are never smaller than the cell size given, but are made
+ * larger when the particles are so spread out that there would be more
+ * than four cells per particle.  The particles are sorted into the cells
+ * with a counting sort, and their positions and masses are copied in cell
+ * order, so a build is a few linear passes.  Only the cells that were
+ * occupied by the previous build are cleared, and nothing is allocated
+ * unless there are more particles than before.
+ *
+ * Clusters are the connected components of occupied cells, where cells
+ * that touch at a side or a corner are connected.  They are found the
+ * first time they are asked for after a build, in time proportional to
+ * the number of occupied cells.  Only one thread may use an instance.
+ */
+public final class ParticleGrid {
+
+    private final double minCellSize;
+
+    private double cellSize;
+
+    private double minX;
+
+    private double minY;
+
+    private int columns;
+
+    private int rows;
+
+    private int noOfParticles;
+
+    /**
+     * Per cell: the number of particles, where they start in the sorted
+     * arrays, their mass, the mass weighted sum of their positions, and
+     * the cluster they belong to.
+     */
+    private int[] cellCount = new int[0];
+    private int[] cellStart = new int[0];
+    private double[] cellMass = new double[0];
+    private double[] cellSumX = new double[0];
+    private double[] cellSumY = new double[0];
+    private int[] cellCluster = new int[0];
+
+    /**
+     * The cells with particles in them, in the order they were found.
+     */
+    private int[] occupied = new int[0];
+    private int noOfOccupied = 0;
+
+    /**
+     * Per particle, in store order: the cell it is in.
+     */
+    private int[] particleCell = new int[0];
+
+    /**
+     * Per particle, in cell order: its index in the store, its position
+     * and its mass.
+     */
+    private int[] sortedIndex = new int[0];
+    private double[] sortedX = new double[0];
+    private double[] sortedY = new double[0];
+    private double[] sortedMass = new double[0];
+
+    /**
+     * Columns gathered from a pool of particle objects.
+     */
+    private double[] poolX = new double[0];
+    private double[] poolY = new double[0];
+    private double[] poolWeights = new double[0];
+
+    private boolean clustersFound = false;
+    private int noOfClusters = 0;
+    private double[] clusterMass = new double[0];
+    private double[] clusterSumX = new double[0];
+    private double[] clusterSumY = new double[0];
+    private int[] clusterSize = new int[0];
+    private int[] stack = new int[0];
+
+    /**
+     * @param cellSize the smallest width and height of a cell, in map units.
+     */
+    public ParticleGrid(final double cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("cellSize must be positive, was: " + cellSize);
+        }
+        this.minCellSize = cellSize;
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Make room for up to maxNoOfParticles particles, so that builds
+     * don't allocate.
+     *
+     * @param maxNoOfParticles
+     */
+    public void ensureCapacity(final int maxNoOfParticles) {
+        if (maxNoOfParticles <= particleCell.length) {
+            return;
+        }
+        final int n = maxNoOfParticles;
+        final int maxCells = maxNoOfCells(n);
+        cellCount = new int[maxCells];
+        cellStart = new int[maxCells];
+        cellMass = new double[maxCells];
+        cellSumX = new double[maxCells];
+        cellSumY = new double[maxCells];
+        cellCluster = new int[maxCells];
+        for (int i = 0; i < maxCells; i++) {
+            cellCluster[i] = -1;
+        }
+        occupied = new int[n];
+        noOfOccupied = 0;
+        particleCell = new int[n];
+        sortedIndex = new int[n];
+        sortedX = new double[n];
+        sortedY = new double[n];
+        sortedMass = new double[n];
+        clusterMass = new double[n];
+        clusterSumX = new double[n];
+        clusterSumY = new double[n];
+        clusterSize = new int[n];
+        stack = new int[n];
+        noOfParticles = 0;
+        clustersFound = false;
+        noOfClusters = 0;
+    }
+
+    private static int maxNoOfCells(final int noOfParticles) {
+        return Math.max(64, 4 * noOfParticles);
+    }
+
+    /**
+     * Sort the particles in use in a store into the grid.
+     *
+     * @param store the particles.
+     * @param weights the mass of each entry, in store order, or null if
+     *        every particle has the same mass, one over their number.  An
+     *        entry then has the mass of all the particles it stands for.
+     */
+    public void build(final ParticleStore store, final double[] weights) {
+        if (weights == null) {
+            build(store.getXs(), store.getYs(), null, store.getCounts(),
+                    store.getNoOfRepresentedParticles(), store.getSize());
+        } else {
+            build(store.getXs(), store.getYs(), weights, null, 0, store.getSize());
+        }
+    }
+
+    /**
+     * Sort the particles of a pool into the grid, with their weights as
+     * their masses.  The pool is read, not changed.
+     *
+     * @param pool the particles.
+     */
+    public void build(final WeightedPool<Particle> pool) {
+        final int n = pool.getSize();
+        if (poolX.length < n) {
+            poolX = new double[n];
+            poolY = new double[n];
+            poolWeights = new double[n];
+        }
+        for (int i = 0; i < n; i++) {
+            final Particle p = pool.get(i);
+            final XYPair position = p.getPosition();
+            poolX[i] = position.getX();
+            poolY[i] = position.getY();
+            poolWeights[i] = p.getWeight();
+        }
+        build(poolX, poolY, poolWeights, null, 0, n);
+    }
+
+    /**
+     * @param weights the masses, or null to use the counts instead.
+     * @param counts the number of particles per entry.
+     * @param total the sum of the counts.
+     */
+    private void build(
+            final double[] x, final double[] y,
+            final double[] weights, final int[] counts, final int total,
+            final int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("No particles to build a grid of");
+        }
+        ensureCapacity(n);
+        clear();
+        noOfParticles = n;
+
+        double loX = x[0];
+        double hiX = x[0];
+        double loY = y[0];
+        double hiY = y[0];
+        for (int i = 1; i < n; i++) {
+            final double px = x[i];
+            final double py = y[i];
+            if (px < loX) {
+                loX = px;
+            } else if (px > hiX) {
+                hiX = px;
+            }
+            if (py < loY) {
+                loY = py;
+            } else if (py > hiY) {
+                hiY = py;
+            }
+        }
+        if (Double.isNaN(loX + hiX + loY + hiY) || Double.isInfinite(hiX - loX) || Double.isInfinite(hiY - loY)) {
+            throw new IllegalStateException("Particle positions aren't finite");
+        }
+        layOut(loX, hiX, loY, hiY, maxNoOfCells(particleCell.length));
+
+        final double equalMass = (weights == null) ? 1.0 / total : 0.0;
+        final double inverseCellSize = 1.0 / cellSize;
+        for (int i = 0; i < n; i++) {
+            final double px = x[i];
+            final double py = y[i];
+            final int column = Math.min(columns - 1, (int) ((px - minX) * inverseCellSize));
+            final int row = Math.min(rows - 1, (int) ((py - minY) * inverseCellSize));
+            final int cell = row * columns + column;
+            particleCell[i] = cell;
+            if (cellCount[cell]++ == 0) {
+                occupied[noOfOccupied++] = cell;
+            }
+            final double m = (weights == null) ? equalMass * counts[i] : weights[i];
+            cellMass[cell] += m;
+            cellSumX[cell] += m * px;
+            cellSumY[cell] += m * py;
+        }
+
+        int start = 0;
+        for (int k = 0; k < noOfOccupied; k++) {
+            final int cell = occupied[k];
+            cellStart[cell] = start;
+            start += cellCount[cell];
+        }
+        // Scatter, using the counts as cursors, then restore them.
+        for (int i = 0; i < n; i++) {
+            final int cell = particleCell[i];
+            final int j = cellStart[cell] + (--cellCount[cell]);
+            sortedIndex[j] = i;
+            sortedX[j] = x[i];
+            sortedY[j] = y[i];
+            sortedMass[j] = (weights == null) ? equalMass * counts[i] : weights[i];
+        }
+        for (int k = 0; k < noOfOccupied; k++) {
+            final int cell = occupied[k];
+            final int next = (k + 1 < noOfOccupied) ? cellStart[occupied[k + 1]] : n;
+            cellCount[cell] = next - cellStart[cell];
+        }
+    }
+
+    /**
+     * Choose the cell size and the grid's extent for a bounding box.
+     */
+    private void layOut(
+            final double loX, final double hiX,
+            final double loY, final double hiY,
+            final int maxCells) {
+        final double width = hiX - loX;
+        final double height = hiY - loY;
+        double size = minCellSize;
+        if ((width / size + 1) * (height / size + 1) > maxCells) {
+            // The smallest size that fits, then grown until rounding fits too.
+            size = Math.max(size, Math.sqrt(width * height / maxCells));
+            size = Math.max(size, Math.max(width, height) / (maxCells / 2));
+            while (((long) (width / size) + 1) * ((long) (height / size) + 1) > maxCells) {
+                size *= 1.25;
+            }
+        }
+        cellSize = size;
+        minX = loX;
+        minY = loY;
+        columns = (int) (width / size) + 1;
+        rows = (int) (height / size) + 1;
+    }
+
+    /**
+     * Forget the cells of the previous build.
+     */
+    private void clear() {
+        for (int k = 0; k < noOfOccupied; k++) {
+            final int cell = occupied[k];
+            cellCount[cell] = 0;
+            cellMass[cell] = 0;
+            cellSumX[cell] = 0;
+            cellSumY[cell] = 0;
+            cellCluster[cell] = -1;
+        }
+        noOfOccupied = 0;
+        noOfClusters = 0;
+        clustersFound = false;
+    }
+
+    public int getNoOfParticles() {
+        return noOfParticles;
+    }
+
+    /**
+     * @return the width and height of the cells in the latest build.
+     */
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public int getNoOfOccupiedCells() {
+        return noOfOccupied;
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return the cell containing a point, or -1 if it is outside the grid.
+     */
+    public int getCell(final double x, final double y) {
+        final double column = Math.floor((x - minX) / cellSize);
+        final double row = Math.floor((y - minY) / cellSize);
+        if (column < 0 || row < 0 || column >= columns || row >= rows) {
+            return -1;
+        }
+        return (int) row * columns + (int) column;
+    }
+
+    /**
+     * @param cell a cell, as given by getCell.
+     * @return the mass of the particles in the cell.
+     */
+    public double getCellMass(final int cell) {
+        return cell < 0 ? 0.0 : cellMass[cell];
+    }
+
+    /**
+     * @param cell a cell, as given by getCell.
+     * @return the number of particles in the cell.
+     */
+    public int getCellCount(final int cell) {
+        return cell < 0 ? 0 : cellCount[cell];
+    }
+
+    /**
+     * Find the particles within a radius of a point.
+     *
+     * @param x
+     * @param y
+     * @param radius
+     * @param result where the store indexes of the particles are written,
+     *        as many as there is room for.  May be null.
+     * @return the number of particles within the radius.
+     */
+    public int query(final double x, final double y, final double radius, final int[] result) {
+        int found = 0;
+        final double r2 = radius * radius;
+        final int firstColumn = Math.max(0, (int) Math.floor((x - radius - minX) / cellSize));
+        final int lastColumn = Math.min(columns - 1, (int) Math.floor((x + radius - minX) / cellSize));
+        final int firstRow = Math.max(0, (int) Math.floor((y - radius - minY) / cellSize));
+        final int lastRow = Math.min(rows - 1, (int) Math.floor((y + radius - minY) / cellSize));
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                final int cell = row * columns + column;
+                final int start = cellStart[cell];
+                final int end = start + cellCount[cell];
+                for (int j = start; j < end; j++) {
+                    final double dx = sortedX[j] - x;
+                    final double dy = sortedY[j] - y;
+                    if (dx * dx + dy * dy <= r2) {
+                        if (result != null && found < result.length) {
+                            result[found] = sortedIndex[j];
+                        }
+                        found++;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @param radius
+     * @return the mass of the particles within a radius of a point.
+     */
+    public double getMassWithin(final double x, final double y, final double radius) {
+        double mass = 0;
+        final double r2 = radius * radius;
+        final int firstColumn = Math.max(0, (int) Math.floor((x - radius - minX) / cellSize));
+        final int lastColumn = Math.min(columns - 1, (int) Math.floor((x + radius - minX) / cellSize));
+        final int firstRow = Math.max(0, (int) Math.floor((y - radius - minY) / cellSize));
+        final int lastRow = Math.min(rows - 1, (int) Math.floor((y + radius - minY) / cellSize));
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                final int cell = row * columns + column;
+                final int start = cellStart[cell];
+                final int end = start + cellCount[cell];
+                for (int j = start; j < end; j++) {
+                    final double dx = sortedX[j] - x;
+                    final double dy = sortedY[j] - y;
+                    if (dx * dx + dy * dy <= r2) {
+                        mass += sortedMass[j];
+                    }
+                }
+            }
+        }
+        return mass;
+    }
+
+    /**
+     * Find the clusters, unless they have been found since the latest
+     * build.
+     *
+     * @return the number of clusters.
+     */
+    public int findClusters() {
+        if (clustersFound) {
+            return noOfClusters;
+        }
+        for (int k = 0; k < noOfOccupied; k++) {
+            final int seed = occupied[k];
+            if (cellCluster[seed] >= 0) {
+                continue;
+            }
+            final int c = noOfClusters++;
+            clusterMass[c] = 0;
+            clusterSumX[c] = 0;
+            clusterSumY[c] = 0;
+            clusterSize[c] = 0;
+            int top = 0;
+            stack[top++] = seed;
+            cellCluster[seed] = c;
+            while (top > 0) {
+                final int cell = stack[--top];
+                clusterMass[c] += cellMass[cell];
+                clusterSumX[c] += cellSumX[cell];
+                clusterSumY[c] += cellSumY[cell];
+                clusterSize[c] += cellCount[cell];
+                final int row = cell / columns;
+                final int column = cell - row * columns;
+                for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+                    for (int q = Math.max(0, column - 1); q <= Math.min(columns - 1, column + 1); q++) {
+                        final int neighbour = r * columns + q;
+                        if (cellCount[neighbour] > 0 && cellCluster[neighbour] < 0) {
+                            cellCluster[neighbour] = c;
+                            stack[top++] = neighbour;
+                        }
+                    }
+                }
+            }
+        }
+        clustersFound = true;
+        return noOfClusters;
+    }
+
+    public int getNoOfClusters() {
+        return findClusters();
+    }
+
+    /**
+     * @param cluster
+     * @return the sum of the masses of the particles in a cluster.
+     */
+    public double getClusterMass(final int cluster) {
+        checkCluster(cluster);
+        return clusterMass[cluster];
+    }
+
+    /**
+     * @param cluster
+     * @return x of the mass weighted centroid of a cluster.
+     */
+    public double getClusterX(final int cluster) {
+        checkCluster(cluster);
+        return centroid(clusterSumX[cluster], clusterMass[cluster]);
+    }
+
+    /**
+     * @param cluster
+     * @return y of the mass weighted centroid of a cluster.
+     */
+    public double getClusterY(final int cluster) {
+        checkCluster(cluster);
+        return centroid(clusterSumY[cluster], clusterMass[cluster]);
+    }
+
+    /**
+     * @param cluster
+     * @return the number of particles in a cluster.
+     */
+    public int getClusterSize(final int cluster) {
+        checkCluster(cluster);
+        return clusterSize[cluster];
+    }
+
+    /**
+     * @param cell a cell, as given by getCell.
+     * @return the cluster the cell belongs to, -1 if it is empty.
+     */
+    public int getClusterOfCell(final int cell) {
+        findClusters();
+        return (cell < 0 || cellCount[cell] == 0) ? -1 : cellCluster[cell];
+    }
+
+    private static double centroid(final double sum, final double mass) {
+        return mass > 0 ? sum / mass : Double.NaN;
+    }
+
+    private void checkCluster(final int cluster) {
+        if (cluster < 0 || cluster >= findClusters()) {
+            throw new IllegalArgumentException("No cluster " + cluster);
+        }
+    }
+
+    /**
+     * The heaviest clusters, heaviest first.
+     *
+     * @param result where the clusters are written, as many as there is
+     *        room for.
+     * @return the number of clusters written.
+     */
+    public int getTopClusters(final int[] result) {
+        if (result.length == 0) {
+            return 0;
+        }
+        final int n = findClusters();
+        final int k = Math.min(result.length, n);
+        // Insertion into a sorted array of k, fine for the few that are
+        // asked for.
+        int filled = 0;
+        for (int c = 0; c < n; c++) {
+            final double m = clusterMass[c];
+            if (filled == k && m <= clusterMass[result[k - 1]]) {
+                continue;
+            }
+            int j = (filled < k) ? filled++ : k - 1;
+            while (j > 0 && clusterMass[result[j - 1]] < m) {
+                result[j] = result[j - 1];
+                j--;
+            }
+            result[j] = c;
+        }
+        return k;
+    }
+}
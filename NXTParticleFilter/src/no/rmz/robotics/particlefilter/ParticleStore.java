@@ -0,0 +1,628 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter;
+
+import no.rmz.robotics.arrays.LogWeights;
+import no.rmz.robotics.arrays.WeightedPool;
+import no.rmz.robotics.particlefilter.geometry.GeometryMath;
+import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
+import no.rmz.robotics.particlefilter.geometry.XYPair;
+
+/**
+ * A primitive backed store of particles.  Instead of keeping one
+ * Particle, one XYPair and one PolarCoordinate object per particle, the
+ * store keeps one double array ("column") per field, and a particle is
+ * just an index into those columns.  This keeps the filter's inner loops
+ * walking through contiguous memory instead of chasing pointers.
+ *
+ * The object API is still available: single particles can be copied in
+ * and out of the store, and the whole store can be seen as a
+ * WeightedPool of Particle objects through asPool().
+ *
+ * Every entry also has a count, the number of identical particles it
+ * stands for.  It is one unless the filter has resampled compactly, see
+ * ParticleFilter.setCompactResampling; the weight of an entry is then
+ * the weight of all its particles together.
+ */
+public final class ParticleStore {
+
+    /**
+     * The name of the store.
+     */
+    private final String name;
+
+    /**
+     * The number of particles in use, the first 'size' entries of the
+     * columns.
+     */
+    private int size;
+
+    /**
+     * The number of particles the store has room for, the length of
+     * the columns.
+     */
+    private final int capacity;
+
+    /**
+     * Position, x coordinate, in map coordinates.
+     */
+    private final double[] x;
+
+    /**
+     * Position, y coordinate, in map coordinates.
+     */
+    private final double[] y;
+
+    /**
+     * Direction of the speed, in map coordinates.
+     */
+    private final double[] theta;
+
+    /**
+     * Magnitude of the speed.
+     */
+    private final double[] radius;
+
+    /**
+     * The weights of the particles.
+     */
+    private final double[] weight;
+
+    /**
+     * The number of particles each entry stands for.
+     */
+    private final int[] count;
+
+    /**
+     * The object view of the store, created the first time it is asked for.
+     */
+    private WeightedPool<Particle> view;
+
+    /**
+     * Create a new store where all particles are at the origin, standing
+     * still, with the same initial weight.  All of the capacity is in use
+     * to begin with.
+     *
+     * @param name the name of the store.
+     * @param capacity the number of particles the store has room for.
+     * @param initialWeight the weight every particle starts out with.
+     */
+    public ParticleStore(
+            final String name,
+            final int capacity,
+            final double initialWeight) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive, was: " + capacity);
+        }
+        if (initialWeight <= 0.0) {
+            throw new IllegalArgumentException("Weight must be positive, but was: " + initialWeight);
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.size = capacity;
+        this.x = new double[capacity];
+        this.y = new double[capacity];
+        this.theta = new double[capacity];
+        this.radius = new double[capacity];
+        this.weight = new double[capacity];
+        this.count = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            weight[i] = initialWeight;
+            count[i] = 1;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Change the number of particles in use.  Nothing is allocated or
+     * cleared, particles beyond the new size are simply ignored, and
+     * particles brought back into use have whatever content they had.
+     *
+     * @param size a number from one up to the capacity.
+     */
+    public void setSize(final int size) {
+        if (size < 1 || size > capacity) {
+            throw new IllegalArgumentException("size must be between 1 and " + capacity + ", was: " + size);
+        }
+        this.size = size;
+    }
+
+    public double getX(final int i) {
+        return x[i];
+    }
+
+    public double getY(final int i) {
+        return y[i];
+    }
+
+    public double getTheta(final int i) {
+        return theta[i];
+    }
+
+    public double getRadius(final int i) {
+        return radius[i];
+    }
+
+    public double getWeight(final int i) {
+        return weight[i];
+    }
+
+    /**
+     * @param i
+     * @return the number of particles entry i stands for.
+     */
+    public int getCount(final int i) {
+        return count[i];
+    }
+
+    public void setX(final int i, final double v) {
+        x[i] = v;
+    }
+
+    public void setY(final int i, final double v) {
+        y[i] = v;
+    }
+
+    public void setTheta(final int i, final double v) {
+        theta[i] = v;
+    }
+
+    public void setRadius(final int i, final double v) {
+        radius[i] = v;
+    }
+
+    /**
+     * Set the weight of particle i.  Unlike Particle.setWeight this is
+     * not checked, since it is called from the inner loop of the filter.
+     * The weights are checked when they are normalized.
+     *
+     * @param i
+     * @param w
+     */
+    public void setWeight(final int i, final double w) {
+        weight[i] = w;
+    }
+
+    /**
+     * @param i
+     * @param c the number of particles entry i stands for, at least one.
+     */
+    public void setCount(final int i, final int c) {
+        if (c < 1) {
+            throw new IllegalArgumentException("count must be positive, was: " + c);
+        }
+        count[i] = c;
+    }
+
+    /**
+     * The x column.  This is the live array, not a copy, and it is
+     * meant for kernels that process all particles in one go.  It has
+     * room for the whole capacity, only the first getSize() are in use.
+     * @return the x column.
+     */
+    public double[] getXs() {
+        return x;
+    }
+
+    /**
+     * @return the live y column.
+     */
+    public double[] getYs() {
+        return y;
+    }
+
+    /**
+     * @return the live theta column.
+     */
+    public double[] getThetas() {
+        return theta;
+    }
+
+    /**
+     * @return the live radius column.
+     */
+    public double[] getRadii() {
+        return radius;
+    }
+
+    /**
+     * @return the live weight column.
+     */
+    public double[] getWeights() {
+        return weight;
+    }
+
+    /**
+     * @return the live count column.
+     */
+    public int[] getCounts() {
+        return count;
+    }
+
+    /**
+     * @return the number of particles the entries in use stand for, the
+     *         sum of their counts.
+     */
+    public int getNoOfRepresentedParticles() {
+        int sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += count[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Copy particle i to index j in the destination store.  Like
+     * Particle.copyTo, everything except the weight is copied, and the
+     * weight is set to zero.  The copy is a single particle.
+     *
+     * @param i index of the particle to copy.
+     * @param destination the store to copy into, may be this store.
+     * @param j index in the destination store.
+     */
+    public void copyTo(final int i, final ParticleStore destination, final int j) {
+        destination.x[j] = x[i];
+        destination.y[j] = y[i];
+        destination.theta[j] = theta[i];
+        destination.radius[j] = radius[i];
+        destination.weight[j] = 0;
+        destination.count[j] = 1;
+    }
+
+    /**
+     * Like copyTo, but the copy stands for a number of particles.
+     *
+     * @param i index of the particle to copy.
+     * @param destination the store to copy into, may be this store.
+     * @param j index in the destination store.
+     * @param c the number of particles the copy stands for.
+     */
+    public void copyTo(final int i, final ParticleStore destination, final int j, final int c) {
+        destination.x[j] = x[i];
+        destination.y[j] = y[i];
+        destination.theta[j] = theta[i];
+        destination.radius[j] = radius[i];
+        destination.weight[j] = 0;
+        destination.count[j] = c;
+    }
+
+    /**
+     * Write every particle the entries stand for separately, so that
+     * each entry of the destination has a count of one.  The weight of
+     * an entry is shared equally among its particles.
+     *
+     * @param destination a store with room for all the particles.
+     */
+    public void expandTo(final ParticleStore destination) {
+        if (destination == this) {
+            throw new IllegalArgumentException("Can't expand a store into itself");
+        }
+        final int n = getNoOfRepresentedParticles();
+        if (destination.capacity < n) {
+            throw new IllegalArgumentException("Destination has room for "
+                    + destination.capacity + " particles, not " + n);
+        }
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            final int c = count[i];
+            final double w = weight[i] / c;
+            for (int k = 0; k < c; k++, j++) {
+                destination.x[j] = x[i];
+                destination.y[j] = y[i];
+                destination.theta[j] = theta[i];
+                destination.radius[j] = radius[i];
+                destination.weight[j] = w;
+                destination.count[j] = 1;
+            }
+        }
+        destination.size = n;
+    }
+
+    /**
+     * Copy every particle in use, weights included, to the start of the
+     * destination store, and give it the same size.
+     *
+     * @param destination a store with at least this store's size as
+     *        its capacity.
+     */
+    public void copyAllTo(final ParticleStore destination) {
+        if (destination.capacity < size) {
+            throw new IllegalArgumentException("Destination has room for "
+                    + destination.capacity + " particles, not " + size);
+        }
+        System.arraycopy(x, 0, destination.x, 0, size);
+        System.arraycopy(y, 0, destination.y, 0, size);
+        System.arraycopy(theta, 0, destination.theta, 0, size);
+        System.arraycopy(radius, 0, destination.radius, 0, size);
+        System.arraycopy(weight, 0, destination.weight, 0, size);
+        System.arraycopy(count, 0, destination.count, 0, size);
+        destination.size = size;
+    }
+
+    /**
+     * Copy particle i, weight included, into a Particle object.
+     *
+     * @param i index of the particle.
+     * @param destination the particle to copy into.
+     */
+    public void get(final int i, final Particle destination) {
+        final XYPair position = destination.getPosition();
+        final PolarCoordinate speed = destination.getSpeed();
+        position.setX(x[i]);
+        position.setY(y[i]);
+        speed.setTheta(theta[i]);
+        speed.setRadius(radius[i]);
+        // Bypass the check in setWeight, copied particles have weight zero.
+        destination.setWeightUnchecked(weight[i]);
+    }
+
+    /**
+     * Copy a Particle object, weight included, into index i, as a
+     * single particle.
+     *
+     * @param i index of the particle.
+     * @param source the particle to copy from.
+     */
+    public void set(final int i, final Particle source) {
+        final XYPair position = source.getPosition();
+        final PolarCoordinate speed = source.getSpeed();
+        x[i] = position.getX();
+        y[i] = position.getY();
+        theta[i] = speed.getTheta();
+        radius[i] = speed.getRadius();
+        weight[i] = source.getWeight();
+        count[i] = 1;
+    }
+
+    public double getSumOfWeights() {
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += weight[i];
+        }
+
+        if (sum <= 0) {
+            throw new IllegalStateException("non-positive sum of weights detected");
+        }
+        return sum;
+    }
+
+    /**
+     * Divide the weights by their sum.  The effective sample size,
+     * 1 / sum(w * w) of the normalized weights, is computed in the same
+     * pass.  It is the number of particles when all weights are equal,
+     * and one when a single particle has all the weight.
+     *
+     * @param sumOfWeights
+     * @return the effective sample size.
+     */
+    public double normalizeWeights(final double sumOfWeights) {
+        if (sumOfWeights <= 0) {
+            throw new IllegalArgumentException("Can't normalize with non-positive number: " + sumOfWeights);
+        }
+        final double factor = 1.0 / sumOfWeights;
+        double sumOfSquares = 0;
+        for (int i = 0; i < size; i++) {
+            final double w = weight[i];
+            if (w <= 0.0) {
+                throw new IllegalStateException("Non-positive non-normalized weight detected " + w);
+            }
+            final double normalized = w * factor;
+            weight[i] = normalized;
+            sumOfSquares += normalized * normalized;
+        }
+        return 1.0 / sumOfSquares;
+    }
+
+    /**
+     * Normalize weights that are logarithms, as set by a weigher in log
+     * mode.  See LogWeights.normalize, there are no checks per particle.
+     *
+     * @param logSumOfWeights the logarithm of the sum of the weights.
+     * @return the effective sample size, see normalizeWeights.
+     */
+    public double normalizeLogWeights(final double logSumOfWeights) {
+        return LogWeights.normalize(weight, size, logSumOfWeights);
+    }
+
+    /**
+     * Normalize the weights like normalizeWeights, and publish the pose
+     * estimate of the normalized particles from the same pass.
+     *
+     * @param sumOfWeights
+     * @param pose where the estimate is published.
+     * @return the effective sample size.
+     */
+    public double normalizeWeights(final double sumOfWeights, final PoseEstimate pose) {
+        if (sumOfWeights <= 0) {
+            throw new IllegalArgumentException("Can't normalize with non-positive number: " + sumOfWeights);
+        }
+        return normalizeAndEstimate(false, 1.0 / sumOfWeights, pose);
+    }
+
+    /**
+     * Normalize log weights like normalizeLogWeights, and publish the
+     * pose estimate of the normalized particles from the same pass.
+     *
+     * @param logSumOfWeights
+     * @param pose where the estimate is published.
+     * @return the effective sample size.
+     */
+    public double normalizeLogWeights(final double logSumOfWeights, final PoseEstimate pose) {
+        if (Double.isNaN(logSumOfWeights) || Double.isInfinite(logSumOfWeights)) {
+            throw new IllegalArgumentException("Can't normalize with log sum: " + logSumOfWeights);
+        }
+        return normalizeAndEstimate(true, logSumOfWeights, pose);
+    }
+
+    /**
+     * The loop of the two methods above.  Positions are summed relative
+     * to the first particle, so that the variances don't drown in the
+     * squares of large coordinates.  The headings are averaged as unit
+     * vectors, using GeometryMath's tables whatever the fast mode is,
+     * since an error of 3e-7 doesn't matter to an average.
+     *
+     * @param log true if the weights are logarithms.
+     * @param scale what plain weights are multiplied by, or the log sum
+     *        subtracted from log weights.
+     */
+    private double normalizeAndEstimate(
+            final boolean log,
+            final double scale,
+            final PoseEstimate pose) {
+        final double x0 = x[0];
+        final double y0 = y[0];
+        double sumOfSquares = 0;
+        double sumX = 0;
+        double sumY = 0;
+        double sumXX = 0;
+        double sumYY = 0;
+        double sumXY = 0;
+        double sumCos = 0;
+        double sumSin = 0;
+        int best = 0;
+        double bestWeight = -1;
+        for (int i = 0; i < size; i++) {
+            final double w;
+            if (log) {
+                w = Math.exp(weight[i] - scale);
+            } else {
+                final double unnormalized = weight[i];
+                if (unnormalized <= 0.0) {
+                    throw new IllegalStateException("Non-positive non-normalized weight detected " + unnormalized);
+                }
+                w = unnormalized * scale;
+            }
+            weight[i] = w;
+            sumOfSquares += w * w;
+
+            final double dx = x[i] - x0;
+            final double dy = y[i] - y0;
+            final double wdx = w * dx;
+            final double wdy = w * dy;
+            sumX += wdx;
+            sumY += wdy;
+            sumXX += wdx * dx;
+            sumYY += wdy * dy;
+            sumXY += wdx * dy;
+            sumCos += w * GeometryMath.cos(theta[i]);
+            sumSin += w * GeometryMath.sin(theta[i]);
+            if (w > bestWeight) {
+                bestWeight = w;
+                best = i;
+            }
+        }
+        // The normalized weights sum to one, give or take rounding.
+        final double meanX = sumX;
+        final double meanY = sumY;
+        final double resultant = Math.sqrt(sumCos * sumCos + sumSin * sumSin);
+        pose.publish(
+                size,
+                x0 + meanX, y0 + meanY, Math.atan2(sumSin, sumCos),
+                Math.max(0.0, sumXX - meanX * meanX),
+                Math.max(0.0, sumYY - meanY * meanY),
+                sumXY - meanX * meanY,
+                Math.max(0.0, 1.0 - resultant),
+                x[best], y[best], theta[best], bestWeight);
+        return 1.0 / sumOfSquares;
+    }
+
+    /**
+     * Replace the weights with the cumulative sums of the weights, so
+     * that binarySearchForNumber can be used to pick particles according
+     * to their weight.  Unlike WeightedPool.sortThenCumulateWeights the
+     * particles are not sorted first, since picking by cumulative weight
+     * works just as well in any order.
+     */
+    public void cumulateWeights() {
+        double cumulatedWeights = 0;
+        for (int i = 0; i < size; i++) {
+            final double w = weight[i];
+            if (w <= 0) {
+                throw new IllegalStateException("Non-positive weight " + w + " detected at index" + i);
+            }
+            cumulatedWeights += w;
+            weight[i] = cumulatedWeights;
+        }
+    }
+
+    /**
+     * Interpret the weights as cumulative probabilities and find the
+     * index of the first particle whose cumulative weight is larger
+     * than r.
+     *
+     * @param r a number between zero and the total weight.
+     * @return the index of the picked particle.
+     */
+    public int binarySearchForNumber(final double r) {
+        int min = 0;
+        int max = size - 1;
+
+        while (min < max) {
+            final int center = min + (max - min) / 2;
+            if (weight[center] <= r) {
+                min = center + 1;
+            } else {
+                max = center;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * The content of the store as a pool of Particle objects.  The
+     * particle objects are created the first time this method is called,
+     * and are then reused.  Every call copies the current content of the
+     * store into them.  Changes made to the particles are not written back
+     * to the store, use set() for that.
+     *
+     * Nothing is published for other threads, since that copies every
+     * particle once more.  Callers that hand the particles on to another
+     * thread call publish() on the pool, see ParticleFieldConsumer.
+     *
+     * @return a pool of particles with the same content as the store.
+     */
+    public WeightedPool<Particle> asPool() {
+        if (view == null) {
+            final Particle[] particles = new Particle[capacity];
+            for (int i = 0; i < capacity; i++) {
+                particles[i] = new Particle(
+                        new XYPair(0.0, 0.0),
+                        new PolarCoordinate(0.0, 0.0),
+                        1.0);
+            }
+            view = new WeightedPool<Particle>(name, particles);
+            view.setCopier(new ParticleCopier());
+        }
+
+        final Particle[] particles = view.getParticles();
+        for (int i = 0; i < size; i++) {
+            get(i, particles[i]);
+        }
+        view.setSize(size);
+        return view;
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter;
+
+import no.rmz.robotics.sensors.LogSensorModel;
+import no.rmz.robotics.sensors.SensorInput;
+import no.rmz.robotics.sensors.SensorModel;
+
+/**
+ * The weighting phase of the particle filter: give every particle in a
+ * store a weight saying how well the sensor input matches what the
+ * navigation map says the sensor should see at the particle's position.
+ */
+public interface ParticleWeigher {
+
+    /**
+     * Weigh all particles in the store.
+     *
+     * @param store The particles to weigh.  Their weights are overwritten.
+     * @param navigationMap The map giving expected sensor values.
+     * @param sensorModel The model comparing expected and actual input.
+     * @param sensorInput The actual sensor input.
+     * @return the sum of the weights, for normalization.
+     */
+    public double weigh(
+            final ParticleStore store,
+            final NavigationMap navigationMap,
+            final SensorModel sensorModel,
+            final SensorInput sensorInput);
+
+    /**
+     * Weigh all particles in the store in the log domain: the weights
+     * are set to log probabilities, and the logarithm of their sum is
+     * computed in the same pass.
+     *
+     * @param store The particles to weigh.  Their weights are overwritten
+     *              by log weights.
+     * @param navigationMap The map giving expected sensor values.
+     * @param sensorModel The model comparing expected and actual input.
+     * @param sensorInput The actual sensor input.
+     * @return the logarithm of the sum of the weights, for normalization.
+     */
+    public double weighLog(
+            final ParticleStore store,
+            final NavigationMap navigationMap,
+            final LogSensorModel sensorModel,
+            final SensorInput sensorInput);
+}
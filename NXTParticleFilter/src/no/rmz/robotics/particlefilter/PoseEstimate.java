@@ -0,0 +1,226 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter;
+
+/**
+ * The filter's estimate of the robot's pose: the weighted mean position
+ * and heading of the particles, the covariance of the position, and the
+ * particle with the largest weight.  The filter computes it while it
+ * normalizes the weights, so readers get it without walking the
+ * particles themselves.
+ *
+ * The filter publishes a new estimate every round, and readers on other
+ * threads may poll it as often as they like, without locks, using a
+ * sequence lock: the version is odd while the filter is writing, and a
+ * reader that sees it change while reading simply reads again.  Use
+ * copyTo() to get a consistent copy, and read the getters of the copy.
+ * The getters of the filter's own estimate may mix two rounds.
+ *
+ * The fields are all volatile, since without fences a Java 7 reader
+ * could see the fields read after the version check.  Nothing is
+ * allocated when publishing or reading.
+ */
+public final class PoseEstimate {
+
+    /**
+     * Even when the estimate is stable, odd while it is being written.
+     */
+    private volatile int version = 0;
+
+    private volatile long round = -1;
+
+    private volatile int noOfParticles;
+
+    private volatile double x;
+
+    private volatile double y;
+
+    private volatile double theta;
+
+    private volatile double varianceX;
+
+    private volatile double varianceY;
+
+    private volatile double covarianceXY;
+
+    private volatile double headingSpread;
+
+    private volatile double bestX;
+
+    private volatile double bestY;
+
+    private volatile double bestTheta;
+
+    private volatile double bestWeight;
+
+    /**
+     * Write a new estimate.  Only one thread may publish to an estimate.
+     */
+    void publish(
+            final int noOfParticles,
+            final double x, final double y, final double theta,
+            final double varianceX, final double varianceY, final double covarianceXY,
+            final double headingSpread,
+            final double bestX, final double bestY, final double bestTheta,
+            final double bestWeight) {
+        final int v = version;
+        version = v + 1;
+        this.round = round + 1;
+        this.noOfParticles = noOfParticles;
+        this.x = x;
+        this.y = y;
+        this.theta = theta;
+        this.varianceX = varianceX;
+        this.varianceY = varianceY;
+        this.covarianceXY = covarianceXY;
+        this.headingSpread = headingSpread;
+        this.bestX = bestX;
+        this.bestY = bestY;
+        this.bestTheta = bestTheta;
+        this.bestWeight = bestWeight;
+        version = v + 2;
+    }
+
+    /**
+     * Copy a consistent estimate into another one, waiting out a
+     * publication in progress.
+     *
+     * @param destination the copy, which must not be published to.
+     * @return the round of the copied estimate, -1 if none was published.
+     */
+    public long copyTo(final PoseEstimate destination) {
+        if (destination == this) {
+            throw new IllegalArgumentException("Can't copy an estimate to itself");
+        }
+        while (true) {
+            final int before = version;
+            if ((before & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            final long r = round;
+            final int n = noOfParticles;
+            final double x0 = x;
+            final double y0 = y;
+            final double t0 = theta;
+            final double vx = varianceX;
+            final double vy = varianceY;
+            final double cxy = covarianceXY;
+            final double hs = headingSpread;
+            final double bx = bestX;
+            final double by = bestY;
+            final double bt = bestTheta;
+            final double bw = bestWeight;
+            if (version != before) {
+                continue;
+            }
+            destination.round = r;
+            destination.noOfParticles = n;
+            destination.x = x0;
+            destination.y = y0;
+            destination.theta = t0;
+            destination.varianceX = vx;
+            destination.varianceY = vy;
+            destination.covarianceXY = cxy;
+            destination.headingSpread = hs;
+            destination.bestX = bx;
+            destination.bestY = by;
+            destination.bestTheta = bt;
+            destination.bestWeight = bw;
+            return r;
+        }
+    }
+
+    /**
+     * @return the version, which changes by two every time an estimate
+     *         is published.  Readers may compare it with the one they saw
+     *         last to find out if there is anything new.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of estimates published before this one, -1 if
+     *         none has been.
+     */
+    public long getRound() {
+        return round;
+    }
+
+    public int getNoOfParticles() {
+        return noOfParticles;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    /**
+     * @return the weighted circular mean of the headings.
+     */
+    public double getTheta() {
+        return theta;
+    }
+
+    public double getVarianceX() {
+        return varianceX;
+    }
+
+    public double getVarianceY() {
+        return varianceY;
+    }
+
+    public double getCovarianceXY() {
+        return covarianceXY;
+    }
+
+    /**
+     * @return the circular variance of the headings, one minus the length
+     *         of the weighted mean heading vector.  Zero when all the
+     *         particles agree, close to one when they point every which way.
+     */
+    public double getHeadingSpread() {
+        return headingSpread;
+    }
+
+    /**
+     * @return x of the particle with the largest weight.
+     */
+    public double getBestX() {
+        return bestX;
+    }
+
+    public double getBestY() {
+        return bestY;
+    }
+
+    public double getBestTheta() {
+        return bestTheta;
+    }
+
+    /**
+     * @return the normalized weight of the particle with the largest weight.
+     */
+    public double getBestWeight() {
+        return bestWeight;
+    }
+
+}
@@ -15,6 +15,7 @@
  */
 package no.rmz.robotics.particlefilter;
 
+import no.rmz.robotics.particlefilter.geometry.GeometryMath;
 import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
 import no.rmz.robotics.particlefilter.geometry.XYPair;
 
@@ -23,8 +24,8 @@ public class PositionEstimation {
      * This represents a simple kinematic model of the robot, and then applies
      * movement as measured to the assumed starting point and puts the new
      * particle (with speed and position) in the target particle.
-     * 
-     * A sight error is added to both the speed and the location
+     *
+     * No error is added, see the variant taking a MotionNoise.
      *
      * @param destination The address of the new target particle
      * @param startingPoint The origi particle.
@@ -41,8 +42,68 @@ public class PositionEstimation {
                 destination.getPosition(), 
                 destination.getSpeed(),
                 sensedSpeed);
-        
-        // XXX Perturbations are not added yet
+    }
+
+    /**
+     * Same as estimateNewParticle, but a slight error is then added to
+     * both the speed and the location.
+     *
+     * @param destination The address of the new target particle
+     * @param startingPoint The origi particle.
+     * @param sensedSpeed Speed for the two wheels!
+     * @param noise The error to add.
+     */
+    public static void estimateNewParticle(
+            final Particle destination,
+            final Particle startingPoint,
+            final PolarCoordinate sensedSpeed,
+            final MotionNoise noise) {
+        estimateNewParticle(destination, startingPoint, sensedSpeed);
+        noise.perturb(destination);
+    }
+
+    /**
+     * Same as estimateNewParticle, but for particles living in
+     * particle stores.  No particle objects are involved.
+     *
+     * @param destination The store of the new target particle
+     * @param destinationIndex The index of the new target particle
+     * @param source The store of the origin particle
+     * @param sourceIndex The index of the origin particle
+     * @param sensedSpeed Speed for the two wheels!
+     */
+    public static void estimateNewParticle(
+            final ParticleStore destination,
+            final int destinationIndex,
+            final ParticleStore source,
+            final int sourceIndex,
+            final PolarCoordinate sensedSpeed) {
+
+        source.copyTo(sourceIndex, destination, destinationIndex);
+        applyMovement(destination, destinationIndex, sensedSpeed);
+    }
+
+    /**
+     * Same as estimateNewParticle for particle stores, but with an
+     * error added.  To move many particles, use a ColumnKernels and
+     * MotionNoise.perturb on the whole range instead.
+     *
+     * @param destination The store of the new target particle
+     * @param destinationIndex The index of the new target particle
+     * @param source The store of the origin particle
+     * @param sourceIndex The index of the origin particle
+     * @param sensedSpeed Speed for the two wheels!
+     * @param noise The error to add.
+     */
+    public static void estimateNewParticle(
+            final ParticleStore destination,
+            final int destinationIndex,
+            final ParticleStore source,
+            final int sourceIndex,
+            final PolarCoordinate sensedSpeed,
+            final MotionNoise noise) {
+        estimateNewParticle(destination, destinationIndex, source, sourceIndex, sensedSpeed);
+        noise.perturb(destination, destinationIndex, destinationIndex + 1);
     }
     
     
@@ -65,4 +126,59 @@ public class PositionEstimation {
         // Then apply that movement
         position.move(speed);
     }
+
+    /**
+     * Like applyMovement, using GeometryMath's fast trigonometry.
+     * @param position
+     * @param speed
+     * @param applicationSpeed
+     */
+    public static void applyMovementFast(
+            final XYPair position,
+            final PolarCoordinate speed,
+            final PolarCoordinate applicationSpeed) {
+        speed.setTheta(speed.getTheta() + applicationSpeed.getTheta());
+        speed.setRadius(applicationSpeed.getRadius());
+        position.moveFast(speed);
+    }
+
+    /**
+     * Apply the applicationSpeed to particle i in a particle store.
+     * @param store
+     * @param i
+     * @param applicationSpeed
+     */
+    public static void applyMovement(
+            final ParticleStore store,
+            final int i,
+            final PolarCoordinate applicationSpeed) {
+
+        // First modify the vehicle relative speed to map coordinate speed
+        final double theta = store.getTheta(i) + applicationSpeed.getTheta();
+        final double radius = applicationSpeed.getRadius();
+        store.setTheta(i, theta);
+        store.setRadius(i, radius);
+
+        // Then apply that movement
+        store.setX(i, store.getX(i) + radius * Math.cos(theta));
+        store.setY(i, store.getY(i) + radius * Math.sin(theta));
+    }
+
+    /**
+     * Like applyMovement, using GeometryMath's fast trigonometry.
+     * @param store
+     * @param i
+     * @param applicationSpeed
+     */
+    public static void applyMovementFast(
+            final ParticleStore store,
+            final int i,
+            final PolarCoordinate applicationSpeed) {
+        final double theta = store.getTheta(i) + applicationSpeed.getTheta();
+        final double radius = applicationSpeed.getRadius();
+        store.setTheta(i, theta);
+        store.setRadius(i, radius);
+        store.setX(i, store.getX(i) + radius * GeometryMath.cos(theta));
+        store.setY(i, store.getY(i) + radius * GeometryMath.sin(theta));
+    }
 }
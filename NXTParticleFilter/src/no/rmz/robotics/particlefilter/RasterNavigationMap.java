@@ -0,0 +1,204 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter;
+
+import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
+import no.rmz.robotics.particlefilter.geometry.XYPair;
+import no.rmz.robotics.sensors.SensorInput;
+
+/**
+ * A navigation map that is a raster of brightness values.  Any other
+ * navigation map, however expensive, can be rasterized once, at a chosen
+ * resolution, when the raster is made.  After that every lookup is a
+ * couple of multiplications and a single array index.
+ *
+ * The raster covers a rectangle of the map.  What happens to particles
+ * outside of it is chosen when the raster is made, see OutOfBounds.
+ *
+ * A raster never changes once it is made, so it is safe to use from
+ * several threads.
+ */
+public final class RasterNavigationMap implements BufferedNavigationMap, ThreadSafe {
+
+    /**
+     * What to do about positions outside of the raster.
+     */
+    public enum OutOfBounds {
+        /**
+         * Use the nearest cell on the edge of the raster.
+         */
+        CLAMP,
+        /**
+         * Use a fixed brightness, given when the raster is made.
+         */
+        CONSTANT,
+        /**
+         * Throw an IllegalArgumentException.
+         */
+        FAIL
+    }
+
+    private final double minX;
+    private final double minY;
+
+    /**
+     * Cells per map unit, the inverse of the resolution.
+     */
+    private final double scale;
+
+    private final int columns;
+    private final int rows;
+
+    /**
+     * The brightness of the cells, row by row.
+     */
+    private final byte[] cells;
+
+    private final OutOfBounds outOfBounds;
+
+    private final byte outsideBrightness;
+
+    /**
+     * One sensor input for every possible brightness, so that lookups
+     * don't create new ones.
+     */
+    private final SensorInput[] inputs = new SensorInput[256];
+
+    /**
+     * Rasterize a map.
+     *
+     * @param source The map to rasterize.  It is only used by the constructor.
+     * @param minX The lower left corner of the area covered by the raster.
+     * @param minY
+     * @param maxX The upper right corner of the area covered by the raster.
+     * @param maxY
+     * @param resolution The width and height of a cell, in map units.
+     * @param outOfBounds What to do about positions outside of the raster.
+     * @param outsideBrightness The brightness outside of the raster, used
+     *        when outOfBounds is CONSTANT.
+     */
+    public RasterNavigationMap(
+            final NavigationMap source,
+            final double minX,
+            final double minY,
+            final double maxX,
+            final double maxY,
+            final double resolution,
+            final OutOfBounds outOfBounds,
+            final byte outsideBrightness) {
+        if (source == null) {
+            throw new IllegalArgumentException("source can't be null");
+        }
+        if (outOfBounds == null) {
+            throw new IllegalArgumentException("outOfBounds can't be null");
+        }
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("resolution must be positive, was: " + resolution);
+        }
+        if (maxX <= minX || maxY <= minY) {
+            throw new IllegalArgumentException("The raster can't be empty");
+        }
+
+        final double noOfColumns = Math.ceil((maxX - minX) / resolution);
+        final double noOfRows = Math.ceil((maxY - minY) / resolution);
+        if (noOfColumns * noOfRows > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many cells: " + noOfColumns + " x " + noOfRows);
+        }
+
+        this.minX = minX;
+        this.minY = minY;
+        this.scale = 1.0 / resolution;
+        this.columns = (int) noOfColumns;
+        this.rows = (int) noOfRows;
+        this.cells = new byte[columns * rows];
+        this.outOfBounds = outOfBounds;
+        this.outsideBrightness = outsideBrightness;
+
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = new SensorInput((byte) i, null);
+        }
+
+        // Sample the source in the middle of every cell.
+        final Particle probe =
+                new Particle(new XYPair(0.0, 0.0), new PolarCoordinate(0.0, 0.0), 1.0);
+        for (int row = 0; row < rows; row++) {
+            probe.getPosition().setY(minY + (row + 0.5) * resolution);
+            for (int column = 0; column < columns; column++) {
+                probe.getPosition().setX(minX + (column + 0.5) * resolution);
+                final SensorInput expected = source.getExpectedSensorValue(probe);
+                cells[row * columns + column] = expected.getBrightness();
+            }
+        }
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * The brightness at a position.
+     *
+     * @param x
+     * @param y
+     * @return the brightness of the cell the position is in.
+     */
+    public byte getBrightness(final double x, final double y) {
+        final double fx = (x - minX) * scale;
+        final double fy = (y - minY) * scale;
+
+        // Written so that NaN positions also end up out of bounds.
+        if (fx >= 0 && fx < columns && fy >= 0 && fy < rows) {
+            return cells[((int) fy) * columns + (int) fx];
+        }
+
+        switch (outOfBounds) {
+            case CONSTANT:
+                return outsideBrightness;
+            case CLAMP:
+                final int column = clamp(fx, columns);
+                final int row = clamp(fy, rows);
+                return cells[row * columns + column];
+            default:
+                throw new IllegalArgumentException("Position outside of map: (" + x + ", " + y + ")");
+        }
+    }
+
+    private static int clamp(final double f, final int limit) {
+        if (f >= limit) {
+            return limit - 1;
+        } else if (f >= 0) {
+            return (int) f;
+        } else {
+            return 0;
+        }
+    }
+
+    @Override
+    public SensorInput getExpectedSensorValue(final Particle p) {
+        final XYPair position = p.getPosition();
+        return inputs[getBrightness(position.getX(), position.getY()) & 0xff];
+    }
+
+    @Override
+    public void getExpectedSensorValue(final Particle p, final SensorInput destination) {
+        final XYPair position = p.getPosition();
+        destination.setBrightness(getBrightness(position.getX(), position.getY()));
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter;
+
+import no.rmz.robotics.arrays.LogWeights;
+import no.rmz.robotics.particlefilter.geometry.GeometryMath;
+
+/**
+ * Column kernels doing one particle at a time, with nothing but plain
+ * Java, so they run everywhere, the brick included.  Kernels made with
+ * fast trigonometry move the particles with GeometryMath's tables.
+ */
+public final class ScalarColumnKernels implements ColumnKernels {
+
+    private final boolean fastTrigonometry;
+
+    /**
+     * Kernels using java.lang.Math's trigonometry.
+     */
+    public ScalarColumnKernels() {
+        this(false);
+    }
+
+    /**
+     * @param fastTrigonometry true to use GeometryMath's fast
+     *        trigonometry for the movement.
+     */
+    public ScalarColumnKernels(final boolean fastTrigonometry) {
+        this.fastTrigonometry = fastTrigonometry;
+    }
+
+    public boolean isFastTrigonometry() {
+        return fastTrigonometry;
+    }
+
+    @Override
+    public void applyMovement(
+            final ParticleStore store,
+            final int from,
+            final int to,
+            final double deltaTheta,
+            final double radius) {
+        final double[] x = store.getXs();
+        final double[] y = store.getYs();
+        final double[] theta = store.getThetas();
+        final double[] radii = store.getRadii();
+        if (fastTrigonometry) {
+            for (int i = from; i < to; i++) {
+                theta[i] += deltaTheta;
+                radii[i] = radius;
+            }
+            GeometryMath.move(x, y, theta, from, to, radius);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            final double t = theta[i] + deltaTheta;
+            theta[i] = t;
+            radii[i] = radius;
+            x[i] += radius * Math.cos(t);
+            y[i] += radius * Math.sin(t);
+        }
+    }
+
+    @Override
+    public double likelihoods(
+            final int[] expected,
+            final int from,
+            final int to,
+            final double[] table,
+            final double[] weights) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            final double w = table[expected[i]];
+            weights[i] = w;
+            sum += w;
+        }
+        return sum;
+    }
+
+    @Override
+    public double logLikelihoods(
+            final int[] expected,
+            final int from,
+            final int to,
+            final double[] logTable,
+            final double[] weights) {
+        for (int i = from; i < to; i++) {
+            weights[i] = logTable[expected[i]];
+        }
+        return LogWeights.logSumExp(weights, from, to);
+    }
+}
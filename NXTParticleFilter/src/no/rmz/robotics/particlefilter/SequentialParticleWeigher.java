@@ -0,0 +1,286 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter;
+
+import no.rmz.robotics.arrays.LogWeights;
+import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
+import no.rmz.robotics.particlefilter.geometry.XYPair;
+import no.rmz.robotics.sensors.BatchSensorModel;
+import no.rmz.robotics.sensors.LogSensorModel;
+import no.rmz.robotics.sensors.SensorInput;
+import no.rmz.robotics.sensors.SensorModel;
+
+/**
+ * Weighs the particles one at a time, on the calling thread.  This is
+ * what the particle filter does unless it is told otherwise.
+ *
+ * An instance reuses a particle object when calling the map, so it
+ * must not be shared between filters running on different threads.
+ */
+public final class SequentialParticleWeigher implements ParticleWeigher {
+
+    private final static double EPSILON = 0.00000000000001;
+
+    /**
+     * A particle object that the particles in the store are copied into
+     * when they are handed to the navigation map.  Reused for every particle.
+     */
+    private final Particle cursor = newCursor();
+
+    /**
+     * The buffer buffered maps write the expected sensor value into.
+     */
+    private final SensorInput expected = new SensorInput();
+
+    /**
+     * The likelihood table used with batch sensor models, refilled for
+     * every reading.
+     */
+    private final double[] likelihoodTable = new double[BatchSensorModel.TABLE_SIZE];
+
+    @Override
+    public double weigh(
+            final ParticleStore store,
+            final NavigationMap navigationMap,
+            final SensorModel sensorModel,
+            final SensorInput sensorInput) {
+        if (sensorModel instanceof BatchSensorModel) {
+            fillLikelihoodTable(
+                    (BatchSensorModel) sensorModel, sensorInput, false, likelihoodTable);
+            return weighRangeByTable(
+                    store, 0, store.getSize(),
+                    navigationMap, likelihoodTable,
+                    cursor, expectedBuffer(navigationMap));
+        }
+        return weighRange(
+                store, 0, store.getSize(),
+                navigationMap, sensorModel, sensorInput,
+                cursor, expectedBuffer(navigationMap));
+    }
+
+    @Override
+    public double weighLog(
+            final ParticleStore store,
+            final NavigationMap navigationMap,
+            final LogSensorModel sensorModel,
+            final SensorInput sensorInput) {
+        if (sensorModel instanceof BatchSensorModel) {
+            fillLikelihoodTable(
+                    (BatchSensorModel) sensorModel, sensorInput, true, likelihoodTable);
+            return weighLogRangeByTable(
+                    store, 0, store.getSize(),
+                    navigationMap, likelihoodTable,
+                    cursor, expectedBuffer(navigationMap));
+        }
+        return weighLogRange(
+                store, 0, store.getSize(),
+                navigationMap, sensorModel, sensorInput,
+                cursor, expectedBuffer(navigationMap));
+    }
+
+    /**
+     * Weigh the particles with indexes from 'from' (inclusive) up to 'to'
+     * (exclusive).  This is the kernel the other weighers split the work
+     * into.
+     *
+     * @param store
+     * @param from
+     * @param to
+     * @param navigationMap
+     * @param sensorModel
+     * @param sensorInput
+     * @param cursor A particle owned by the caller, see newCursor().
+     * @param expected A buffer owned by the caller if the map is a
+     *        BufferedNavigationMap, see newExpectedBuffer(), otherwise null.
+     * @return the sum of the weights in the range.
+     */
+    public static double weighRange(
+            final ParticleStore store,
+            final int from,
+            final int to,
+            final NavigationMap navigationMap,
+            final SensorModel sensorModel,
+            final SensorInput sensorInput,
+            final Particle cursor,
+            final SensorInput expected) {
+        double sumOfWeights = 0;
+        for (int i = from; i < to; i++) {
+
+            store.get(i, cursor);
+
+            final double w =
+                    smoothed(
+                       sensorModel.probabilityOfMeasuredResultGivenExpectedValue(
+                       expectedSensorValue(navigationMap, cursor, expected),
+                       sensorInput));
+
+            store.setWeight(i, w);
+            sumOfWeights += w;
+        }
+        return sumOfWeights;
+    }
+
+    /**
+     * Like weighRange, but sets log weights.  The logarithm of the sum is
+     * then computed over the range with LogWeights.logSumExp.  Nothing is
+     * smoothed: a particle the sensor model rules out gets a log weight
+     * of negative infinity, and weight zero once normalized.
+     *
+     * @return the logarithm of the sum of the weights in the range.
+     */
+    public static double weighLogRange(
+            final ParticleStore store,
+            final int from,
+            final int to,
+            final NavigationMap navigationMap,
+            final LogSensorModel sensorModel,
+            final SensorInput sensorInput,
+            final Particle cursor,
+            final SensorInput expected) {
+        for (int i = from; i < to; i++) {
+
+            store.get(i, cursor);
+
+            final double lw =
+                    sensorModel.logProbabilityOfMeasuredResultGivenExpectedValue(
+                       expectedSensorValue(navigationMap, cursor, expected),
+                       sensorInput);
+
+            store.setWeight(i, lw);
+        }
+        return LogWeights.logSumExp(store.getWeights(), from, to);
+    }
+
+    /**
+     * Fill a table with the likelihoods of a reading, as they are used
+     * by weighRangeByTable and weighLogRangeByTable: smoothed the same way
+     * as by weighRange, or as logarithms.
+     *
+     * @param sensorModel
+     * @param sensorInput
+     * @param log true to fill in log likelihoods.
+     * @param table an array of at least BatchSensorModel.TABLE_SIZE entries.
+     */
+    public static void fillLikelihoodTable(
+            final BatchSensorModel sensorModel,
+            final SensorInput sensorInput,
+            final boolean log,
+            final double[] table) {
+        sensorModel.fillLikelihoodTable(sensorInput, table);
+        for (int b = 0; b < BatchSensorModel.TABLE_SIZE; b++) {
+            table[b] = log ? Math.log(table[b]) : smoothed(table[b]);
+        }
+    }
+
+    /**
+     * Like weighRange, but the likelihoods are looked up in a table made
+     * by fillLikelihoodTable.  The table is only read, so it can be shared
+     * by several threads weighing different ranges.
+     *
+     * @return the sum of the weights in the range.
+     */
+    public static double weighRangeByTable(
+            final ParticleStore store,
+            final int from,
+            final int to,
+            final NavigationMap navigationMap,
+            final double[] likelihoodTable,
+            final Particle cursor,
+            final SensorInput expected) {
+        final double[] weights = store.getWeights();
+        double sumOfWeights = 0;
+        for (int i = from; i < to; i++) {
+            store.get(i, cursor);
+            final double w =
+                    likelihoodTable[expectedSensorValue(navigationMap, cursor, expected).getBrightness() & 0xff];
+            weights[i] = w;
+            sumOfWeights += w;
+        }
+        return sumOfWeights;
+    }
+
+    /**
+     * Like weighLogRange, but the log likelihoods are looked up in a
+     * table made by fillLikelihoodTable.
+     *
+     * @return the logarithm of the sum of the weights in the range.
+     */
+    public static double weighLogRangeByTable(
+            final ParticleStore store,
+            final int from,
+            final int to,
+            final NavigationMap navigationMap,
+            final double[] logLikelihoodTable,
+            final Particle cursor,
+            final SensorInput expected) {
+        final double[] weights = store.getWeights();
+        for (int i = from; i < to; i++) {
+            store.get(i, cursor);
+            final double lw =
+                    logLikelihoodTable[expectedSensorValue(navigationMap, cursor, expected).getBrightness() & 0xff];
+            weights[i] = lw;
+        }
+        return LogWeights.logSumExp(store.getWeights(), from, to);
+    }
+
+    /**
+     * A buffer for the expected sensor values, if the map can write into
+     * one, to be passed to the range methods along with the cursor.
+     *
+     * @param navigationMap
+     * @return a new buffer, or null if the map isn't a BufferedNavigationMap.
+     */
+    public static SensorInput newExpectedBuffer(final NavigationMap navigationMap) {
+        if (navigationMap instanceof BufferedNavigationMap) {
+            return new SensorInput();
+        }
+        return null;
+    }
+
+    private SensorInput expectedBuffer(final NavigationMap navigationMap) {
+        if (navigationMap instanceof BufferedNavigationMap) {
+            return expected;
+        }
+        return null;
+    }
+
+    private static SensorInput expectedSensorValue(
+            final NavigationMap navigationMap,
+            final Particle cursor,
+            final SensorInput expected) {
+        if (expected == null) {
+            return navigationMap.getExpectedSensorValue(cursor);
+        }
+        ((BufferedNavigationMap) navigationMap).getExpectedSensorValue(cursor, expected);
+        return expected;
+    }
+
+    /**
+     * A particle that can be used as a cursor by weighRange.
+     * @return a new particle.
+     */
+    public static Particle newCursor() {
+        return new Particle(new XYPair(0.0, 0.0), new PolarCoordinate(0.0, 0.0), 1.0);
+    }
+
+    private static double smoothed(final double w) {
+        if (w == 0) {
+            return EPSILON;
+        } else {
+            return w;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter;
+
+/**
+ * A marker for NavigationMap and SensorModel implementations that can be
+ * called from several threads at the same time.
+ *
+ * Parallel weighers call getExpectedSensorValue and
+ * probabilityOfMeasuredResultGivenExpectedValue concurrently, one call per
+ * particle, from a number of worker threads.  An implementation that
+ * implements this interface promises that this is safe: it either has no
+ * mutable state, or it protects that state itself.  The objects it returns
+ * must not be modified by the implementation afterwards.
+ *
+ * Implementations that don't implement this interface are only ever
+ * called from one thread at a time.
+ */
+public interface ThreadSafe {
+}
@@ -55,8 +55,22 @@ public final class PolarCoordinate {
     public double getXcoord() {
         return radius * Math.cos(theta);
     }
-    
-      public double getYcoord() {
-         return radius * Math.sin(theta);
+
+    public double getYcoord() {
+        return radius * Math.sin(theta);
+    }
+
+    /**
+     * @return the x component, using GeometryMath's fast trigonometry.
+     */
+    public double getXcoordFast() {
+        return radius * GeometryMath.cos(theta);
+    }
+
+    /**
+     * @return the y component, using GeometryMath's fast trigonometry.
+     */
+    public double getYcoordFast() {
+        return radius * GeometryMath.sin(theta);
     }
 }
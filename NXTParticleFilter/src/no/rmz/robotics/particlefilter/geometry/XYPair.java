@@ -60,8 +60,17 @@ public final class XYPair {
 
     // Rename to "add?"
     public void move(final PolarCoordinate speed) {
-       setX(speed.getXcoord() + getX());
-       setY(speed.getYcoord() + getY());
+        setX(speed.getXcoord() + getX());
+        setY(speed.getYcoord() + getY());
+    }
+
+    /**
+     * Like move, using GeometryMath's fast trigonometry, with one range
+     * reduction for both sin and cos.
+     * @param speed
+     */
+    public void moveFast(final PolarCoordinate speed) {
+        GeometryMath.move(this, speed.getTheta(), speed.getRadius());
     }
 
     public void copyTo(final XYPair destination) {
@@ -69,10 +78,22 @@ public final class XYPair {
         destination.y = y;
     }
 
+    /**
+     * Convert this point to polar coordinates, with theta measured from
+     * the x axis as in PolarCoordinate.getXcoord.
+     * @param p where the result is written.
+     */
     public void copyToPolar(final PolarCoordinate p) {
-        final double r = Math.sqrt(x*x + y*y);
-        final double theta = Math.atan(x/y);
-        p.setRadius(r);
-        p.setTheta(theta);
+        p.setRadius(Math.sqrt(x*x + y*y));
+        p.setTheta(Math.atan2(y, x));
+    }
+
+    /**
+     * Like copyToPolar, using GeometryMath's fast atan2.
+     * @param p where the result is written.
+     */
+    public void copyToPolarFast(final PolarCoordinate p) {
+        p.setRadius(Math.sqrt(x*x + y*y));
+        p.setTheta(GeometryMath.atan2(y, x));
     }
 }
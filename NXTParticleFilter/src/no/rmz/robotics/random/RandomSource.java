@@ -0,0 +1,62 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.random;
+
+/**
+ * A source of pseudo random numbers.  Unlike java.util.Random,
+ * implementations are not thread safe and do no synchronization at all,
+ * so every thread should have its own instance.  Use split() to make
+ * independent instances for new threads.
+ */
+public interface RandomSource {
+
+    /**
+     * @return a uniformly distributed int, all 2^32 values possible.
+     */
+    public int nextInt();
+
+    /**
+     * @param bound the upper bound, must be positive.
+     * @return a uniformly distributed int from zero, inclusive, up to
+     *         bound, exclusive.
+     */
+    public int nextInt(final int bound);
+
+    /**
+     * @return a uniformly distributed long, all 2^64 values possible.
+     */
+    public long nextLong();
+
+    /**
+     * @return a uniformly distributed double from zero, inclusive, up to
+     *         one, exclusive.
+     */
+    public double nextDouble();
+
+    /**
+     * @return a normally distributed double with mean zero and standard
+     *         deviation one.
+     */
+    public double nextGaussian();
+
+    /**
+     * Make a new source that is statistically independent of this one,
+     * typically to be used by another thread.  This source is advanced.
+     *
+     * @return the new source.
+     */
+    public RandomSource split();
+}
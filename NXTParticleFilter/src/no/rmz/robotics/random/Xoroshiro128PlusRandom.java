@@ -0,0 +1,130 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.random;
+
+/**
+ * The xoroshiro128+ generator by David Blackman and Sebastiano Vigna.
+ * It has 128 bits of state, a period of 2^128 - 1, and needs a handful of
+ * shifts, rotations and xors per number.  The lowest bits of its output
+ * are weaker than the rest, so every method here uses the high bits.
+ *
+ * The state is seeded through SplitMix64, so similar seeds still give
+ * unrelated sequences.
+ */
+public final class Xoroshiro128PlusRandom implements RandomSource {
+
+    /**
+     * The golden ratio increment of SplitMix64.
+     */
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Makes sure instances created at the same time get different seeds.
+     */
+    private static long seedUniquifier = 0x2545F4914F6CDD1DL;
+
+    /**
+     * The first half of the state.
+     */
+    private long s0;
+
+    /**
+     * The second half of the state.
+     */
+    private long s1;
+
+    /**
+     * Create a generator with a seed that is different every time.
+     */
+    public Xoroshiro128PlusRandom() {
+        this(nextSeed() ^ System.nanoTime());
+    }
+
+    /**
+     * Create a generator that gives the same sequence every time it's
+     * given the same seed.
+     *
+     * @param seed any number.
+     */
+    public Xoroshiro128PlusRandom(final long seed) {
+        final long z = seed + GOLDEN_GAMMA;
+        s0 = mix64(z);
+        s1 = mix64(z + GOLDEN_GAMMA);
+        // The all zero state is the one state that must be avoided.
+        if (s0 == 0 && s1 == 0) {
+            s1 = GOLDEN_GAMMA;
+        }
+    }
+
+    private static synchronized long nextSeed() {
+        seedUniquifier += GOLDEN_GAMMA;
+        return mix64(seedUniquifier);
+    }
+
+    /**
+     * The SplitMix64 output function.
+     */
+    private static long mix64(final long seed) {
+        long z = seed;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public long nextLong() {
+        final long a = s0;
+        long b = s1;
+        final long result = a + b;
+        b ^= a;
+        s0 = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+        s1 = Long.rotateLeft(b, 37);
+        return result;
+    }
+
+    @Override
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    /**
+     * Multiplies 32 random bits with the bound instead of dividing, so
+     * the result is off from uniform by at most bound / 2^32, which is
+     * far too little to matter when picking particles.
+     */
+    @Override
+    public int nextInt(final int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive, was: " + bound);
+        }
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public double nextGaussian() {
+        return ZigguratGaussian.next(this);
+    }
+
+    @Override
+    public RandomSource split() {
+        return new Xoroshiro128PlusRandom(nextLong());
+    }
+}
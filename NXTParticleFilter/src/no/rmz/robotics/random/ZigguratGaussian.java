@@ -0,0 +1,167 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.random;
+
+/**
+ * Normally distributed numbers by the ziggurat method of Marsaglia and
+ * Tsang.  The area under the Gaussian is covered by 128 stacked
+ * rectangles of equal area, and about 99% of the samples need nothing
+ * but one random int, a table lookup, a compare and a multiplication.
+ * Only samples landing outside the rectangles' common core, or in the
+ * tail, need exp and log.
+ *
+ * That makes it cheap enough to draw fresh noise for every particle in
+ * every round, which is what fill() is for.
+ */
+public final class ZigguratGaussian {
+
+    /**
+     * The number of rectangles.
+     */
+    private static final int NO_OF_LAYERS = 128;
+
+    /**
+     * The x where the tail starts.
+     */
+    private static final double R = 3.442619855899;
+
+    /**
+     * The area of every rectangle, and of the base layer including the
+     * tail.
+     */
+    private static final double V = 9.91256303526217e-3;
+
+    /**
+     * 2^31, the scale of the random ints.
+     */
+    private static final double M1 = 2147483648.0;
+
+    /**
+     * Scaled widths: a random int whose magnitude is below k[i] is
+     * inside the core of rectangle i.
+     */
+    private static final long[] K = new long[NO_OF_LAYERS];
+
+    /**
+     * Converts a random int to an x within rectangle i.
+     */
+    private static final double[] W = new double[NO_OF_LAYERS];
+
+    /**
+     * The Gaussian, exp(-x * x / 2), at the top of every rectangle.
+     */
+    private static final double[] F = new double[NO_OF_LAYERS];
+
+    static {
+        double dn = R;
+        double tn = dn;
+        final double q = V / Math.exp(-0.5 * dn * dn);
+        K[0] = (long) ((dn / q) * M1);
+        K[1] = 0;
+        W[0] = q / M1;
+        W[NO_OF_LAYERS - 1] = dn / M1;
+        F[0] = 1.0;
+        F[NO_OF_LAYERS - 1] = Math.exp(-0.5 * dn * dn);
+        for (int i = NO_OF_LAYERS - 2; i >= 1; i--) {
+            dn = Math.sqrt(-2.0 * Math.log(V / dn + Math.exp(-0.5 * dn * dn)));
+            K[i + 1] = (long) ((dn / tn) * M1);
+            tn = dn;
+            F[i] = Math.exp(-0.5 * dn * dn);
+            W[i] = dn / M1;
+        }
+    }
+
+    /**
+     *  It should't be possible to instantiate this class.
+     */
+    private ZigguratGaussian() {
+    }
+
+    /**
+     * @param randomness the source of uniform numbers.
+     * @return a sample from the standard normal distribution.
+     */
+    public static double next(final RandomSource randomness) {
+        final int hz = randomness.nextInt();
+        final int iz = hz & (NO_OF_LAYERS - 1);
+        if (Math.abs((long) hz) < K[iz]) {
+            return hz * W[iz];
+        }
+        return slowPath(randomness, hz, iz);
+    }
+
+    /**
+     * Fill part of an array with samples from a normal distribution.
+     *
+     * @param randomness the source of uniform numbers.
+     * @param destination where the samples are written.
+     * @param from the first index to write.
+     * @param to one past the last index to write.
+     * @param standardDeviation the standard deviation of the samples,
+     *        whose mean is zero.
+     */
+    public static void fill(
+            final RandomSource randomness,
+            final double[] destination,
+            final int from,
+            final int to,
+            final double standardDeviation) {
+        for (int i = from; i < to; i++) {
+            final int hz = randomness.nextInt();
+            final int iz = hz & (NO_OF_LAYERS - 1);
+            final double x;
+            if (Math.abs((long) hz) < K[iz]) {
+                x = hz * W[iz];
+            } else {
+                x = slowPath(randomness, hz, iz);
+            }
+            destination[i] = x * standardDeviation;
+        }
+    }
+
+    /**
+     * Handle samples outside the core of their rectangle, either by
+     * accepting them under the curve, sampling the tail, or trying again.
+     */
+    private static double slowPath(
+            final RandomSource randomness,
+            final int firstHz,
+            final int firstIz) {
+        int hz = firstHz;
+        int iz = firstIz;
+        while (true) {
+            final double x = hz * W[iz];
+            if (iz == 0) {
+                // The tail beyond R, sampled as Marsaglia did in 1964.
+                double tailX;
+                double tailY;
+                do {
+                    tailX = -Math.log(1.0 - randomness.nextDouble()) / R;
+                    tailY = -Math.log(1.0 - randomness.nextDouble());
+                } while (tailY + tailY < tailX * tailX);
+                return (hz > 0) ? R + tailX : -R - tailX;
+            }
+            if (F[iz] + randomness.nextDouble() * (F[iz - 1] - F[iz]) < Math.exp(-0.5 * x * x)) {
+                return x;
+            }
+            hz = randomness.nextInt();
+            iz = hz & (NO_OF_LAYERS - 1);
+            if (Math.abs((long) hz) < K[iz]) {
+                return hz * W[iz];
+            }
+        }
+    }
+}
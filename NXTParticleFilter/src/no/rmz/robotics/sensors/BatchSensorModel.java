@@ -0,0 +1,61 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package no.rmz.robotics.sensors;
+
+/**
+ * A sensor model that can be evaluated for many particles at a time.
+ * The brightness is a single byte, so for a given actual reading there
+ * are only 256 different expected values and 256 different likelihoods.
+ * They are computed once per reading into a table, and weighing the
+ * particles is then one table lookup per particle.
+ */
+public interface BatchSensorModel extends SensorModel {
+
+    /**
+     * The number of entries in a likelihood table.
+     */
+    public static final int TABLE_SIZE = 256;
+
+    /**
+     * Fill in the likelihood of the actual reading for every expected
+     * brightness b, at index b &amp; 0xff.
+     *
+     * @param actualSensorInput
+     * @param table an array of at least TABLE_SIZE entries.
+     */
+    public void fillLikelihoodTable(
+            final SensorInput actualSensorInput,
+            final double[] table);
+
+    /**
+     * The likelihoods of the actual reading for the expected brightnesses
+     * from index 'from' (inclusive) to 'to' (exclusive), written to the
+     * same indexes in likelihoods.  Callers that do this repeatedly for
+     * the same reading should fill a table once instead.
+     *
+     * @param actualSensorInput
+     * @param expectedBrightness
+     * @param from
+     * @param to
+     * @param likelihoods
+     */
+    public void probabilitiesOfMeasuredResult(
+            final SensorInput actualSensorInput,
+            final byte[] expectedBrightness,
+            final int from,
+            final int to,
+            final double[] likelihoods);
+}
@@ -0,0 +1,32 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package no.rmz.robotics.sensors;
+
+/**
+ * A sensor that can write its reading into an input owned by the caller,
+ * so that sensing doesn't allocate anything.
+ */
+public interface BufferedSensor extends Sensor {
+
+    /**
+     * Read the sensor into the destination.
+     *
+     * @param destination An input with a speed, for instance one made with
+     *        the SensorInput() constructor.  Its brightness and speed are
+     *        overwritten.
+     */
+    public void sense(final SensorInput destination);
+}
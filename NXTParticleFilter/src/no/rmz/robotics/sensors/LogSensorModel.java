@@ -0,0 +1,29 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package no.rmz.robotics.sensors;
+
+/**
+ * A sensor model that can give the logarithm of the probability directly.
+ * Used when the filter keeps log weights, where a probability of zero is
+ * a log probability of negative infinity instead of something that must
+ * be smoothed away.
+ */
+public interface LogSensorModel extends SensorModel {
+
+    public double logProbabilityOfMeasuredResultGivenExpectedValue(
+            final SensorInput expectedSensorInput,
+            final SensorInput actualSensorInput);
+}
@@ -31,6 +31,18 @@ public class SensorInput {
         this.speed = speed;
     }   
 
+    /**
+     * An input meant to be used as a buffer, that sensors and maps
+     * write their output into instead of allocating new inputs.
+     */
+    public SensorInput() {
+        this((byte) 0, new PolarCoordinate(0.0, 0.0));
+    }
+
+    public void setBrightness(final byte brightness) {
+        this.brightness = brightness;
+    }
+
     public byte getBrightness() {
         return brightness;
     }
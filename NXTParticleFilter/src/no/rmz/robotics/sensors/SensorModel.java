@@ -15,6 +15,14 @@
  */
 package no.rmz.robotics.sensors;
 
+/**
+ * A model of the sensor, giving the probability of measuring one value when
+ * another value was expected.
+ *
+ * Thread safety: by default the filter calls an implementation from a
+ * single thread.  Parallel weighers only call it concurrently if it
+ * implements no.rmz.robotics.particlefilter.ThreadSafe.
+ */
 public interface SensorModel {
     
     public double probabilityOfMeasuredResultGivenExpectedValue(
@@ -15,6 +15,7 @@
  */
 package no.rmz.robotics.sensors;
 
+import no.rmz.robotics.particlefilter.ThreadSafe;
 import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
 
 /**
@@ -24,8 +25,11 @@ import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
  * its own calibration, so the priorProbability... method
  * needs to reflect actual measurements and codify them as
  * a double between zero and one
+ *
+ * The sensor model has no state, so it is safe to call from several
+ * threads.
  */
-public class SurfaceReflectedLightSensor implements Sensor, SensorModel {
+public class SurfaceReflectedLightSensor implements BufferedSensor, LogSensorModel, BatchSensorModel, ThreadSafe {
 
     
     @Override
@@ -34,18 +38,64 @@ public class SurfaceReflectedLightSensor implements Sensor, SensorModel {
                 (byte) 0,
                 new PolarCoordinate(0, 50)); // XXX Wild guesstimates
     }
+
+    @Override
+    public void sense(final SensorInput destination) {
+        destination.setBrightness((byte) 0);
+        destination.getSpeed().setTheta(0);
+        destination.getSpeed().setRadius(50); // XXX Wild guesstimates
+    }
     
     // XXX This is just a wild guesstimate.  For real number, use
     //     actual calibration data.
-    @Override
-    public double probabilityOfMeasuredResultGivenExpectedValue(
-            final SensorInput expectedSensorInput, 
-            final SensorInput actualSensorInput) {
-        int d = (expectedSensorInput.getBrightness() - actualSensorInput.getBrightness());
+    private static double probability(final byte expected, final byte actual) {
+        int d = (expected - actual);
         if (d < 0) {
             d = -d; // Absolute value
         }
         double result = 1 - (d/255);  // 1 minus normalized difference between expected and measured
         return result;  
+    }
+
+    @Override
+    public double probabilityOfMeasuredResultGivenExpectedValue(
+            final SensorInput expectedSensorInput, 
+            final SensorInput actualSensorInput) {
+        return probability(
+                expectedSensorInput.getBrightness(),
+                actualSensorInput.getBrightness());
     } 
+
+    @Override
+    public double logProbabilityOfMeasuredResultGivenExpectedValue(
+            final SensorInput expectedSensorInput,
+            final SensorInput actualSensorInput) {
+        return Math.log(probabilityOfMeasuredResultGivenExpectedValue(
+                expectedSensorInput, actualSensorInput));
+    }
+
+    @Override
+    public void fillLikelihoodTable(
+            final SensorInput actualSensorInput,
+            final double[] table) {
+        final byte actual = actualSensorInput.getBrightness();
+        for (int b = 0; b < TABLE_SIZE; b++) {
+            table[b] = probability((byte) b, actual);
+        }
+    }
+
+    @Override
+    public void probabilitiesOfMeasuredResult(
+            final SensorInput actualSensorInput,
+            final byte[] expectedBrightness,
+            final int from,
+            final int to,
+            final double[] likelihoods) {
+        // The likelihood is cheap enough to compute for every entry, which
+        // doesn't need a table and keeps the model free of state.
+        final byte actual = actualSensorInput.getBrightness();
+        for (int i = from; i < to; i++) {
+            likelihoods[i] = probability(expectedBrightness[i], actual);
+        }
+    }
 }
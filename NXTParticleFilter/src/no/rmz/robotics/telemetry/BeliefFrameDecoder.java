@@ -0,0 +1,207 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.telemetry;
+
+import no.rmz.robotics.particlefilter.ParticleStore;
+
+/**
+ * Reads belief frames, see BeliefFrameFormat, back into particles.  The
+ * decoder remembers the quantized particles of the last frame, which
+ * delta frames are applied to.
+ */
+public final class BeliefFrameDecoder {
+
+    private final int capacity;
+
+    /**
+     * The quantized particles of the last frame read.
+     */
+    private final char[] qx;
+    private final char[] qy;
+    private final char[] qTheta;
+    private final char[] qWeight;
+
+    /**
+     * The sequence number of the last frame read, or -1 if none has been.
+     */
+    private int sequenceNumber = -1;
+
+    private int size = 0;
+
+    private int noOfKeyFrames = 0;
+
+    private int noOfDeltaFrames = 0;
+
+    /**
+     * @param capacity the most particles a frame may hold.
+     */
+    public BeliefFrameDecoder(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive, was: " + capacity);
+        }
+        this.capacity = capacity;
+        qx = new char[capacity];
+        qy = new char[capacity];
+        qTheta = new char[capacity];
+        qWeight = new char[capacity];
+    }
+
+    /**
+     * @return the sequence number of the last frame read, -1 if none.
+     */
+    public int getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public int getNoOfKeyFrames() {
+        return noOfKeyFrames;
+    }
+
+    public int getNoOfDeltaFrames() {
+        return noOfDeltaFrames;
+    }
+
+    /**
+     * Read a frame into a store.  The positions, headings and weights of
+     * the particles are set, their speeds are set to zero, and the size
+     * of the store is set to the number of particles in the frame.
+     *
+     * @param source the array holding the frame.
+     * @param offset where the frame starts.
+     * @param length the number of bytes in the frame.
+     * @param destination where the particles are written.
+     * @return the sequence number of the frame.
+     * @throws IllegalArgumentException if the frame is malformed or has
+     *         no particles.
+     * @throws IllegalStateException if it's a delta frame against a frame
+     *         that wasn't the last one read.  The sender should then be
+     *         asked for a key frame.
+     */
+    public int decode(
+            final byte[] source,
+            final int offset,
+            final int length,
+            final ParticleStore destination) {
+        if (length < BeliefFrameFormat.HEADER_SIZE || offset + length > source.length) {
+            throw new IllegalArgumentException("Too short for a frame: " + length + " bytes");
+        }
+        if (BeliefFrameFormat.getInt(source, offset) != BeliefFrameFormat.MAGIC) {
+            throw new IllegalArgumentException("Not a belief frame");
+        }
+        final byte version = source[offset + 4];
+        if (version != BeliefFrameFormat.VERSION) {
+            throw new IllegalArgumentException("Unknown version " + version);
+        }
+        final byte type = source[offset + BeliefFrameFormat.TYPE_OFFSET];
+        final int sequence = BeliefFrameFormat.getInt(source, offset + BeliefFrameFormat.SEQUENCE_OFFSET);
+        final int reference = BeliefFrameFormat.getInt(source, offset + BeliefFrameFormat.REFERENCE_OFFSET);
+        final int frameSize = BeliefFrameFormat.getInt(source, offset + BeliefFrameFormat.SIZE_OFFSET);
+        if (frameSize < 1) {
+            // A store always holds at least one particle, so an empty
+            // frame can't be read into one without leaving a stale particle.
+            throw new IllegalArgumentException("A frame must have particles, not " + frameSize);
+        }
+        if (frameSize > capacity || frameSize > destination.getCapacity()) {
+            throw new IllegalArgumentException("No room for " + frameSize + " particles");
+        }
+        final int end = offset + length;
+        int i = offset + BeliefFrameFormat.HEADER_SIZE;
+
+        if (type == BeliefFrameFormat.KEY_FRAME) {
+            if (length != BeliefFrameFormat.getMaxFrameSize(frameSize)) {
+                throw new IllegalArgumentException("A key frame of " + frameSize
+                        + " particles can't be " + length + " bytes");
+            }
+            for (int k = 0; k < frameSize; k++) {
+                qx[k] = (char) BeliefFrameFormat.getUnsignedShort(source, i);
+                qy[k] = (char) BeliefFrameFormat.getUnsignedShort(source, i + 2);
+                qTheta[k] = (char) BeliefFrameFormat.getUnsignedShort(source, i + 4);
+                qWeight[k] = (char) BeliefFrameFormat.getUnsignedShort(source, i + 6);
+                i += BeliefFrameFormat.KEY_PARTICLE_SIZE;
+            }
+            noOfKeyFrames++;
+        } else if (type == BeliefFrameFormat.DELTA_FRAME) {
+            if (sequenceNumber < 0 || reference != sequenceNumber || frameSize != size) {
+                throw new IllegalStateException("Delta against frame " + reference
+                        + ", but the last frame read was " + sequenceNumber);
+            }
+            // Decode into the quantized particles in place.  A truncated
+            // frame leaves them half updated, so a key frame is needed.
+            for (int k = 0; k < frameSize; k++) {
+                i = readDelta(source, i, end, qx, k);
+                i = readDelta(source, i, end, qy, k);
+                i = readDelta(source, i, end, qTheta, k);
+                i = readDelta(source, i, end, qWeight, k);
+            }
+            if (i != end) {
+                sequenceNumber = -1;
+                throw new IllegalArgumentException((end - i) + " bytes left after the particles");
+            }
+            noOfDeltaFrames++;
+        } else {
+            throw new IllegalArgumentException("Unknown frame type " + type);
+        }
+        size = frameSize;
+        sequenceNumber = sequence;
+
+        final double minX = BeliefFrameFormat.getFloat(source, offset + BeliefFrameFormat.MIN_X_OFFSET);
+        final double minY = BeliefFrameFormat.getFloat(source, offset + BeliefFrameFormat.MIN_Y_OFFSET);
+        final double resolution = BeliefFrameFormat.getFloat(source, offset + BeliefFrameFormat.RESOLUTION_OFFSET);
+        final double maxWeight = BeliefFrameFormat.getFloat(source, offset + BeliefFrameFormat.MAX_WEIGHT_OFFSET);
+        final double weightStep = maxWeight / (BeliefFrameFormat.STEPS - 1);
+        final double thetaStep = 2 * Math.PI / BeliefFrameFormat.STEPS;
+        destination.setSize(frameSize);
+        final double[] x = destination.getXs();
+        final double[] y = destination.getYs();
+        final double[] theta = destination.getThetas();
+        final double[] radius = destination.getRadii();
+        final double[] weight = destination.getWeights();
+        for (int k = 0; k < frameSize; k++) {
+            x[k] = minX + qx[k] * resolution;
+            y[k] = minY + qy[k] * resolution;
+            theta[k] = qTheta[k] * thetaStep;
+            radius[k] = 0;
+            weight[k] = qWeight[k] * weightStep;
+        }
+        return sequence;
+    }
+
+    private int readDelta(
+            final byte[] b,
+            final int index,
+            final int end,
+            final char[] column,
+            final int k) {
+        int i = index;
+        int zigzag = 0;
+        int shift = 0;
+        while (true) {
+            if (i >= end || shift > 14) {
+                sequenceNumber = -1;
+                throw new IllegalArgumentException("Malformed delta at byte " + i);
+            }
+            final int b0 = b[i++];
+            zigzag |= (b0 & 0x7F) << shift;
+            if ((b0 & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+        }
+        final int d = (zigzag >>> 1) ^ -(zigzag & 1);
+        column[k] = (char) (column[k] + d);
+        return i;
+    }
+}
@@ -0,0 +1,391 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.telemetry;
+
+import no.rmz.robotics.arrays.WeightedPool;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.ParticleStore;
+
+/**
+ * Writes the particles into belief frames, see BeliefFrameFormat.
+ *
+ * The encoder remembers the quantized particles of the last frame, and
+ * writes a delta frame against it when that is smaller than a key
+ * frame.  A key frame is written every keyFrameInterval frames, and when
+ * requestKeyFrame() has been called, so that a receiver that missed a
+ * frame can catch up.
+ *
+ * Frames are written straight into the caller's array, and nothing is
+ * allocated after construction, so this runs on the brick.
+ */
+public final class BeliefFrameEncoder {
+
+    private final int capacity;
+
+    /**
+     * The finest grid resolution used, in map units.  Coarser grids are
+     * used when the particles are spread too wide for this one.
+     */
+    private final double resolution;
+
+    private final int keyFrameInterval;
+
+    /**
+     * The quantized particles of the frame being written: x, y, heading
+     * and weight.
+     */
+    private char[] qx;
+    private char[] qy;
+    private char[] qTheta;
+    private char[] qWeight;
+
+    /**
+     * The quantized particles of the last frame written.
+     */
+    private char[] previousX;
+    private char[] previousY;
+    private char[] previousTheta;
+    private char[] previousWeight;
+
+    private int previousSize = -1;
+
+    private double previousMinX;
+    private double previousMinY;
+    private double previousResolution;
+
+    private int sequenceNumber = 0;
+
+    private int framesSinceKeyFrame = 0;
+
+    private boolean keyFrameRequested = true;
+
+    /**
+     * The grid of the frame being written.
+     */
+    private double minX;
+    private double minY;
+    private double gridResolution;
+    private double maxWeight;
+
+    /**
+     * @param capacity the most particles a frame will hold.
+     * @param resolution the finest grid resolution, in map units.
+     * @param keyFrameInterval a key frame is written at least this often,
+     *        one for key frames only.
+     */
+    public BeliefFrameEncoder(
+            final int capacity,
+            final double resolution,
+            final int keyFrameInterval) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive, was: " + capacity);
+        }
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("resolution must be positive, was: " + resolution);
+        }
+        if (keyFrameInterval < 1) {
+            throw new IllegalArgumentException("keyFrameInterval must be positive, was: " + keyFrameInterval);
+        }
+        this.capacity = capacity;
+        this.resolution = resolution;
+        this.keyFrameInterval = keyFrameInterval;
+        qx = new char[capacity];
+        qy = new char[capacity];
+        qTheta = new char[capacity];
+        qWeight = new char[capacity];
+        previousX = new char[capacity];
+        previousY = new char[capacity];
+        previousTheta = new char[capacity];
+        previousWeight = new char[capacity];
+    }
+
+    /**
+     * Make the next frame a key frame.
+     */
+    public void requestKeyFrame() {
+        keyFrameRequested = true;
+    }
+
+    /**
+     * @return the sequence number the next frame will get.
+     */
+    public int getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * Write the particles in use in a store as a frame.  Frames carry no
+     * counts, so an entry with a count, see ParticleStore.getCount, is
+     * written as that many particles sharing its weight.
+     *
+     * @param store the particles.
+     * @param destination where the frame is written, with room for
+     *        BeliefFrameFormat.getMaxFrameSize(store.getNoOfRepresentedParticles())
+     *        bytes.
+     * @param offset where in the destination the frame starts.
+     * @return the number of bytes written.
+     */
+    public int encode(final ParticleStore store, final byte[] destination, final int offset) {
+        final int entries = store.getSize();
+        final int size = store.getNoOfRepresentedParticles();
+        checkRoom(size, destination, offset);
+        final double[] x = store.getXs();
+        final double[] y = store.getYs();
+        final double[] weight = store.getWeights();
+        final int[] count = store.getCounts();
+        double loX = Double.POSITIVE_INFINITY;
+        double hiX = Double.NEGATIVE_INFINITY;
+        double loY = Double.POSITIVE_INFINITY;
+        double hiY = Double.NEGATIVE_INFINITY;
+        double hiWeight = 0;
+        for (int i = 0; i < entries; i++) {
+            loX = Math.min(loX, x[i]);
+            hiX = Math.max(hiX, x[i]);
+            loY = Math.min(loY, y[i]);
+            hiY = Math.max(hiY, y[i]);
+            hiWeight = Math.max(hiWeight, weight[i] / count[i]);
+        }
+        chooseGrid(loX, hiX, loY, hiY, hiWeight);
+
+        final double[] theta = store.getThetas();
+        int j = 0;
+        for (int i = 0; i < entries; i++) {
+            final double w = weight[i] / count[i];
+            for (int k = 0; k < count[i]; k++, j++) {
+                quantize(j, x[i], y[i], theta[i], w);
+            }
+        }
+        return write(size, destination, offset);
+    }
+
+    /**
+     * Write the particles in a pool as a frame.
+     *
+     * @param pool the particles.
+     * @param destination where the frame is written, with room for
+     *        BeliefFrameFormat.getMaxFrameSize(pool.getSize()) bytes.
+     * @param offset where in the destination the frame starts.
+     * @return the number of bytes written.
+     * @throws IllegalArgumentException if the pool is empty, or there
+     *         isn't room for it.
+     */
+    public int encode(final WeightedPool<Particle> pool, final byte[] destination, final int offset) {
+        final int size = pool.getSize();
+        checkRoom(size, destination, offset);
+        double loX = Double.POSITIVE_INFINITY;
+        double hiX = Double.NEGATIVE_INFINITY;
+        double loY = Double.POSITIVE_INFINITY;
+        double hiY = Double.NEGATIVE_INFINITY;
+        double hiWeight = 0;
+        for (int i = 0; i < size; i++) {
+            final Particle p = pool.get(i);
+            loX = Math.min(loX, p.getPosition().getX());
+            hiX = Math.max(hiX, p.getPosition().getX());
+            loY = Math.min(loY, p.getPosition().getY());
+            hiY = Math.max(hiY, p.getPosition().getY());
+            hiWeight = Math.max(hiWeight, p.getWeight());
+        }
+        chooseGrid(loX, hiX, loY, hiY, hiWeight);
+
+        for (int i = 0; i < size; i++) {
+            final Particle p = pool.get(i);
+            quantize(i,
+                    p.getPosition().getX(), p.getPosition().getY(),
+                    p.getSpeed().getTheta(), p.getWeight());
+        }
+        return write(size, destination, offset);
+    }
+
+    private void checkRoom(final int size, final byte[] destination, final int offset) {
+        if (size < 1) {
+            // The decoder can't read an empty frame into a store.
+            throw new IllegalArgumentException("There are no particles to encode");
+        }
+        if (size > capacity) {
+            throw new IllegalArgumentException("The encoder has room for "
+                    + capacity + " particles, not " + size);
+        }
+        if (destination.length - offset < BeliefFrameFormat.getMaxFrameSize(size)) {
+            throw new IllegalArgumentException("Room for "
+                    + BeliefFrameFormat.getMaxFrameSize(size) + " bytes is needed, there is "
+                    + (destination.length - offset));
+        }
+    }
+
+    /**
+     * Keep the last frame's grid if the particles are still on it, since
+     * that keeps the deltas small, otherwise fit a new grid around them.
+     * The grid is rounded to floats, as it is sent, before quantizing.
+     */
+    private void chooseGrid(
+            final double loX,
+            final double hiX,
+            final double loY,
+            final double hiY,
+            final double hiWeight) {
+        final int top = BeliefFrameFormat.STEPS - 1;
+        if (previousSize >= 0
+                && loX >= previousMinX && loY >= previousMinY
+                && (hiX - previousMinX) / previousResolution <= top
+                && (hiY - previousMinY) / previousResolution <= top) {
+            minX = previousMinX;
+            minY = previousMinY;
+            gridResolution = previousResolution;
+        } else {
+            final double spread = Math.max(hiX - loX, hiY - loY);
+            // A little slack for the rounding to floats.
+            final double needed = Math.max(resolution, spread / (top - 2));
+            minX = (float) loX;
+            minY = (float) loY;
+            gridResolution = (float) (needed * 1.0001);
+        }
+        maxWeight = (float) hiWeight;
+    }
+
+    private static char quantizeLinear(final double v, final double min, final double step) {
+        final long q = Math.round((v - min) / step);
+        if (q < 0) {
+            return 0;
+        }
+        if (q >= BeliefFrameFormat.STEPS) {
+            return (char) (BeliefFrameFormat.STEPS - 1);
+        }
+        return (char) q;
+    }
+
+    private void quantize(
+            final int i,
+            final double x,
+            final double y,
+            final double theta,
+            final double weight) {
+        qx[i] = quantizeLinear(x, minX, gridResolution);
+        qy[i] = quantizeLinear(y, minY, gridResolution);
+        final double turns = theta / (2 * Math.PI);
+        final double fraction = turns - Math.floor(turns);
+        qTheta[i] = (char) (Math.round(fraction * BeliefFrameFormat.STEPS) & 0xFFFF);
+        qWeight[i] = (maxWeight > 0)
+                ? quantizeLinear(weight, 0, maxWeight / (BeliefFrameFormat.STEPS - 1))
+                : 0;
+    }
+
+    private int write(final int size, final byte[] destination, final int offset) {
+        final boolean keyFrame = keyFrameRequested
+                || previousSize != size
+                || framesSinceKeyFrame + 1 >= keyFrameInterval;
+        int length = -1;
+        if (!keyFrame) {
+            length = writeDelta(size, destination, offset);
+        }
+        if (length < 0) {
+            length = writeKey(size, destination, offset);
+            framesSinceKeyFrame = 0;
+        } else {
+            framesSinceKeyFrame++;
+        }
+
+        // This frame is the reference for the next one.
+        char[] tmp = previousX;
+        previousX = qx;
+        qx = tmp;
+        tmp = previousY;
+        previousY = qy;
+        qy = tmp;
+        tmp = previousTheta;
+        previousTheta = qTheta;
+        qTheta = tmp;
+        tmp = previousWeight;
+        previousWeight = qWeight;
+        qWeight = tmp;
+        previousSize = size;
+        previousMinX = minX;
+        previousMinY = minY;
+        previousResolution = gridResolution;
+        keyFrameRequested = false;
+        sequenceNumber++;
+        return length;
+    }
+
+    private void writeHeader(
+            final byte type,
+            final int size,
+            final byte[] b,
+            final int offset) {
+        BeliefFrameFormat.putInt(b, offset, BeliefFrameFormat.MAGIC);
+        b[offset + 4] = BeliefFrameFormat.VERSION;
+        b[offset + BeliefFrameFormat.TYPE_OFFSET] = type;
+        BeliefFrameFormat.putShort(b, offset + 6, 0);
+        BeliefFrameFormat.putInt(b, offset + BeliefFrameFormat.SEQUENCE_OFFSET, sequenceNumber);
+        BeliefFrameFormat.putInt(b, offset + BeliefFrameFormat.REFERENCE_OFFSET,
+                type == BeliefFrameFormat.KEY_FRAME ? -1 : sequenceNumber - 1);
+        BeliefFrameFormat.putInt(b, offset + BeliefFrameFormat.SIZE_OFFSET, size);
+        BeliefFrameFormat.putFloat(b, offset + BeliefFrameFormat.MIN_X_OFFSET, (float) minX);
+        BeliefFrameFormat.putFloat(b, offset + BeliefFrameFormat.MIN_Y_OFFSET, (float) minY);
+        BeliefFrameFormat.putFloat(b, offset + BeliefFrameFormat.RESOLUTION_OFFSET, (float) gridResolution);
+        BeliefFrameFormat.putFloat(b, offset + BeliefFrameFormat.MAX_WEIGHT_OFFSET, (float) maxWeight);
+    }
+
+    private int writeKey(final int size, final byte[] b, final int offset) {
+        writeHeader(BeliefFrameFormat.KEY_FRAME, size, b, offset);
+        int i = offset + BeliefFrameFormat.HEADER_SIZE;
+        for (int k = 0; k < size; k++) {
+            BeliefFrameFormat.putShort(b, i, qx[k]);
+            BeliefFrameFormat.putShort(b, i + 2, qy[k]);
+            BeliefFrameFormat.putShort(b, i + 4, qTheta[k]);
+            BeliefFrameFormat.putShort(b, i + 6, qWeight[k]);
+            i += BeliefFrameFormat.KEY_PARTICLE_SIZE;
+        }
+        return i - offset;
+    }
+
+    /**
+     * @return the length of the delta frame, or -1 if it would have been
+     *         longer than a key frame, in which case the destination
+     *         holds garbage.
+     */
+    private int writeDelta(final int size, final byte[] b, final int offset) {
+        writeHeader(BeliefFrameFormat.DELTA_FRAME, size, b, offset);
+        final int limit = offset + BeliefFrameFormat.getMaxFrameSize(size);
+        int i = offset + BeliefFrameFormat.HEADER_SIZE;
+        for (int k = 0; k < size; k++) {
+            // Three bytes per number at the most, twelve per particle.
+            if (i + 12 > limit) {
+                return -1;
+            }
+            i = putDelta(b, i, qx[k] - previousX[k]);
+            i = putDelta(b, i, qy[k] - previousY[k]);
+            i = putDelta(b, i, qTheta[k] - previousTheta[k]);
+            i = putDelta(b, i, qWeight[k] - previousWeight[k]);
+        }
+        return i - offset;
+    }
+
+    /**
+     * Write a difference of 16 bit numbers, modulo 2^16, as a zigzag
+     * varint: seven bits per byte, the high bit set on all but the last.
+     */
+    private static int putDelta(final byte[] b, final int index, final int difference) {
+        final int d = (short) difference;
+        int zigzag = (d << 1) ^ (d >> 31);
+        int i = index;
+        while ((zigzag & ~0x7F) != 0) {
+            b[i++] = (byte) ((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        b[i++] = (byte) zigzag;
+        return i;
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.telemetry;
+
+/**
+ * The layout of belief frames, the compact binary snapshots of the
+ * particles sent from the robot for visualization.
+ *
+ * A frame is a 36 byte header followed by the particles.  Numbers are big
+ * endian.
+ * <pre>
+ *  0  int    magic, "NXBS"
+ *  4  byte   version, 1
+ *  5  byte   type, KEY_FRAME or DELTA_FRAME
+ *  6  short  reserved, zero
+ *  8  int    sequence number
+ * 12  int    sequence number of the reference frame, -1 for key frames
+ * 16  int    number of particles
+ * 20  float  x of the grid origin
+ * 24  float  y of the grid origin
+ * 28  float  grid resolution, map units per step
+ * 32  float  the largest weight
+ * </pre>
+ * Every particle is quantized to four unsigned 16 bit numbers: x and y as
+ * grid steps from the origin, the heading in 1/65536ths of a turn, and
+ * the weight in 1/65535ths of the largest weight.  The speed is not
+ * sent; after a round all particles have the same one.
+ *
+ * A key frame has the four numbers of every particle, 8 bytes per
+ * particle.  A delta frame has, for every particle, the differences from
+ * the same particle in the reference frame, modulo 2^16, as zigzag
+ * varints of one to three bytes.  Differences are small when the
+ * particles keep their places in the store, as they do when resampling
+ * is skipped.
+ */
+public final class BeliefFrameFormat {
+
+    public static final int MAGIC = 0x4E584253;
+
+    public static final byte VERSION = 1;
+
+    public static final byte KEY_FRAME = 0;
+
+    public static final byte DELTA_FRAME = 1;
+
+    public static final int HEADER_SIZE = 36;
+
+    /**
+     * The number of bytes per particle in a key frame.
+     */
+    public static final int KEY_PARTICLE_SIZE = 8;
+
+    /**
+     * The number of steps of the quantized numbers.
+     */
+    static final int STEPS = 65536;
+
+    static final int TYPE_OFFSET = 5;
+    static final int SEQUENCE_OFFSET = 8;
+    static final int REFERENCE_OFFSET = 12;
+    static final int SIZE_OFFSET = 16;
+    static final int MIN_X_OFFSET = 20;
+    static final int MIN_Y_OFFSET = 24;
+    static final int RESOLUTION_OFFSET = 28;
+    static final int MAX_WEIGHT_OFFSET = 32;
+
+    /**
+     *  It should't be possible to instantiate this class.
+     */
+    private BeliefFrameFormat() {
+    }
+
+    /**
+     * @param noOfParticles
+     * @return the largest possible frame with that many particles.
+     */
+    public static int getMaxFrameSize(final int noOfParticles) {
+        return HEADER_SIZE + KEY_PARTICLE_SIZE * noOfParticles;
+    }
+
+    static void putInt(final byte[] b, final int i, final int v) {
+        b[i] = (byte) (v >>> 24);
+        b[i + 1] = (byte) (v >>> 16);
+        b[i + 2] = (byte) (v >>> 8);
+        b[i + 3] = (byte) v;
+    }
+
+    static int getInt(final byte[] b, final int i) {
+        return ((b[i] & 0xFF) << 24)
+                | ((b[i + 1] & 0xFF) << 16)
+                | ((b[i + 2] & 0xFF) << 8)
+                | (b[i + 3] & 0xFF);
+    }
+
+    static void putShort(final byte[] b, final int i, final int v) {
+        b[i] = (byte) (v >>> 8);
+        b[i + 1] = (byte) v;
+    }
+
+    static int getUnsignedShort(final byte[] b, final int i) {
+        return ((b[i] & 0xFF) << 8) | (b[i + 1] & 0xFF);
+    }
+
+    static void putFloat(final byte[] b, final int i, final float v) {
+        putInt(b, i, Float.floatToIntBits(v));
+    }
+
+    static float getFloat(final byte[] b, final int i) {
+        return Float.intBitsToFloat(getInt(b, i));
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.telemetry;
+
+import java.io.IOException;
+
+/**
+ * Where belief frames are sent, such as a Bluetooth link to the laptop.
+ * Implementations may hold frames back to send several at once, so call
+ * flush() when a frame must go out now.
+ */
+public interface FrameTransport {
+
+    /**
+     * Send a frame, or queue it for sending.  The bytes are copied or
+     * sent before the method returns, so the caller may reuse the array.
+     *
+     * @param frame the array holding the frame.
+     * @param offset where the frame starts.
+     * @param length the number of bytes in the frame.
+     * @throws IOException if the link failed.
+     */
+    public void send(final byte[] frame, final int offset, final int length)
+            throws IOException;
+
+    /**
+     * Send any queued frames.
+     *
+     * @throws IOException if the link failed.
+     */
+    public void flush() throws IOException;
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.particlefilter.PositionEstimation;
+import no.rmz.robotics.particlefilter.ScalarColumnKernels;
+import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PositionEstimation.applyMovement over every particle, both for the
+ * particle store and for particle objects, so the two layouts can be
+ * compared, and with the exact and the fast trigonometry.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class ApplyMovementBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int noOfParticles;
+
+    @Param({"false", "true"})
+    public boolean fastTrigonometry;
+
+    /**
+     * A small turn, so that theta changes but the particles stay
+     * roughly where they are.
+     */
+    private final PolarCoordinate applicationSpeed = new PolarCoordinate(0.001, 0.01);
+
+    private ParticleStore store;
+
+    private Particle[] particles;
+
+    private ScalarColumnKernels kernels;
+
+    @Setup
+    public void setUp() {
+        kernels = new ScalarColumnKernels(fastTrigonometry);
+        store = new ParticleStore("benchmark", noOfParticles, 1.0);
+        Fixtures.scatter(store, new Random(Fixtures.SEED));
+        particles = store.asPool().getParticles();
+    }
+
+    @Benchmark
+    public ParticleStore applyMovementToStore() {
+        if (fastTrigonometry) {
+            for (int i = 0; i < noOfParticles; i++) {
+                PositionEstimation.applyMovementFast(store, i, applicationSpeed);
+            }
+        } else {
+            for (int i = 0; i < noOfParticles; i++) {
+                PositionEstimation.applyMovement(store, i, applicationSpeed);
+            }
+        }
+        return store;
+    }
+
+    @Benchmark
+    public Particle[] applyMovementToParticles() {
+        if (fastTrigonometry) {
+            for (final Particle p : particles) {
+                PositionEstimation.applyMovementFast(p.getPosition(), p.getSpeed(), applicationSpeed);
+            }
+        } else {
+            for (final Particle p : particles) {
+                PositionEstimation.applyMovement(p.getPosition(), p.getSpeed(), applicationSpeed);
+            }
+        }
+        return particles;
+    }
+
+    @Benchmark
+    public ParticleStore applyMovementWithKernels() {
+        kernels.applyMovement(
+                store, 0, noOfParticles,
+                applicationSpeed.getTheta(), applicationSpeed.getRadius());
+        return store;
+    }
+}
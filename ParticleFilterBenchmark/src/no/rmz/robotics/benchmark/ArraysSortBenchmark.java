@@ -0,0 +1,89 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import no.rmz.robotics.arrays.Arrays;
+import no.rmz.robotics.arrays.WeightedPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Arrays.sort with the weight comparator, on randomly ordered weighted
+ * objects, and Arrays.radixSort on their weights.  The unsorted order is
+ * restored before every invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class ArraysSortBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int noOfParticles;
+
+    private Fixtures.Item[] original;
+
+    private Fixtures.Item[] items;
+
+    private double[] weights;
+
+    private int[] permutation;
+
+    private int[] scratch;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        original = Fixtures.randomItems(noOfParticles, new Random(Fixtures.SEED));
+        items = new Fixtures.Item[noOfParticles];
+        weights = new double[noOfParticles];
+        for (int i = 0; i < noOfParticles; i++) {
+            weights[i] = original[i].getWeight();
+        }
+        permutation = new int[noOfParticles];
+        scratch = new int[noOfParticles];
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        System.arraycopy(original, 0, items, 0, noOfParticles);
+    }
+
+    @Benchmark
+    public Fixtures.Item[] sort() {
+        Arrays.sort(items, WeightedPool.PARTICLE_COMPARATOR_ACCORDING_TO_WEIGHT);
+        return items;
+    }
+
+    @Benchmark
+    public int[] radixSort() {
+        Arrays.radixSort(weights, noOfParticles, permutation, scratch);
+        return permutation;
+    }
+}
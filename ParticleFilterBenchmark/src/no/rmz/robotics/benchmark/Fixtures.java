@@ -0,0 +1,144 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.benchmark;
+
+import java.util.Random;
+import no.rmz.robotics.arrays.Weighted;
+import no.rmz.robotics.particlefilter.NavigationMap;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.ParticleFieldConsumer;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.particlefilter.ThreadSafe;
+import no.rmz.robotics.arrays.WeightedPool;
+import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
+import no.rmz.robotics.sensors.Sensor;
+import no.rmz.robotics.sensors.SensorInput;
+
+/**
+ * Sensors, maps and weighted objects the benchmarks run against.  They
+ * are as cheap as possible, so that what is measured is the filter and
+ * not the fixtures.
+ */
+final class Fixtures {
+
+    /**
+     *  It should't be possible to instantiate this class.
+     */
+    private Fixtures() {
+    }
+
+    /**
+     * The side of the square the particles are spread out over.
+     */
+    static final double ARENA_SIZE = 1000.0;
+
+    /**
+     * A seed, so that every run benchmarks the same data.
+     */
+    static final long SEED = 42;
+
+    /**
+     * A sensor that always senses the same thing.
+     */
+    static final class ConstantSensor implements Sensor {
+        private final SensorInput input =
+                new SensorInput((byte) 100, new PolarCoordinate(0.1, 1.0));
+
+        @Override
+        public SensorInput sense() {
+            return input;
+        }
+    }
+
+    /**
+     * A map with brightness varying along the x axis.  The sensor inputs
+     * are made up front, so lookups don't allocate.
+     */
+    static final class StripedMap implements NavigationMap, ThreadSafe {
+        private final SensorInput[] inputs = new SensorInput[256];
+
+        StripedMap() {
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = new SensorInput((byte) i, null);
+            }
+        }
+
+        @Override
+        public SensorInput getExpectedSensorValue(final Particle p) {
+            return inputs[((int) p.getPosition().getX()) & 0xff];
+        }
+    }
+
+    /**
+     * A consumer that does nothing.
+     */
+    static final class NullConsumer implements ParticleFieldConsumer {
+        @Override
+        public void consumeParticles(final WeightedPool pool) {
+        }
+    }
+
+    /**
+     * The simplest possible weighted object.
+     */
+    static final class Item implements Weighted {
+        private double w;
+
+        Item(final double w) {
+            this.w = w;
+        }
+
+        @Override
+        public void setWeight(final double w) {
+            this.w = w;
+        }
+
+        @Override
+        public double getWeight() {
+            return w;
+        }
+    }
+
+    /**
+     * Spread the particles of a store uniformly over the arena, with
+     * random headings and speeds.
+     */
+    static void scatter(final ParticleStore store, final Random randomness) {
+        for (int i = 0; i < store.getSize(); i++) {
+            store.setX(i, randomness.nextDouble() * ARENA_SIZE);
+            store.setY(i, randomness.nextDouble() * ARENA_SIZE);
+            store.setTheta(i, randomness.nextDouble() * 2 * Math.PI);
+            store.setRadius(i, randomness.nextDouble());
+            store.setWeight(i, randomness.nextDouble() + Double.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Items with random, positive, normalized weights.
+     */
+    static Item[] randomItems(final int size, final Random randomness) {
+        final Item[] items = new Item[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            items[i] = new Item(randomness.nextDouble() + Double.MIN_VALUE);
+            sum += items[i].getWeight();
+        }
+        for (int i = 0; i < size; i++) {
+            items[i].setWeight(items[i].getWeight() / sum);
+        }
+        return items;
+    }
+}
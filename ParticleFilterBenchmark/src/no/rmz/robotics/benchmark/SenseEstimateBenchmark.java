@@ -0,0 +1,68 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import no.rmz.robotics.particlefilter.ParticleFilter;
+import no.rmz.robotics.sensors.SurfaceReflectedLightSensor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One full round of ParticleFilter.senseEstimate: sensing, weighing,
+ * resampling and motion.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class SenseEstimateBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int noOfParticles;
+
+    private ParticleFilter filter;
+
+    @Setup
+    public void setUp() {
+        filter = new ParticleFilter(
+                noOfParticles,
+                new Fixtures.ConstantSensor(),
+                new SurfaceReflectedLightSensor(),
+                new Fixtures.NullConsumer(),
+                new Fixtures.StripedMap());
+        final Random randomness = new Random(Fixtures.SEED);
+        Fixtures.scatter(filter.getOldParticleStore(), randomness);
+        Fixtures.scatter(filter.getNewParticleStore(), randomness);
+    }
+
+    @Benchmark
+    public void senseEstimate() {
+        filter.senseEstimate();
+    }
+}
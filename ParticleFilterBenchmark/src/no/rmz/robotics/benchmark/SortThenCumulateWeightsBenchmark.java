@@ -0,0 +1,80 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import no.rmz.robotics.arrays.WeightedPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * WeightedPool.sortThenCumulateWeights on a pool with fresh, unsorted
+ * weights.  The weights are restored before every invocation, outside of
+ * the measured time, since sorting and cumulating destroys them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class SortThenCumulateWeightsBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int noOfParticles;
+
+    private Fixtures.Item[] original;
+
+    private double[] originalWeights;
+
+    private WeightedPool<Fixtures.Item> pool;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        original = Fixtures.randomItems(noOfParticles, new Random(Fixtures.SEED));
+        originalWeights = new double[noOfParticles];
+        for (int i = 0; i < noOfParticles; i++) {
+            originalWeights[i] = original[i].getWeight();
+        }
+        pool = new WeightedPool<Fixtures.Item>("benchmark", original.clone());
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        final Fixtures.Item[] items = pool.getParticles();
+        System.arraycopy(original, 0, items, 0, noOfParticles);
+        for (int i = 0; i < noOfParticles; i++) {
+            original[i].setWeight(originalWeights[i]);
+        }
+        pool.unsort();
+    }
+
+    @Benchmark
+    public void sortThenCumulateWeights() {
+        pool.sortThenCumulateWeights();
+    }
+}
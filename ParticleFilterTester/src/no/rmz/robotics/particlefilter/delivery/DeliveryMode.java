@@ -0,0 +1,38 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter.delivery;
+
+/**
+ * How a subscriber of a ParticleFieldPublisher wants snapshots it can't
+ * keep up with to be handled.
+ */
+public enum DeliveryMode {
+
+    /**
+     * Conflate: only the most recent snapshot is kept for the
+     * subscriber, older undelivered ones are dropped.  For visualizers
+     * and anything else that only cares about the current belief.
+     */
+    LATEST,
+
+    /**
+     * Buffer: every snapshot is delivered, in order, through a bounded
+     * buffer.  If the subscriber falls so far behind that the buffer
+     * overflows, it gets onError and is cancelled, since waiting for it
+     * would stall the filter.  For loggers and recorders.
+     */
+    BUFFERED
+}
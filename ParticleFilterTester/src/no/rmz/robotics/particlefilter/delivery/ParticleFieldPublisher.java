@@ -0,0 +1,355 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter.delivery;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import no.rmz.robotics.arrays.WeightedPool;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.ParticleFieldConsumer;
+import no.rmz.robotics.particlefilter.ParticleStore;
+
+/**
+ * A ParticleFieldConsumer that hands the particles on to any number of
+ * Flow subscribers without making the filter wait for them.  Set it as
+ * the filter's consumer, and slow consumers such as visualizers and
+ * loggers subscribe to it instead.
+ *
+ * On the filter thread, every round costs one copy of the particles into
+ * an immutable ParticleFieldSnapshot, shared by all subscribers, and a
+ * non-blocking offer to each of them.  The snapshots are delivered on an
+ * executor, honoring every subscriber's demand, and every subscriber
+ * picks its own DeliveryMode:
+ * <ul>
+ * <li>LATEST keeps only the newest undelivered snapshot, so a slow
+ *     subscriber skips rounds but always gets the current belief.</li>
+ * <li>BUFFERED keeps undelivered snapshots in a bounded lock-free ring
+ *     buffer, so every round is delivered in order.  A subscriber that
+ *     lets the buffer overflow gets onError and is dropped.</li>
+ * </ul>
+ *
+ * Rounds must be published from one thread at a time, as a filter
+ * does.  This uses java.util.concurrent.Flow, so it is for the host,
+ * not the brick.
+ */
+public final class ParticleFieldPublisher
+        implements ParticleFieldConsumer, Flow.Publisher<ParticleFieldSnapshot>, AutoCloseable {
+
+    /**
+     * The default capacity of the buffers of BUFFERED subscribers.
+     */
+    public static final int DEFAULT_BUFFER_CAPACITY = 64;
+
+    /**
+     * Where the subscribers are called.
+     */
+    private final Executor executor;
+
+    /**
+     * The capacity of the buffers of BUFFERED subscribers.
+     */
+    private final int bufferCapacity;
+
+    private final CopyOnWriteArrayList<DeliverySubscription> subscriptions =
+            new CopyOnWriteArrayList<DeliverySubscription>();
+
+    /**
+     * The sequence number of the next snapshot.  Only used by the
+     * publishing thread.
+     */
+    private long sequenceNumber = 0;
+
+    private volatile boolean closed = false;
+
+    /**
+     * A publisher calling its subscribers on the common fork/join pool,
+     * with buffers of the default capacity.
+     */
+    public ParticleFieldPublisher() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BUFFER_CAPACITY);
+    }
+
+    /**
+     * @param executor where the subscribers are called.  Every
+     *        subscriber is called by one task at a time, but different
+     *        subscribers are called in parallel.
+     * @param bufferCapacity the number of snapshots a BUFFERED
+     *        subscriber may fall behind, rounded up to a power of two.
+     */
+    public ParticleFieldPublisher(final Executor executor, final int bufferCapacity) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor can't be null");
+        }
+        if (bufferCapacity < 1) {
+            throw new IllegalArgumentException("bufferCapacity must be positive, was: " + bufferCapacity);
+        }
+        this.executor = executor;
+        this.bufferCapacity = bufferCapacity;
+    }
+
+    /**
+     * Subscribe in LATEST mode.
+     */
+    @Override
+    public void subscribe(final Flow.Subscriber<? super ParticleFieldSnapshot> subscriber) {
+        subscribe(subscriber, DeliveryMode.LATEST);
+    }
+
+    /**
+     * Subscribe to the snapshots of the rounds published from now on.
+     *
+     * @param subscriber the subscriber.
+     * @param mode what to do with snapshots the subscriber can't keep
+     *        up with.
+     */
+    public void subscribe(
+            final Flow.Subscriber<? super ParticleFieldSnapshot> subscriber,
+            final DeliveryMode mode) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber can't be null");
+        }
+        if (mode == null) {
+            throw new IllegalArgumentException("mode can't be null");
+        }
+        final DeliverySubscription subscription = new DeliverySubscription(subscriber, mode);
+        subscriptions.add(subscription);
+        if (closed) {
+            subscription.complete();
+        }
+        subscription.schedule();
+    }
+
+    /**
+     * @return the number of subscribers that are neither cancelled nor
+     *         completed.
+     */
+    public int getNoOfSubscribers() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Publish the particles a filter hands its consumer.
+     */
+    @Override
+    public void consumeParticles(final WeightedPool pool) {
+        final Particle[] particles = (Particle[]) pool.getParticles();
+        publish(ParticleFieldSnapshot.of(sequenceNumber++, particles, pool.getSize()));
+    }
+
+    /**
+     * Publish the particles in a store, for those driving a filter
+     * through its stores rather than its consumer.
+     *
+     * @param store the particles.
+     */
+    public void publish(final ParticleStore store) {
+        publish(ParticleFieldSnapshot.of(sequenceNumber++, store));
+    }
+
+    private void publish(final ParticleFieldSnapshot snapshot) {
+        if (closed) {
+            throw new IllegalStateException("The publisher is closed");
+        }
+        for (final DeliverySubscription subscription : subscriptions) {
+            subscription.offer(snapshot);
+        }
+    }
+
+    /**
+     * Complete every subscription, after the snapshots they have been
+     * given have been delivered.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (final DeliverySubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+
+    /**
+     * A subscriber's demand, undelivered snapshots, and the task that
+     * delivers them.  All calls to the subscriber are made from drain(),
+     * which never runs in two threads at once.
+     */
+    private final class DeliverySubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super ParticleFieldSnapshot> subscriber;
+
+        private final DeliveryMode mode;
+
+        /**
+         * The undelivered snapshots in BUFFERED mode.
+         */
+        private final SpscRing<ParticleFieldSnapshot> ring;
+
+        /**
+         * The undelivered snapshot in LATEST mode.
+         */
+        private final AtomicReference<ParticleFieldSnapshot> latest =
+                new AtomicReference<ParticleFieldSnapshot>();
+
+        /**
+         * Requested but not yet delivered, Long.MAX_VALUE for unbounded.
+         */
+        private final AtomicLong demand = new AtomicLong(0);
+
+        /**
+         * The number of reasons to drain, the drain task runs while
+         * it's positive.
+         */
+        private final AtomicInteger wip = new AtomicInteger(0);
+
+        /**
+         * Only used by drain().
+         */
+        private boolean subscribed = false;
+
+        private volatile boolean cancelled = false;
+
+        private volatile boolean completed = false;
+
+        private volatile Throwable error;
+
+        private final Runnable drainTask = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+
+        DeliverySubscription(
+                final Flow.Subscriber<? super ParticleFieldSnapshot> subscriber,
+                final DeliveryMode mode) {
+            this.subscriber = subscriber;
+            this.mode = mode;
+            this.ring = (mode == DeliveryMode.BUFFERED)
+                    ? new SpscRing<ParticleFieldSnapshot>(bufferCapacity)
+                    : null;
+        }
+
+        void offer(final ParticleFieldSnapshot snapshot) {
+            if (cancelled) {
+                return;
+            }
+            if (mode == DeliveryMode.LATEST) {
+                // Conflate, replacing any undelivered snapshot.
+                latest.set(snapshot);
+            } else if (!ring.offer(snapshot)) {
+                error = new IllegalStateException(
+                        "Subscriber fell " + ring.capacity() + " snapshots behind");
+            }
+            schedule();
+        }
+
+        void complete() {
+            completed = true;
+            schedule();
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Requests must be positive, was: " + n);
+            } else {
+                long current;
+                long next;
+                do {
+                    current = demand.get();
+                    next = current + n;
+                    if (next < 0) {
+                        next = Long.MAX_VALUE;
+                    }
+                } while (!demand.compareAndSet(current, next));
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(drainTask);
+            }
+        }
+
+        private ParticleFieldSnapshot poll() {
+            if (mode == DeliveryMode.LATEST) {
+                return latest.getAndSet(null);
+            }
+            return ring.poll();
+        }
+
+        private boolean isEmpty() {
+            if (mode == DeliveryMode.LATEST) {
+                return latest.get() == null;
+            }
+            return ring.isEmpty();
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                try {
+                    if (!subscribed) {
+                        subscribed = true;
+                        subscriber.onSubscribe(this);
+                    }
+                    deliver();
+                } catch (RuntimeException e) {
+                    // A subscriber that throws is cancelled, as Flow says.
+                    cancel();
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void deliver() {
+            while (!cancelled) {
+                final Throwable e = error;
+                if (e != null) {
+                    cancel();
+                    subscriber.onError(e);
+                    return;
+                }
+                if (demand.get() == 0) {
+                    break;
+                }
+                final ParticleFieldSnapshot snapshot = poll();
+                if (snapshot == null) {
+                    break;
+                }
+                if (demand.get() != Long.MAX_VALUE) {
+                    demand.decrementAndGet();
+                }
+                subscriber.onNext(snapshot);
+            }
+            if (!cancelled && completed && isEmpty()) {
+                cancel();
+                subscriber.onComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter.delivery;
+
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.ParticleStore;
+
+/**
+ * An immutable copy of the particles after a round, safe to read from
+ * any thread for as long as it is kept.  Unlike WeightedPoolSnapshot,
+ * the positions and speeds are copied too, not just the weights.
+ */
+public final class ParticleFieldSnapshot {
+
+    private final long sequenceNumber;
+
+    private final int size;
+
+    private final double[] x;
+
+    private final double[] y;
+
+    private final double[] theta;
+
+    private final double[] radius;
+
+    private final double[] weight;
+
+    private ParticleFieldSnapshot(final long sequenceNumber, final int size) {
+        this.sequenceNumber = sequenceNumber;
+        this.size = size;
+        this.x = new double[size];
+        this.y = new double[size];
+        this.theta = new double[size];
+        this.radius = new double[size];
+        this.weight = new double[size];
+    }
+
+    /**
+     * Copy the particles in use in a store.  An entry with a count, see
+     * ParticleStore.getCount, is copied as that many particles sharing
+     * its weight, as ParticleStore.expandTo does.
+     *
+     * @param sequenceNumber the number of the snapshot.
+     * @param store the particles.
+     * @return the copy.
+     */
+    public static ParticleFieldSnapshot of(final long sequenceNumber, final ParticleStore store) {
+        final int entries = store.getSize();
+        final int size = store.getNoOfRepresentedParticles();
+        final ParticleFieldSnapshot snapshot = new ParticleFieldSnapshot(sequenceNumber, size);
+        if (size == entries) {
+            System.arraycopy(store.getXs(), 0, snapshot.x, 0, size);
+            System.arraycopy(store.getYs(), 0, snapshot.y, 0, size);
+            System.arraycopy(store.getThetas(), 0, snapshot.theta, 0, size);
+            System.arraycopy(store.getRadii(), 0, snapshot.radius, 0, size);
+            System.arraycopy(store.getWeights(), 0, snapshot.weight, 0, size);
+            return snapshot;
+        }
+        final int[] count = store.getCounts();
+        int j = 0;
+        for (int i = 0; i < entries; i++) {
+            final double w = store.getWeight(i) / count[i];
+            for (int k = 0; k < count[i]; k++, j++) {
+                snapshot.x[j] = store.getX(i);
+                snapshot.y[j] = store.getY(i);
+                snapshot.theta[j] = store.getTheta(i);
+                snapshot.radius[j] = store.getRadius(i);
+                snapshot.weight[j] = w;
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Copy a pool of particle objects, such as the one a
+     * ParticleFieldConsumer is given.
+     *
+     * @param sequenceNumber the number of the snapshot.
+     * @param particles the particles.
+     * @param size the number of particles in use.
+     * @return the copy.
+     */
+    public static ParticleFieldSnapshot of(
+            final long sequenceNumber,
+            final Particle[] particles,
+            final int size) {
+        final ParticleFieldSnapshot snapshot = new ParticleFieldSnapshot(sequenceNumber, size);
+        for (int i = 0; i < size; i++) {
+            final Particle p = particles[i];
+            snapshot.x[i] = p.getPosition().getX();
+            snapshot.y[i] = p.getPosition().getY();
+            snapshot.theta[i] = p.getSpeed().getTheta();
+            snapshot.radius[i] = p.getSpeed().getRadius();
+            snapshot.weight[i] = p.getWeight();
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the number of the snapshot, counting from zero, one per
+     *         round published.
+     */
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public double getX(final int i) {
+        return x[i];
+    }
+
+    public double getY(final int i) {
+        return y[i];
+    }
+
+    public double getTheta(final int i) {
+        return theta[i];
+    }
+
+    public double getRadius(final int i) {
+        return radius[i];
+    }
+
+    public double getWeight(final int i) {
+        return weight[i];
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter.delivery;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded ring buffer for exactly one producing and one consuming
+ * thread, without locks.  The producer never waits: offer() fails when
+ * the ring is full.
+ *
+ * @param <T>
+ */
+final class SpscRing<T> {
+
+    private final AtomicReferenceArray<T> slots;
+
+    private final int mask;
+
+    /**
+     * The index of the next element to poll, only written by the consumer.
+     */
+    private final AtomicLong head = new AtomicLong(0);
+
+    /**
+     * The index of the next element to offer, only written by the
+     * producer.
+     */
+    private final AtomicLong tail = new AtomicLong(0);
+
+    /**
+     * @param capacity rounded up to a power of two.
+     */
+    SpscRing(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive, was: " + capacity);
+        }
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new AtomicReferenceArray<T>(Math.max(1, size));
+        this.mask = slots.length() - 1;
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+
+    /**
+     * @return false if the ring was full.
+     */
+    boolean offer(final T element) {
+        final long t = tail.get();
+        if (t - head.get() >= slots.length()) {
+            return false;
+        }
+        slots.lazySet((int) t & mask, element);
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * @return the oldest element, or null if the ring was empty.
+     */
+    T poll() {
+        final long h = head.get();
+        if (h >= tail.get()) {
+            return null;
+        }
+        final int i = (int) h & mask;
+        final T element = slots.get(i);
+        slots.lazySet(i, null);
+        head.lazySet(h + 1);
+        return element;
+    }
+
+    boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+}
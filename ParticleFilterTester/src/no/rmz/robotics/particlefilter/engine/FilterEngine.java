@@ -0,0 +1,349 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import no.rmz.robotics.particlefilter.ParticleFilter;
+
+/**
+ * Runs many particle filters on one shared pool of threads, instead of
+ * giving every filter a thread of its own spinning in mainLoop.
+ *
+ * Running filters wait in one FIFO queue.  Up to one driver task per
+ * thread of the pool takes the filter at the head of the queue, does a
+ * single round, ParticleFilter.step(), and puts the filter back at the
+ * tail.  So the filters take turns: none gets its next round before all
+ * the others queued have had theirs.  The pool is a work-stealing
+ * ForkJoinPool, and the drivers are all alike, so an idle thread can
+ * steal any queued driver.  A filter is in the queue at most once, so
+ * it's never stepped by two threads at once, but successive rounds may
+ * be done by different threads.
+ *
+ * A round that throws stops its filter, and the exception is kept in
+ * the filter's handle.  The other filters keep running.
+ *
+ * This uses java.util.concurrent, so it is for the host, not the brick.
+ */
+public final class FilterEngine implements AutoCloseable {
+
+    /**
+     * Where the rounds are run.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * True if the pool was made by, and should be shut down by, the
+     * engine.
+     */
+    private final boolean ownsPool;
+
+    /**
+     * Every filter added to the engine.
+     */
+    private final List<FilterHandle> handles = new CopyOnWriteArrayList<FilterHandle>();
+
+    /**
+     * The filters waiting for their next round, in turn order.
+     */
+    private final ConcurrentLinkedQueue<FilterHandle> ready = new ConcurrentLinkedQueue<FilterHandle>();
+
+    /**
+     * The number of driver tasks in the pool, queued or running.
+     */
+    private final AtomicInteger noOfDrivers = new AtomicInteger(0);
+
+    /**
+     * The most drivers there is any point in having, one per thread.
+     */
+    private final int maxNoOfDrivers;
+
+    /**
+     * The task that does the round of the filter at the head of the
+     * queue.  Several copies of it may be queued or running at once.
+     */
+    private final Runnable driver = new Runnable() {
+        @Override
+        public void run() {
+            drive();
+        }
+    };
+
+    /**
+     * The number of rounds done, by all filters together.
+     */
+    private final LongAdder noOfRounds = new LongAdder();
+
+    /**
+     * The time spent in rounds, by all filters together.
+     */
+    private final LongAdder busyNanos = new LongAdder();
+
+    /**
+     * When the engine was made, for the throughput.
+     */
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Set when the engine is closed, after which nothing runs.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Create an engine with a pool of its own.
+     *
+     * @param parallelism the number of threads.
+     */
+    public FilterEngine(final int parallelism) {
+        this(new ForkJoinPool(
+                parallelism,
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                null,
+                true),
+            true);
+    }
+
+    /**
+     * Create an engine running its filters on an existing pool.  The
+     * pool is not shut down when the engine is closed.
+     *
+     * @param pool the pool.
+     */
+    public FilterEngine(final ForkJoinPool pool) {
+        this(pool, false);
+    }
+
+    private FilterEngine(final ForkJoinPool pool, final boolean ownsPool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool can't be null");
+        }
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+        this.maxNoOfDrivers = Math.max(1, pool.getParallelism());
+    }
+
+    /**
+     * Add a filter to the engine.  It doesn't run until it is started
+     * through the returned handle.  The filter must not be run by
+     * anything else, such as mainLoop, at the same time.
+     *
+     * @param name the name of the filter, for metrics and logging.
+     * @param filter the filter.
+     * @return a handle to start, stop and monitor the filter with.
+     */
+    public FilterHandle add(final String name, final ParticleFilter filter) {
+        if (filter == null) {
+            throw new IllegalArgumentException("filter can't be null");
+        }
+        if (closed) {
+            throw new IllegalStateException("The engine is closed");
+        }
+        final FilterHandle handle = new FilterHandle(this, name, filter);
+        handles.add(handle);
+        return handle;
+    }
+
+    /**
+     * Stop a filter and take it out of the engine.  A round it is in the
+     * middle of is finished.
+     *
+     * @param handle the filter's handle.
+     */
+    public void remove(final FilterHandle handle) {
+        handle.stop();
+        handles.remove(handle);
+    }
+
+    /**
+     * @return the handles of every filter in the engine.
+     */
+    public List<FilterHandle> getFilters() {
+        return Collections.unmodifiableList(new ArrayList<FilterHandle>(handles));
+    }
+
+    /**
+     * Start every filter in the engine.
+     */
+    public void startAll() {
+        for (final FilterHandle handle : handles) {
+            handle.start();
+        }
+    }
+
+    /**
+     * Stop every filter in the engine, after the rounds they are in.
+     */
+    public void stopAll() {
+        for (final FilterHandle handle : handles) {
+            handle.stop();
+        }
+    }
+
+    /**
+     * Wait until no filter is in the middle of a round or waiting for
+     * one, which after stopAll means that all of them are done.
+     *
+     * @param timeout
+     * @param unit
+     * @return true if every filter became idle within the timeout.
+     * @throws InterruptedException
+     */
+    public boolean awaitIdle(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (final FilterHandle handle : handles) {
+            if (!handle.awaitIdleUntil(deadline)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of rounds done, by all filters together.
+     */
+    public long getNoOfRounds() {
+        return noOfRounds.sum();
+    }
+
+    /**
+     * @return the time spent in rounds, by all filters together, in
+     *         nanoseconds.  Divided by the wall clock time this is the
+     *         number of threads kept busy.
+     */
+    public long getBusyNanos() {
+        return busyNanos.sum();
+    }
+
+    /**
+     * The rounds per second since the engine was made.  For the current
+     * throughput, sample getNoOfRounds() at regular intervals instead.
+     *
+     * @return rounds per second, all filters together.
+     */
+    public double getRoundsPerSecond() {
+        final long elapsed = System.nanoTime() - startNanos;
+        return elapsed > 0 ? getNoOfRounds() * 1e9 / elapsed : 0.0;
+    }
+
+    /**
+     * Stop every filter and wait for their rounds to finish.  The pool is
+     * shut down if the engine made it.  If the calling thread is
+     * interrupted, this stops waiting and returns with the interrupt
+     * status set; awaitTermination can be used to wait again.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        stopAll();
+        try {
+            awaitTermination(Long.MAX_VALUE / 2, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            if (ownsPool) {
+                pool.shutdown();
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait, after close, until every round has finished and the pool has
+     * terminated, if the engine made it.
+     *
+     * @param timeout
+     * @param unit
+     * @return true if that happened within the timeout.
+     * @throws InterruptedException
+     */
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (!closed) {
+            throw new IllegalStateException("The engine isn't closed");
+        }
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (!awaitIdle(timeout, unit)) {
+            return false;
+        }
+        if (!ownsPool) {
+            return true;
+        }
+        pool.shutdown();
+        return pool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Put a filter at the tail of the queue, and add a driver if there
+     * are fewer than there are threads.
+     */
+    void schedule(final FilterHandle handle) {
+        ready.offer(handle);
+        startDriver();
+    }
+
+    private void startDriver() {
+        while (true) {
+            final int n = noOfDrivers.get();
+            if (n >= maxNoOfDrivers) {
+                return;
+            }
+            if (noOfDrivers.compareAndSet(n, n + 1)) {
+                pool.execute(driver);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Do one round for the filter at the head of the queue, then queue
+     * the driver again if there are more filters waiting.  A driver does
+     * a single round per task so that other work in a shared pool gets
+     * its turn too.
+     */
+    private void drive() {
+        try {
+            final FilterHandle handle = ready.poll();
+            if (handle != null) {
+                handle.doRound();
+            }
+        } finally {
+            // Whatever the round did, the driver is passed on or released,
+            // so that the other filters keep their turns.
+            if (!ready.isEmpty()) {
+                pool.execute(driver);
+            } else {
+                noOfDrivers.decrementAndGet();
+                // A filter queued while this driver was quitting must not wait.
+                if (!ready.isEmpty()) {
+                    startDriver();
+                }
+            }
+        }
+    }
+
+    void roundDone(final long nanos) {
+        noOfRounds.increment();
+        busyNanos.add(nanos);
+    }
+}
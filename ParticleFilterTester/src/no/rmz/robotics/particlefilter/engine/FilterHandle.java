@@ -0,0 +1,197 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter.engine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import no.rmz.robotics.particlefilter.ParticleFilter;
+
+/**
+ * A filter running in a FilterEngine, with the controls and metrics of
+ * that one filter.  The filter's run status decides whether it keeps
+ * running, so stopping the filter itself stops it in the engine too.
+ */
+public final class FilterHandle {
+
+    private final FilterEngine engine;
+
+    private final String name;
+
+    private final ParticleFilter filter;
+
+    /**
+     * True while the filter is in the engine's queue or in a round.
+     * This is what keeps a filter from being stepped by two threads.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    /**
+     * Only written by the thread doing the round, while scheduled is set.
+     */
+    private volatile long noOfRounds = 0;
+
+    private volatile long busyNanos = 0;
+
+    /**
+     * What the last round threw, or null.
+     */
+    private volatile Throwable failure;
+
+    FilterHandle(final FilterEngine engine, final String name, final ParticleFilter filter) {
+        this.engine = engine;
+        this.name = name;
+        this.filter = filter;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ParticleFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Start running rounds, or continue after a stop or a failure.
+     */
+    public void start() {
+        if (engine.isClosed()) {
+            throw new IllegalStateException("The engine is closed");
+        }
+        failure = null;
+        filter.setRunStatus(true);
+        schedule();
+    }
+
+    /**
+     * Stop after the round the filter is in, if any.
+     */
+    public void stop() {
+        filter.stop();
+    }
+
+    /**
+     * @return true if the filter is supposed to be running.
+     */
+    public boolean isRunning() {
+        return filter.isRunning();
+    }
+
+    /**
+     * @return true if the filter neither is in a round nor waiting for
+     *         one.
+     */
+    public boolean isIdle() {
+        return !scheduled.get();
+    }
+
+    /**
+     * @return the number of rounds the filter has done.
+     */
+    public long getNoOfRounds() {
+        return noOfRounds;
+    }
+
+    /**
+     * @return the time spent in the filter's rounds, in nanoseconds.
+     */
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    /**
+     * @return the average time of a round, in nanoseconds, or zero if
+     *         there hasn't been any.
+     */
+    public double getMeanRoundNanos() {
+        final long rounds = noOfRounds;
+        return rounds == 0 ? 0.0 : (double) busyNanos / rounds;
+    }
+
+    /**
+     * @return what the round that stopped the filter threw, or null if
+     *         it wasn't stopped by a failure.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            engine.schedule(this);
+        }
+    }
+
+    /**
+     * Do one round, then queue the next one, unless the filter has been
+     * stopped in the meantime.  Anything the round throws, errors too,
+     * stops the filter and is kept as its failure, and the filter is
+     * always either queued again or marked as not scheduled.
+     */
+    void doRound() {
+        try {
+            if (filter.isRunning() && !engine.isClosed()) {
+                final long before = System.nanoTime();
+                try {
+                    filter.step();
+                } catch (Throwable e) {
+                    failure = e;
+                    filter.stop();
+                }
+                final long nanos = System.nanoTime() - before;
+                noOfRounds++;
+                busyNanos += nanos;
+                engine.roundDone(nanos);
+            }
+        } finally {
+            if (filter.isRunning() && !engine.isClosed()) {
+                engine.schedule(this);
+            } else {
+                scheduled.set(false);
+                // A start between the check and the reset must not be lost.
+                if (filter.isRunning() && !engine.isClosed()) {
+                    schedule();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until the filter is idle, which after a stop means that its
+     * last round is done.
+     *
+     * @param timeout
+     * @param unit
+     * @return true if the filter became idle within the timeout.
+     * @throws InterruptedException
+     */
+    public boolean awaitIdle(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return awaitIdleUntil(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Wait, polling, until the filter is idle or the deadline passes.
+     */
+    boolean awaitIdleUntil(final long deadlineNanos) throws InterruptedException {
+        while (!isIdle()) {
+            if (System.nanoTime() - deadlineNanos > 0) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+}
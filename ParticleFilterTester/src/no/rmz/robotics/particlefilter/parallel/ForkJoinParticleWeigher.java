@@ -0,0 +1,280 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter.parallel;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import no.rmz.robotics.particlefilter.NavigationMap;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.particlefilter.ParticleWeigher;
+import no.rmz.robotics.particlefilter.SequentialParticleWeigher;
+import no.rmz.robotics.particlefilter.ThreadSafe;
+import no.rmz.robotics.arrays.LogWeights;
+import no.rmz.robotics.sensors.BatchSensorModel;
+import no.rmz.robotics.sensors.LogSensorModel;
+import no.rmz.robotics.sensors.SensorInput;
+import no.rmz.robotics.sensors.SensorModel;
+
+/**
+ * Weighs the particles on several cores.  The store is split into chunks,
+ * every chunk is weighed by SequentialParticleWeigher.weighRange on a
+ * fork/join pool, and the partial sums of the chunks are then added up,
+ * always in the same order, to give the sum used for normalization.
+ * In the log domain the partial sums are logarithms, and are added with
+ * LogWeights.add.
+ *
+ * Only maps and sensor models that implement ThreadSafe are called
+ * concurrently.  If either of them doesn't, the particles are weighed on
+ * the calling thread instead.  Batch sensor models are only asked for a
+ * likelihood table, on the calling thread, and the chunks then share the
+ * table, so those don't have to be thread safe.
+ *
+ * This uses java.util.concurrent, so it is for the host, not the brick.
+ * A weigher that made its own pool shuts it down when it is closed.
+ */
+public final class ForkJoinParticleWeigher implements ParticleWeigher, AutoCloseable {
+
+    /**
+     * Chunks smaller than this aren't worth handing to another thread.
+     */
+    private final static int MIN_CHUNK_SIZE = 4096;
+
+    /**
+     * The number of chunks per thread, more than one so that threads that
+     * finish early can steal work from the others.
+     */
+    private final static int CHUNKS_PER_THREAD = 4;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * True if the pool was made by this weigher, and is shut down when it
+     * is closed.
+     */
+    private final boolean ownsPool;
+
+    /**
+     * Used when the map or the sensor model isn't thread safe, and when
+     * there are too few particles to split.
+     */
+    private final SequentialParticleWeigher sequential = new SequentialParticleWeigher();
+
+    /**
+     * The likelihood table used with batch sensor models.
+     */
+    private final double[] likelihoodTable = new double[BatchSensorModel.TABLE_SIZE];
+
+    /**
+     * Weigh on a pool of our own, with the given number of threads.
+     * @param parallelism
+     */
+    public ForkJoinParticleWeigher(final int parallelism) {
+        this(new ForkJoinPool(parallelism), true);
+    }
+
+    /**
+     * Weigh on a pool owned by someone else, which isn't shut down when
+     * the weigher is closed.
+     * @param pool
+     */
+    public ForkJoinParticleWeigher(final ForkJoinPool pool) {
+        this(pool, false);
+    }
+
+    private ForkJoinParticleWeigher(final ForkJoinPool pool, final boolean ownsPool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool can't be null");
+        }
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Shut down the pool if the weigher made it.  Weighing on a shut
+     * down pool fails.
+     */
+    @Override
+    public void close() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+
+    private int noOfChunks(
+            final ParticleStore store,
+            final NavigationMap navigationMap,
+            final SensorModel sensorModel) {
+        if (!(navigationMap instanceof ThreadSafe)
+                || !(sensorModel instanceof ThreadSafe || sensorModel instanceof BatchSensorModel)) {
+            return 1;
+        }
+        final int size = store.getSize();
+        return Math.min(
+                pool.getParallelism() * CHUNKS_PER_THREAD,
+                (size + MIN_CHUNK_SIZE - 1) / MIN_CHUNK_SIZE);
+    }
+
+    @Override
+    public double weigh(
+            final ParticleStore store,
+            final NavigationMap navigationMap,
+            final SensorModel sensorModel,
+            final SensorInput sensorInput) {
+
+        final int noOfChunks = noOfChunks(store, navigationMap, sensorModel);
+        if (noOfChunks < 2) {
+            return sequential.weigh(store, navigationMap, sensorModel, sensorInput);
+        }
+
+        final double[] partialSums = new double[noOfChunks];
+        pool.invoke(new WeighChunks(
+                store, navigationMap, sensorModel, sensorInput,
+                likelihoodTable(sensorModel, sensorInput, false),
+                false, partialSums, 0, noOfChunks));
+
+        double sumOfWeights = 0;
+        for (final double partialSum : partialSums) {
+            sumOfWeights += partialSum;
+        }
+        return sumOfWeights;
+    }
+
+    @Override
+    public double weighLog(
+            final ParticleStore store,
+            final NavigationMap navigationMap,
+            final LogSensorModel sensorModel,
+            final SensorInput sensorInput) {
+
+        final int noOfChunks = noOfChunks(store, navigationMap, sensorModel);
+        if (noOfChunks < 2) {
+            return sequential.weighLog(store, navigationMap, sensorModel, sensorInput);
+        }
+
+        final double[] partialLogSums = new double[noOfChunks];
+        pool.invoke(new WeighChunks(
+                store, navigationMap, sensorModel, sensorInput,
+                likelihoodTable(sensorModel, sensorInput, true),
+                true, partialLogSums, 0, noOfChunks));
+
+        double logSumOfWeights = Double.NEGATIVE_INFINITY;
+        for (final double partialLogSum : partialLogSums) {
+            logSumOfWeights = LogWeights.add(logSumOfWeights, partialLogSum);
+        }
+        return logSumOfWeights;
+    }
+
+    /**
+     * Fill the likelihood table if the sensor model is a batch model.
+     * @return the table, or null if the model isn't a batch model.
+     */
+    private double[] likelihoodTable(
+            final SensorModel sensorModel,
+            final SensorInput sensorInput,
+            final boolean log) {
+        if (!(sensorModel instanceof BatchSensorModel)) {
+            return null;
+        }
+        SequentialParticleWeigher.fillLikelihoodTable(
+                (BatchSensorModel) sensorModel, sensorInput, log, likelihoodTable);
+        return likelihoodTable;
+    }
+
+    /**
+     * Weigh the chunks from firstChunk (inclusive) to lastChunk (exclusive),
+     * splitting in two until there is only one chunk left.
+     */
+    @SuppressWarnings("serial")
+    private static final class WeighChunks extends RecursiveAction {
+
+        private final ParticleStore store;
+        private final NavigationMap navigationMap;
+        private final SensorModel sensorModel;
+        private final SensorInput sensorInput;
+        private final double[] likelihoodTable;
+        private final boolean log;
+        private final double[] partialSums;
+        private final int firstChunk;
+        private final int lastChunk;
+
+        WeighChunks(
+                final ParticleStore store,
+                final NavigationMap navigationMap,
+                final SensorModel sensorModel,
+                final SensorInput sensorInput,
+                final double[] likelihoodTable,
+                final boolean log,
+                final double[] partialSums,
+                final int firstChunk,
+                final int lastChunk) {
+            this.store = store;
+            this.navigationMap = navigationMap;
+            this.sensorModel = sensorModel;
+            this.sensorInput = sensorInput;
+            this.likelihoodTable = likelihoodTable;
+            this.log = log;
+            this.partialSums = partialSums;
+            this.firstChunk = firstChunk;
+            this.lastChunk = lastChunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastChunk - firstChunk > 1) {
+                final int middle = firstChunk + (lastChunk - firstChunk) / 2;
+                invokeAll(
+                        new WeighChunks(store, navigationMap, sensorModel, sensorInput,
+                                        likelihoodTable, log, partialSums, firstChunk, middle),
+                        new WeighChunks(store, navigationMap, sensorModel, sensorInput,
+                                        likelihoodTable, log, partialSums, middle, lastChunk));
+                return;
+            }
+
+            final int size = store.getSize();
+            final int noOfChunks = partialSums.length;
+            final int from = (int) ((long) size * firstChunk / noOfChunks);
+            final int to = (int) ((long) size * (firstChunk + 1) / noOfChunks);
+            final Particle cursor = SequentialParticleWeigher.newCursor();
+            final SensorInput expected = SequentialParticleWeigher.newExpectedBuffer(navigationMap);
+            if (likelihoodTable != null && log) {
+                partialSums[firstChunk] = SequentialParticleWeigher.weighLogRangeByTable(
+                        store, from, to,
+                        navigationMap, likelihoodTable,
+                        cursor, expected);
+            } else if (likelihoodTable != null) {
+                partialSums[firstChunk] = SequentialParticleWeigher.weighRangeByTable(
+                        store, from, to,
+                        navigationMap, likelihoodTable,
+                        cursor, expected);
+            } else if (log) {
+                partialSums[firstChunk] = SequentialParticleWeigher.weighLogRange(
+                        store, from, to,
+                        navigationMap, (LogSensorModel) sensorModel, sensorInput,
+                        cursor, expected);
+            } else {
+                partialSums[firstChunk] = SequentialParticleWeigher.weighRange(
+                        store, from, to,
+                        navigationMap, sensorModel, sensorInput,
+                        cursor, expected);
+            }
+        }
+    }
+}
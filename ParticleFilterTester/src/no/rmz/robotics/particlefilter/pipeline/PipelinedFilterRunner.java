@@ -0,0 +1,321 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter.pipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import no.rmz.robotics.particlefilter.ParticleFieldConsumer;
+import no.rmz.robotics.particlefilter.ParticleFilter;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.sensors.BufferedSensor;
+import no.rmz.robotics.sensors.Sensor;
+import no.rmz.robotics.sensors.SensorInput;
+
+/**
+ * Runs a filter as a pipeline of three threads instead of mainLoop's
+ * one.  A sensing thread reads the sensor, a computing thread does the
+ * rounds (ParticleFilter.estimate), and a delivering thread hands the
+ * results to the filter's consumer.  While round k is computed, reading
+ * k + 1 is made and the result of round k - 1 is delivered, so neither
+ * the CPU waits for sensor I/O nor the sensor for the CPU.
+ *
+ * The stages are connected by bounded queues, and the buffers passing
+ * through them are recycled, so the pipeline allocates nothing in steady
+ * state when the sensor is a BufferedSensor.
+ *
+ * <h3>Latency contract</h3>
+ * With a reading queue of capacity R and a delivery queue of capacity D:
+ * <ul>
+ * <li>No reading is ever dropped, since every reading carries the
+ *     movement since the one before it.  When the computing thread falls
+ *     behind, the sensing thread blocks once R readings are waiting, so
+ *     a reading is at most R rounds old when its round starts.</li>
+ * <li>When the consumer falls behind, the computing thread blocks once D
+ *     results are waiting, so a result is delivered at most D rounds
+ *     after it was computed.</li>
+ * <li>In the steady state of a compute bound pipeline, a reading's
+ *     result is therefore delivered at most R + D + 1 round times after
+ *     the reading was made.  With the default capacities of one that is
+ *     three round times, against one for mainLoop, in exchange for
+ *     a round time set by the slowest stage instead of the sum of them
+ *     all.</li>
+ * <li>Results are delivered in the order of the readings.</li>
+ * <li>The pool given to the consumer is backed by a copy of the
+ *     particles, valid until consumeParticles returns, after which the
+ *     copy is reused.</li>
+ * </ul>
+ *
+ * The filter must not be run by anything else at the same time.  This
+ * uses threads and java.util.concurrent, so it is for the host, not the
+ * brick.
+ */
+public final class PipelinedFilterRunner implements AutoCloseable {
+
+    private final ParticleFilter filter;
+
+    private final Sensor sensor;
+
+    private final ParticleFieldConsumer consumer;
+
+    /**
+     * Readings waiting for their round.
+     */
+    private final BlockingQueue<SensorInput> readings;
+
+    /**
+     * Sensor input buffers not in use, for a BufferedSensor.
+     */
+    private final BlockingQueue<SensorInput> freeInputs;
+
+    /**
+     * Results waiting to be delivered.
+     */
+    private final BlockingQueue<ParticleStore> deliveries;
+
+    /**
+     * Result buffers not in use.
+     */
+    private final BlockingQueue<ParticleStore> freeStores;
+
+    private final AtomicLong noOfReadings = new AtomicLong(0);
+
+    private final AtomicLong noOfRounds = new AtomicLong(0);
+
+    private final AtomicLong noOfDeliveries = new AtomicLong(0);
+
+    /**
+     * What made the pipeline stop, or null.
+     */
+    private volatile Throwable failure;
+
+    private Thread[] threads;
+
+    /**
+     * Create a runner with room for one waiting reading and one waiting
+     * result.
+     *
+     * @param filter the filter to run.
+     */
+    public PipelinedFilterRunner(final ParticleFilter filter) {
+        this(filter, 1, 1);
+    }
+
+    /**
+     * @param filter the filter to run.
+     * @param readingQueueCapacity the most readings waiting for their
+     *        round, see the latency contract.
+     * @param deliveryQueueCapacity the most results waiting to be
+     *        delivered, see the latency contract.
+     */
+    public PipelinedFilterRunner(
+            final ParticleFilter filter,
+            final int readingQueueCapacity,
+            final int deliveryQueueCapacity) {
+        if (filter == null) {
+            throw new IllegalArgumentException("filter can't be null");
+        }
+        if (readingQueueCapacity < 1) {
+            throw new IllegalArgumentException("readingQueueCapacity must be positive, was: "
+                    + readingQueueCapacity);
+        }
+        if (deliveryQueueCapacity < 1) {
+            throw new IllegalArgumentException("deliveryQueueCapacity must be positive, was: "
+                    + deliveryQueueCapacity);
+        }
+        this.filter = filter;
+        this.sensor = filter.getSensor();
+        this.consumer = filter.getParticleFieldConsumer();
+
+        // One buffer being filled and one being used, besides the queued.
+        readings = new ArrayBlockingQueue<SensorInput>(readingQueueCapacity);
+        freeInputs = new ArrayBlockingQueue<SensorInput>(readingQueueCapacity + 2);
+        if (sensor instanceof BufferedSensor) {
+            for (int i = 0; i < readingQueueCapacity + 2; i++) {
+                freeInputs.add(new SensorInput());
+            }
+        }
+        deliveries = new ArrayBlockingQueue<ParticleStore>(deliveryQueueCapacity);
+        freeStores = new ArrayBlockingQueue<ParticleStore>(deliveryQueueCapacity + 2);
+        final int capacity = filter.getNewParticleStore().getCapacity();
+        for (int i = 0; i < deliveryQueueCapacity + 2; i++) {
+            freeStores.add(new ParticleStore("delivery" + i, capacity, 1.0));
+        }
+    }
+
+    /**
+     * Start the three threads.
+     */
+    public synchronized void start() {
+        if (threads != null) {
+            throw new IllegalStateException("Already started");
+        }
+        filter.setRunStatus(true);
+        threads = new Thread[]{
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    senseLoop();
+                }
+            }, "pipeline-sense"),
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    computeLoop();
+                }
+            }, "pipeline-compute"),
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    deliverLoop();
+                }
+            }, "pipeline-deliver")
+        };
+        for (final Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the pipeline and wait for its threads to finish.  Readings
+     * and results still in the queues are thrown away.
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void stop() throws InterruptedException {
+        filter.stop();
+        if (threads == null) {
+            return;
+        }
+        for (final Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Like stop, but if the calling thread is interrupted this stops
+     * waiting for the threads and returns with the interrupt status set.
+     * Calling stop again waits for them.
+     */
+    @Override
+    public void close() {
+        try {
+            stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return filter.isRunning();
+    }
+
+    public long getNoOfReadings() {
+        return noOfReadings.get();
+    }
+
+    public long getNoOfRounds() {
+        return noOfRounds.get();
+    }
+
+    public long getNoOfDeliveries() {
+        return noOfDeliveries.get();
+    }
+
+    /**
+     * @return what a stage threw that stopped the pipeline, or null.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    private void senseLoop() {
+        try {
+            while (filter.isRunning()) {
+                final SensorInput input;
+                if (sensor instanceof BufferedSensor) {
+                    input = freeInputs.take();
+                    ((BufferedSensor) sensor).sense(input);
+                } else {
+                    input = sensor.sense();
+                }
+                readings.put(input);
+                noOfReadings.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            // Stopped.
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    private void computeLoop() {
+        try {
+            while (filter.isRunning()) {
+                final SensorInput input = readings.take();
+                filter.estimate(input);
+                if (sensor instanceof BufferedSensor) {
+                    freeInputs.put(input);
+                }
+                noOfRounds.incrementAndGet();
+
+                // The filter overwrites its stores in the next round, so
+                // the consumer gets a copy, with any counted entries
+                // written out as separate particles.
+                final ParticleStore result = freeStores.take();
+                filter.getNewParticleStore().expandTo(result);
+                deliveries.put(result);
+            }
+        } catch (InterruptedException e) {
+            // Stopped.
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    private void deliverLoop() {
+        try {
+            while (filter.isRunning()) {
+                final ParticleStore result = deliveries.take();
+                consumer.consumeParticles(result.asPool());
+                freeStores.put(result);
+                noOfDeliveries.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            // Stopped.
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Stop every stage after one of them failed, errors included.  The
+     * other stages may be blocked on a queue, so they are interrupted.
+     */
+    private void fail(final Throwable e) {
+        failure = e;
+        filter.stop();
+        for (final Thread thread : threads) {
+            if (thread != Thread.currentThread()) {
+                thread.interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter.simd;
+
+import no.rmz.robotics.particlefilter.ColumnKernels;
+import no.rmz.robotics.particlefilter.ScalarColumnKernels;
+
+/**
+ * Picks the fastest column kernels the running JVM supports.  The vector
+ * kernels live in the optional ParticleFilterVector module, so that this
+ * project builds and runs without the incubating Vector API.
+ */
+public final class ColumnKernelsFactory {
+
+    private static final String VECTOR_KERNELS =
+            "no.rmz.robotics.particlefilter.simd.VectorColumnKernels";
+
+    /**
+     *  It should't be possible to instantiate this class.
+     */
+    private ColumnKernelsFactory() {
+    }
+
+    /**
+     * The Vector API kernels if the ParticleFilterVector jar is on the
+     * classpath, the JVM was started with --add-modules
+     * jdk.incubator.vector and the CPU has SIMD lanes for doubles,
+     * otherwise the scalar kernels.
+     *
+     * @return the kernels.
+     */
+    public static ColumnKernels best() {
+        try {
+            // Loaded by name, since it may be missing and can't be
+            // loaded without the module.
+            return (ColumnKernels) Class.forName(VECTOR_KERNELS)
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (LinkageError e) {
+            return new ScalarColumnKernels();
+        } catch (ReflectiveOperationException e) {
+            return new ScalarColumnKernels();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter.telemetry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.telemetry.BeliefFrameEncoder;
+import no.rmz.robotics.telemetry.BeliefFrameFormat;
+import no.rmz.robotics.telemetry.FrameTransport;
+
+/**
+ * Sends belief frames over a channel in batches, so that a link with a
+ * high cost per write, like Bluetooth, gets few large writes instead of
+ * many small ones.  Every frame is preceded by its length as a four byte
+ * big endian int.
+ *
+ * A batch is written when the next frame wouldn't fit in the batch
+ * buffer, when it holds maxFramesPerBatch frames, or on flush().
+ * Frames can be encoded straight into the batch buffer with
+ * send(encoder, store), without any copying.
+ */
+public final class BatchingFrameTransport implements FrameTransport, Closeable {
+
+    /**
+     * The size of the length in front of every frame.
+     */
+    public static final int LENGTH_PREFIX_SIZE = 4;
+
+    private final WritableByteChannel channel;
+
+    private final ByteBuffer batch;
+
+    private final int maxFramesPerBatch;
+
+    private int framesInBatch = 0;
+
+    private long noOfFrames = 0;
+
+    private long noOfBytes = 0;
+
+    private long noOfWrites = 0;
+
+    /**
+     * @param channel where the batches are written.
+     * @param batchCapacity the size of the batch buffer, in bytes.
+     * @param maxFramesPerBatch the most frames held back.
+     */
+    public BatchingFrameTransport(
+            final WritableByteChannel channel,
+            final int batchCapacity,
+            final int maxFramesPerBatch) {
+        if (channel == null) {
+            throw new IllegalArgumentException("channel can't be null");
+        }
+        if (batchCapacity < LENGTH_PREFIX_SIZE + BeliefFrameFormat.HEADER_SIZE) {
+            throw new IllegalArgumentException("batchCapacity is too small: " + batchCapacity);
+        }
+        if (maxFramesPerBatch < 1) {
+            throw new IllegalArgumentException("maxFramesPerBatch must be positive, was: " + maxFramesPerBatch);
+        }
+        this.channel = channel;
+        this.batch = ByteBuffer.allocate(batchCapacity);
+        this.maxFramesPerBatch = maxFramesPerBatch;
+    }
+
+    @Override
+    public void send(final byte[] frame, final int offset, final int length) throws IOException {
+        if (LENGTH_PREFIX_SIZE + length > batch.remaining()) {
+            flush();
+        }
+        if (LENGTH_PREFIX_SIZE + length > batch.capacity()) {
+            // Too large to batch, send it on its own.
+            final ByteBuffer prefix = ByteBuffer.allocate(LENGTH_PREFIX_SIZE);
+            prefix.putInt(length).flip();
+            writeFully(prefix);
+            writeFully(ByteBuffer.wrap(frame, offset, length));
+            frameAdded(length);
+            return;
+        }
+        batch.putInt(length);
+        batch.put(frame, offset, length);
+        frameAdded(length);
+        if (framesInBatch >= maxFramesPerBatch) {
+            flush();
+        }
+    }
+
+    /**
+     * Encode the particles in a store as a frame, straight into the
+     * batch buffer, and send it.
+     *
+     * @param encoder the encoder.
+     * @param store the particles.
+     * @throws IOException if the link failed.
+     */
+    public void send(final BeliefFrameEncoder encoder, final ParticleStore store) throws IOException {
+        final int maxSize = BeliefFrameFormat.getMaxFrameSize(store.getNoOfRepresentedParticles());
+        if (LENGTH_PREFIX_SIZE + maxSize > batch.capacity()) {
+            final byte[] frame = new byte[maxSize];
+            send(frame, 0, encoder.encode(store, frame, 0));
+            return;
+        }
+        if (LENGTH_PREFIX_SIZE + maxSize > batch.remaining()) {
+            flush();
+        }
+        final int start = batch.position();
+        final int length = encoder.encode(
+                store, batch.array(), batch.arrayOffset() + start + LENGTH_PREFIX_SIZE);
+        batch.putInt(start, length);
+        batch.position(start + LENGTH_PREFIX_SIZE + length);
+        frameAdded(length);
+        if (framesInBatch >= maxFramesPerBatch) {
+            flush();
+        }
+    }
+
+    private void frameAdded(final int length) {
+        framesInBatch++;
+        noOfFrames++;
+        noOfBytes += LENGTH_PREFIX_SIZE + length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (batch.position() == 0) {
+            return;
+        }
+        batch.flip();
+        writeFully(batch);
+        batch.clear();
+        framesInBatch = 0;
+    }
+
+    private void writeFully(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        noOfWrites++;
+    }
+
+    /**
+     * Flush, then close the channel.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return the number of frames sent or queued.
+     */
+    public long getNoOfFrames() {
+        return noOfFrames;
+    }
+
+    /**
+     * @return the number of bytes sent or queued, length prefixes
+     *         included.
+     */
+    public long getNoOfBytes() {
+        return noOfBytes;
+    }
+
+    /**
+     * @return the number of writes to the channel.
+     */
+    public long getNoOfWrites() {
+        return noOfWrites;
+    }
+
+    /**
+     * @return the average number of bytes per frame, length prefixes
+     *         included.
+     */
+    public double getBytesPerFrame() {
+        return noOfFrames == 0 ? 0.0 : (double) noOfBytes / noOfFrames;
+    }
+}
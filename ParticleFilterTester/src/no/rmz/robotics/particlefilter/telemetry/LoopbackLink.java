@@ -0,0 +1,233 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter.telemetry;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.telemetry.BeliefFrameDecoder;
+import no.rmz.robotics.telemetry.BeliefFrameFormat;
+
+/**
+ * A stand-in for the Bluetooth link between the robot and the laptop: a
+ * TCP connection over the loopback interface, with a batching transport
+ * at the robot's end and a receiving thread decoding the frames at the
+ * laptop's end.  It counts what passes through, so the bytes per frame
+ * and the frames per second of the telemetry can be measured without
+ * a robot.
+ */
+public final class LoopbackLink implements Closeable {
+
+    private final SocketChannel robotEnd;
+
+    private final SocketChannel laptopEnd;
+
+    private final BatchingFrameTransport transport;
+
+    private final BeliefFrameDecoder decoder;
+
+    /**
+     * The particles of the last frame received.
+     */
+    private final ParticleStore received;
+
+    private final Thread receiver;
+
+    private volatile long noOfFramesReceived = 0;
+
+    private volatile long noOfBytesReceived = 0;
+
+    private volatile int lastSequenceNumber = -1;
+
+    private volatile Exception failure;
+
+    private final long startNanos;
+
+    /**
+     * @param capacity the most particles in a frame.
+     * @param batchCapacity the size of the transport's batch buffer.
+     * @param maxFramesPerBatch the most frames the transport holds back.
+     * @throws IOException if the connection couldn't be made.
+     */
+    public LoopbackLink(
+            final int capacity,
+            final int batchCapacity,
+            final int maxFramesPerBatch) throws IOException {
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            robotEnd = SocketChannel.open(server.getLocalAddress());
+            laptopEnd = server.accept();
+        } finally {
+            server.close();
+        }
+        robotEnd.socket().setTcpNoDelay(true);
+        transport = new BatchingFrameTransport(robotEnd, batchCapacity, maxFramesPerBatch);
+        decoder = new BeliefFrameDecoder(capacity);
+        received = new ParticleStore("received", capacity, 1.0);
+        startNanos = System.nanoTime();
+        receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive(capacity);
+            }
+        }, "loopback-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * @return the robot's end of the link.
+     */
+    public BatchingFrameTransport getTransport() {
+        return transport;
+    }
+
+    private void receive(final int capacity) {
+        final ByteBuffer prefix = ByteBuffer.allocate(BatchingFrameTransport.LENGTH_PREFIX_SIZE);
+        final ByteBuffer frame = ByteBuffer.allocate(BeliefFrameFormat.getMaxFrameSize(capacity));
+        try {
+            while (true) {
+                prefix.clear();
+                if (!readFully(prefix)) {
+                    return;
+                }
+                final int length = prefix.getInt(0);
+                if (length < 0 || length > frame.capacity()) {
+                    throw new IOException("Bad frame length " + length);
+                }
+                frame.clear().limit(length);
+                if (!readFully(frame)) {
+                    throw new EOFException("The link closed in the middle of a frame");
+                }
+                final int sequence = decoder.decode(frame.array(), 0, length, received);
+                noOfBytesReceived += BatchingFrameTransport.LENGTH_PREFIX_SIZE + length;
+                lastSequenceNumber = sequence;
+                noOfFramesReceived++;
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * @return false on the end of the stream before anything was read.
+     */
+    private boolean readFully(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (laptopEnd.read(buffer) < 0) {
+                if (buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("The link closed in the middle of a read");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait until a number of frames have been received.
+     *
+     * @param noOfFrames
+     * @param timeout
+     * @param unit
+     * @return true if they were received within the timeout.
+     * @throws InterruptedException
+     */
+    public boolean awaitFrames(final long noOfFrames, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (noOfFramesReceived < noOfFrames) {
+            if (failure != null || System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    public long getNoOfFramesReceived() {
+        return noOfFramesReceived;
+    }
+
+    public long getNoOfBytesReceived() {
+        return noOfBytesReceived;
+    }
+
+    /**
+     * @return the sequence number of the last frame received, -1 if none.
+     */
+    public int getLastSequenceNumber() {
+        return lastSequenceNumber;
+    }
+
+    /**
+     * The particles of the last frame received.  Only safe to read when
+     * no frames are arriving, for instance after awaitFrames.
+     *
+     * @return the decoded particles.
+     */
+    public ParticleStore getReceivedParticles() {
+        return received;
+    }
+
+    /**
+     * @return the decoder, for its counts of key and delta frames.
+     */
+    public BeliefFrameDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * @return what stopped the receiver, or null.
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return frames received per second since the link was made.
+     */
+    public double getFramesPerSecond() {
+        final long elapsed = System.nanoTime() - startNanos;
+        return elapsed > 0 ? noOfFramesReceived * 1e9 / elapsed : 0.0;
+    }
+
+    /**
+     * Flush and close the robot's end, then wait for the receiver to
+     * read what's left.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            transport.close();
+            receiver.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            laptopEnd.close();
+        }
+    }
+}
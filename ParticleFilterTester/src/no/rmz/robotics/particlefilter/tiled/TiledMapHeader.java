@@ -0,0 +1,145 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter.tiled;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The header of a tiled map file.  A tiled map file is a raster of
+ * brightness values, one byte per cell, cut into square tiles so that the
+ * cells that are close on the map are also close in the file:
+ *
+ * <pre>
+ *   offset  size  content
+ *        0     4  magic number, "NXTM"
+ *        4     4  format version, currently 1
+ *        8     8  x coordinate of the lower left corner of the map
+ *       16     8  y coordinate of the lower left corner of the map
+ *       24     8  resolution, the width and height of a cell in map units
+ *       32     4  number of columns of cells
+ *       36     4  number of rows of cells
+ *       40     4  tile size, the number of cells along the side of a tile
+ *       44     1  brightness outside of the map
+ *       45     3  padding, zero
+ *       48        the tiles, row by row, each tile being its cells row by
+ *                 row.  Tiles on the right and top edges are padded to
+ *                 full size.
+ * </pre>
+ *
+ * All numbers are big endian.
+ */
+final class TiledMapHeader {
+
+    static final int MAGIC = 0x4E58544D;
+
+    static final int VERSION = 1;
+
+    static final int SIZE = 48;
+
+    final double minX;
+    final double minY;
+    final double resolution;
+    final int columns;
+    final int rows;
+    final int tileSize;
+    final byte outsideBrightness;
+
+    TiledMapHeader(
+            final double minX,
+            final double minY,
+            final double resolution,
+            final int columns,
+            final int rows,
+            final int tileSize,
+            final byte outsideBrightness) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("resolution must be positive, was: " + resolution);
+        }
+        if (columns < 1 || rows < 1) {
+            throw new IllegalArgumentException("The map can't be empty");
+        }
+        if (tileSize < 1 || (long) tileSize * tileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Illegal tile size: " + tileSize);
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.resolution = resolution;
+        this.columns = columns;
+        this.rows = rows;
+        this.tileSize = tileSize;
+        this.outsideBrightness = outsideBrightness;
+    }
+
+    int getTileColumns() {
+        return (columns + tileSize - 1) / tileSize;
+    }
+
+    int getTileRows() {
+        return (rows + tileSize - 1) / tileSize;
+    }
+
+    int getTileBytes() {
+        return tileSize * tileSize;
+    }
+
+    long getFileSize() {
+        return SIZE + (long) getTileColumns() * getTileRows() * getTileBytes();
+    }
+
+    void write(final ByteBuffer buffer) {
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putDouble(minX);
+        buffer.putDouble(minY);
+        buffer.putDouble(resolution);
+        buffer.putInt(columns);
+        buffer.putInt(rows);
+        buffer.putInt(tileSize);
+        buffer.put(outsideBrightness);
+        buffer.put((byte) 0);
+        buffer.put((byte) 0);
+        buffer.put((byte) 0);
+    }
+
+    static TiledMapHeader read(final ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < SIZE) {
+            throw new IOException("Map file too short for a header");
+        }
+        final int magic = buffer.getInt();
+        if (magic != MAGIC) {
+            throw new IOException("Not a tiled map file, magic was " + Integer.toHexString(magic));
+        }
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported tiled map version: " + version);
+        }
+        final double minX = buffer.getDouble();
+        final double minY = buffer.getDouble();
+        final double resolution = buffer.getDouble();
+        final int columns = buffer.getInt();
+        final int rows = buffer.getInt();
+        final int tileSize = buffer.getInt();
+        final byte outsideBrightness = buffer.get();
+        buffer.position(buffer.position() + 3);
+        try {
+            return new TiledMapHeader(
+                    minX, minY, resolution, columns, rows, tileSize, outsideBrightness);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt tiled map header: " + e.getMessage());
+        }
+    }
+}
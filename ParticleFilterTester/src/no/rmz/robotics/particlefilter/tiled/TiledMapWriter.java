@@ -0,0 +1,119 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter.tiled;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import no.rmz.robotics.particlefilter.NavigationMap;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
+import no.rmz.robotics.particlefilter.geometry.XYPair;
+import no.rmz.robotics.sensors.SensorInput;
+
+/**
+ * Writes tiled map files, see TiledMapHeader for the format.  The source
+ * map is sampled in the middle of every cell, one tile at a time, so only
+ * a single tile is ever held in memory however large the map is.
+ */
+public final class TiledMapWriter {
+
+    /**
+     *  It should't be possible to instantiate this class.
+     */
+    private TiledMapWriter() {
+    }
+
+    /**
+     * Rasterize a map into a tiled map file.
+     *
+     * @param file The file to write, overwritten if it exists.
+     * @param source The map to rasterize.
+     * @param minX The lower left corner of the area to rasterize.
+     * @param minY
+     * @param maxX The upper right corner of the area to rasterize.
+     * @param maxY
+     * @param resolution The width and height of a cell, in map units.
+     * @param tileSize The number of cells along the side of a tile.
+     * @param outsideBrightness The brightness outside of the map.
+     * @throws IOException
+     */
+    public static void write(
+            final File file,
+            final NavigationMap source,
+            final double minX,
+            final double minY,
+            final double maxX,
+            final double maxY,
+            final double resolution,
+            final int tileSize,
+            final byte outsideBrightness) throws IOException {
+
+        final double noOfColumns = Math.ceil((maxX - minX) / resolution);
+        final double noOfRows = Math.ceil((maxY - minY) / resolution);
+        if (noOfColumns > Integer.MAX_VALUE || noOfRows > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many cells: " + noOfColumns + " x " + noOfRows);
+        }
+        final TiledMapHeader header = new TiledMapHeader(
+                minX, minY, resolution,
+                (int) noOfColumns, (int) noOfRows,
+                tileSize, outsideBrightness);
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            final FileChannel channel = raf.getChannel();
+
+            final ByteBuffer headerBuffer = ByteBuffer.allocate(TiledMapHeader.SIZE);
+            header.write(headerBuffer);
+            headerBuffer.flip();
+            while (headerBuffer.hasRemaining()) {
+                channel.write(headerBuffer);
+            }
+
+            final Particle probe =
+                    new Particle(new XYPair(0.0, 0.0), new PolarCoordinate(0.0, 0.0), 1.0);
+            final ByteBuffer tile = ByteBuffer.allocate(header.getTileBytes());
+            for (int tileRow = 0; tileRow < header.getTileRows(); tileRow++) {
+                for (int tileColumn = 0; tileColumn < header.getTileColumns(); tileColumn++) {
+                    tile.clear();
+                    for (int r = 0; r < tileSize; r++) {
+                        final int row = tileRow * tileSize + r;
+                        probe.getPosition().setY(minY + (row + 0.5) * resolution);
+                        for (int c = 0; c < tileSize; c++) {
+                            final int column = tileColumn * tileSize + c;
+                            if (row < header.rows && column < header.columns) {
+                                probe.getPosition().setX(minX + (column + 0.5) * resolution);
+                                final SensorInput expected = source.getExpectedSensorValue(probe);
+                                tile.put(expected.getBrightness());
+                            } else {
+                                tile.put(outsideBrightness);
+                            }
+                        }
+                    }
+                    tile.flip();
+                    while (tile.hasRemaining()) {
+                        channel.write(tile);
+                    }
+                }
+            }
+        } finally {
+            raf.close();
+        }
+    }
+}
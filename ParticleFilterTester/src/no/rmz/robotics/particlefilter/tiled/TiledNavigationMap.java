@@ -0,0 +1,257 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter.tiled;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import no.rmz.robotics.particlefilter.BufferedNavigationMap;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.geometry.XYPair;
+import no.rmz.robotics.sensors.SensorInput;
+
+/**
+ * A navigation map read from a tiled map file (see TiledMapHeader), for
+ * maps too large to keep on the heap.
+ *
+ * Opening the map only reads the header and memory maps the file, so it
+ * takes the same short time however large the map is.  Tiles are copied
+ * out of the mapped file the first time a particle lands on them, and the
+ * most recently used ones are kept in a cache of bounded size.  Evicted
+ * tiles' arrays are reused, so the heap used by the map stays at the size
+ * of the cache.
+ *
+ * The cache is not synchronized, so a map must only be used by one thread
+ * at a time, and doesn't implement ThreadSafe.
+ */
+public final class TiledNavigationMap implements BufferedNavigationMap, Closeable {
+
+    /**
+     * A single mapping can be at most this large, larger files are mapped
+     * as several segments, each holding a whole number of tiles.
+     */
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+    private final RandomAccessFile file;
+
+    private final TiledMapHeader header;
+
+    private final double scale;
+
+    private final int tileColumns;
+
+    private final int tileBytes;
+
+    private final int tilesPerSegment;
+
+    private final MappedByteBuffer[] segments;
+
+    private final int cacheCapacity;
+
+    /**
+     * The cached tiles, least recently used first.
+     */
+    private final LinkedHashMap<Integer, byte[]> cache;
+
+    /**
+     * The most recently used tile, checked before the cache since
+     * consecutive particles tend to be in the same tile.
+     */
+    private int lastTileIndex = -1;
+    private byte[] lastTile;
+
+    /**
+     * The array of the most recently evicted tile, reused for the next
+     * tile that is loaded.
+     */
+    private byte[] spare;
+
+    private long noOfTileLoads = 0;
+
+    private final SensorInput[] inputs = new SensorInput[256];
+
+    /**
+     * Open a tiled map file.
+     *
+     * @param mapFile The file to open.
+     * @param cacheCapacity The maximum number of tiles to keep on the heap.
+     * @throws IOException if the file can't be read or isn't a tiled map.
+     */
+    public TiledNavigationMap(final File mapFile, final int cacheCapacity) throws IOException {
+        if (cacheCapacity < 1) {
+            throw new IllegalArgumentException("cacheCapacity must be positive, was: " + cacheCapacity);
+        }
+        this.cacheCapacity = cacheCapacity;
+        this.file = new RandomAccessFile(mapFile, "r");
+        try {
+            final FileChannel channel = file.getChannel();
+            final ByteBuffer headerBuffer = ByteBuffer.allocate(TiledMapHeader.SIZE);
+            while (headerBuffer.hasRemaining() && channel.read(headerBuffer) >= 0) {
+            }
+            headerBuffer.flip();
+            header = TiledMapHeader.read(headerBuffer);
+            if (channel.size() < header.getFileSize()) {
+                throw new IOException("Map file is truncated, expected "
+                        + header.getFileSize() + " bytes, was " + channel.size());
+            }
+
+            scale = 1.0 / header.resolution;
+            tileColumns = header.getTileColumns();
+            tileBytes = header.getTileBytes();
+            tilesPerSegment = (int) Math.min(
+                    MAX_SEGMENT_SIZE / tileBytes,
+                    (long) tileColumns * header.getTileRows());
+
+            final long noOfTiles = (long) tileColumns * header.getTileRows();
+            final int noOfSegments = (int) ((noOfTiles + tilesPerSegment - 1) / tilesPerSegment);
+            segments = new MappedByteBuffer[noOfSegments];
+            for (int s = 0; s < noOfSegments; s++) {
+                final long firstTile = (long) s * tilesPerSegment;
+                final long tilesInSegment = Math.min(tilesPerSegment, noOfTiles - firstTile);
+                segments[s] = channel.map(
+                        FileChannel.MapMode.READ_ONLY,
+                        TiledMapHeader.SIZE + firstTile * tileBytes,
+                        tilesInSegment * tileBytes);
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+
+        cache = new LinkedHashMap<Integer, byte[]>(cacheCapacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Integer, byte[]> eldest) {
+                if (size() > TiledNavigationMap.this.cacheCapacity) {
+                    spare = eldest.getValue();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = new SensorInput((byte) i, null);
+        }
+    }
+
+    public int getColumns() {
+        return header.columns;
+    }
+
+    public int getRows() {
+        return header.rows;
+    }
+
+    /**
+     * The number of tiles copied out of the file so far, a measure of how
+     * well the cache works.
+     * @return
+     */
+    public long getNoOfTileLoads() {
+        return noOfTileLoads;
+    }
+
+    /**
+     * The number of tiles currently held in the cache.
+     * @return
+     */
+    public int getNoOfCachedTiles() {
+        return cache.size();
+    }
+
+    /**
+     * The brightness at a position, or the outside brightness from the
+     * header if the position is outside of the map.
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    public byte getBrightness(final double x, final double y) {
+        final double fx = (x - header.minX) * scale;
+        final double fy = (y - header.minY) * scale;
+        if (!(fx >= 0 && fx < header.columns && fy >= 0 && fy < header.rows)) {
+            return header.outsideBrightness;
+        }
+
+        final int column = (int) fx;
+        final int row = (int) fy;
+        final int tileSize = header.tileSize;
+        final int tileIndex = (row / tileSize) * tileColumns + (column / tileSize);
+        final byte[] tile = getTile(tileIndex);
+        return tile[(row % tileSize) * tileSize + (column % tileSize)];
+    }
+
+    private byte[] getTile(final int tileIndex) {
+        if (tileIndex == lastTileIndex) {
+            return lastTile;
+        }
+
+        final Integer key = Integer.valueOf(tileIndex);
+        byte[] tile = cache.get(key);
+        if (tile == null) {
+            tile = loadTile(tileIndex);
+            cache.put(key, tile);
+        }
+        lastTileIndex = tileIndex;
+        lastTile = tile;
+        return tile;
+    }
+
+    private byte[] loadTile(final int tileIndex) {
+        final byte[] tile;
+        if (spare != null) {
+            tile = spare;
+            spare = null;
+        } else {
+            tile = new byte[tileBytes];
+        }
+
+        final MappedByteBuffer segment = segments[tileIndex / tilesPerSegment];
+        segment.position((tileIndex % tilesPerSegment) * tileBytes);
+        segment.get(tile);
+        noOfTileLoads++;
+        return tile;
+    }
+
+    @Override
+    public SensorInput getExpectedSensorValue(final Particle p) {
+        final XYPair position = p.getPosition();
+        return inputs[getBrightness(position.getX(), position.getY()) & 0xff];
+    }
+
+    @Override
+    public void getExpectedSensorValue(final Particle p, final SensorInput destination) {
+        final XYPair position = p.getPosition();
+        destination.setBrightness(getBrightness(position.getX(), position.getY()));
+    }
+
+    /**
+     * Close the file.  The mapped tiles stay readable until the map is
+     * garbage collected.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -100,4 +100,65 @@ public class ArraysTester {
             assertTrue("expected that cmp <= 0", cmp <= 0);
         }
     }
+
+    @Test
+    public void radixSortRandomizedDoubles() {
+        final int siz = 1000;
+        final double[] keys = new double[siz];
+        for (int i = 0; i < siz; i++) {
+            keys[i] = (rnd.nextDouble() - 0.5) * rnd.nextInt(1000);
+        }
+        keys[0] = 0.0;
+        keys[1] = -0.0;
+        keys[2] = Double.MAX_VALUE;
+        keys[3] = -Double.MAX_VALUE;
+        keys[4] = Double.MIN_VALUE;
+        isRadixSorted(keys);
+    }
+
+    @Test
+    public void radixSortManyDupes() {
+        final double[] keys = new double[500];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (i % 3) / 3.0;
+        }
+        isRadixSorted(keys);
+    }
+
+    @Test
+    public void radixSortIsStable() {
+        final double[] keys = new double[] {0.5, 0.25, 0.5, 0.25};
+        final int[] permutation = new int[keys.length];
+        Arrays.radixSort(keys, keys.length, permutation, new int[keys.length]);
+        assertArrayEquals(new int[] {1, 3, 0, 2}, permutation);
+    }
+
+    @Test
+    public void permuteFollowsPermutation() {
+        final Integer[] values = new Integer[] {10, 11, 12, 13, 14};
+        final int[] permutation = new int[] {3, 0, 4, 1, 2};
+        Arrays.permute(values, permutation, values.length);
+        assertArrayEquals(new Integer[] {13, 10, 14, 11, 12}, values);
+        assertArrayEquals(new int[] {3, 0, 4, 1, 2}, permutation);
+    }
+
+    /**
+     * Radix sort the keys, and fail the test if the resulting permutation
+     * isn't a permutation, or doesn't sort the keys.
+     * @param keys
+     */
+    private void isRadixSorted(final double[] keys) {
+        final int[] permutation = new int[keys.length];
+        Arrays.radixSort(keys, keys.length, permutation, new int[keys.length]);
+
+        final boolean[] seen = new boolean[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            assertFalse("index seen twice", seen[permutation[i]]);
+            seen[permutation[i]] = true;
+            if (i > 0) {
+                assertTrue("expected keys in increasing order",
+                        Double.compare(keys[permutation[i - 1]], keys[permutation[i]]) <= 0);
+            }
+        }
+    }
 }
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotic.arrays;
+
+import no.rmz.robotics.arrays.LogWeights;
+import no.rmz.robotics.arrays.WeightedPool;
+import no.rmz.robotics.particlefilter.NavigationMap;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.particlefilter.SequentialParticleWeigher;
+import no.rmz.robotics.sensors.SensorInput;
+import no.rmz.robotics.sensors.SurfaceReflectedLightSensor;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class LogWeightsTest {
+
+    private final static double DELTA = 0.0000000001;
+
+    @Test
+    public void testAdd() {
+        assertEquals(Math.log(5), LogWeights.add(Math.log(2), Math.log(3)), DELTA);
+        assertEquals(Math.log(2), LogWeights.add(Math.log(2), Double.NEGATIVE_INFINITY), DELTA);
+        assertEquals(Double.NEGATIVE_INFINITY,
+                LogWeights.add(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY), 0.0);
+    }
+
+    @Test
+    public void testLogSumExpOfTinyWeights() {
+        // exp(-2000) underflows, but the normalized weights don't.
+        final double[] logWeights = {-2000, -2001, Double.NEGATIVE_INFINITY, -2000};
+        final double logSum = LogWeights.logSumExp(logWeights, 0, logWeights.length);
+        assertEquals(-2000 + Math.log(2 + Math.exp(-1)), logSum, DELTA);
+
+        LogWeights.normalize(logWeights, logWeights.length, logSum);
+        assertEquals(1.0, logWeights[0] + logWeights[1] + logWeights[2] + logWeights[3], DELTA);
+        assertEquals(0.0, logWeights[2], 0.0);
+        assertEquals(logWeights[0], logWeights[3], 0.0);
+        assertEquals(Math.exp(-1), logWeights[1] / logWeights[0], DELTA);
+    }
+
+    @Test
+    public void testLogSumExpWithZeroWeightFirst() {
+        final double[] logWeights = {Double.NEGATIVE_INFINITY, -1, -2};
+        assertEquals(Math.log(Math.exp(-1) + Math.exp(-2)),
+                LogWeights.logSumExp(logWeights, 0, logWeights.length), DELTA);
+    }
+
+    @Test
+    public void testLogSumExpOfZeroWeights() {
+        final double[] logWeights = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        assertEquals(Double.NEGATIVE_INFINITY,
+                LogWeights.logSumExp(logWeights, 0, logWeights.length), 0.0);
+        assertEquals(Double.NEGATIVE_INFINITY, LogWeights.logSumExp(logWeights, 0, 0), 0.0);
+    }
+
+    @Test
+    public void testWeighLogWithRuledOutFirstParticle() {
+        // The first particle expects -128 and the reading is 127, a
+        // difference of 255, which the sensor model rules out.
+        final NavigationMap map = new NavigationMap() {
+            @Override
+            public SensorInput getExpectedSensorValue(final Particle p) {
+                return new SensorInput((byte) p.getPosition().getX(), null);
+            }
+        };
+        final ParticleStore store = new ParticleStore("store", 3, 1.0);
+        store.setX(0, -128);
+        store.setX(1, 127);
+        store.setX(2, 127);
+        final double logSum = new SequentialParticleWeigher().weighLog(
+                store, map, new SurfaceReflectedLightSensor(), new SensorInput((byte) 127, null));
+        assertEquals(Double.NEGATIVE_INFINITY, store.getWeight(0), 0.0);
+        assertEquals(Math.log(2), logSum, DELTA);
+    }
+
+    @Test
+    public void testStoreNormalizeLogWeights() {
+        final ParticleStore store = new ParticleStore("store", 3, 1.0);
+        store.setWeight(0, -1000);
+        store.setWeight(1, -1000 + Math.log(3));
+        store.setWeight(2, Double.NEGATIVE_INFINITY);
+        store.normalizeLogWeights(LogWeights.logSumExp(store.getWeights(), 0, 3));
+        assertEquals(0.25, store.getWeight(0), DELTA);
+        assertEquals(0.75, store.getWeight(1), DELTA);
+        assertEquals(0.0, store.getWeight(2), 0.0);
+    }
+
+    @Test
+    public void testPoolNormalizeLogWeights() {
+        final Particle[] particles = new Particle[3];
+        for (int i = 0; i < particles.length; i++) {
+            particles[i] = new Particle();
+        }
+        particles[0].setLogWeight(Double.NEGATIVE_INFINITY);
+        particles[1].setLogWeight(-800);
+        particles[2].setLogWeight(-800 + Math.log(3));
+
+        final WeightedPool<Particle> pool = new WeightedPool<Particle>("pool", particles);
+        assertTrue(particles[0].hasLogWeight());
+        pool.normalizeLogWeights();
+        assertFalse(particles[0].hasLogWeight());
+        // Still a valid, positive, weight.
+        assertTrue(particles[0].getWeight() > 0);
+        assertEquals(0.25, particles[1].getWeight(), DELTA);
+        assertEquals(0.75, particles[2].getWeight(), DELTA);
+        assertEquals(1.0, pool.getSumOfWeights(), DELTA);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLogWeightIsNeverReturnedAsWeight() {
+        final Particle particle = new Particle();
+        particle.setLogWeight(-3);
+        assertEquals(-3, particle.getLogWeight(), DELTA);
+        particle.getWeight();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPoolRejectsUnnormalizedLogWeights() {
+        final Particle[] particles = {new Particle(), new Particle()};
+        particles[0].setLogWeight(-1);
+        new WeightedPool<Particle>("pool", particles).getSumOfWeights();
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotic.arrays;
+
+import no.rmz.robotics.arrays.Resampler;
+import no.rmz.robotics.arrays.ResidualResampler;
+import no.rmz.robotics.arrays.StratifiedResampler;
+import no.rmz.robotics.arrays.SystematicResampler;
+import no.rmz.robotics.arrays.WeightedPool;
+import no.rmz.robotics.random.RandomSource;
+import no.rmz.robotics.random.Xoroshiro128PlusRandom;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class ResamplerTest {
+
+    /**
+     * A source of randomness.
+     */
+    private final static RandomSource RND = new Xoroshiro128PlusRandom();
+
+    /**
+     * 1/100 == one percent
+     */
+    private final static double ONE_PERCENT = 0.01;
+
+    private final static int NO_OF_WEIGHTS = 10;
+
+    private final static int NO_OF_PICKS = 100000;
+
+    private final Resampler[] resamplers = new Resampler[] {
+        new SystematicResampler(),
+        new StratifiedResampler(),
+        new ResidualResampler()
+    };
+
+    private double[] weights;
+
+    @Before
+    public void setUp() {
+        weights = new double[NO_OF_WEIGHTS];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = RND.nextDouble();
+            sum += weights[i];
+        }
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] /= sum;
+        }
+    }
+
+    @Test
+    public void testPickFrequenciesFollowWeights() {
+        for (final Resampler resampler : resamplers) {
+            final int[] picks = new int[NO_OF_PICKS];
+            resampler.resample(weights, weights.length, picks, picks.length, RND);
+
+            final int[] counts = new int[weights.length];
+            for (final int pick : picks) {
+                counts[pick]++;
+            }
+            for (int i = 0; i < weights.length; i++) {
+                assertEquals(weights[i], (double) counts[i] / NO_OF_PICKS, ONE_PERCENT);
+            }
+        }
+    }
+
+    @Test
+    public void testSystematicIsWithinOneOfExpectation() {
+        final int[] picks = new int[NO_OF_PICKS];
+        new SystematicResampler().resample(weights, weights.length, picks, picks.length, RND);
+
+        final int[] counts = new int[weights.length];
+        for (final int pick : picks) {
+            counts[pick]++;
+        }
+        for (int i = 0; i < weights.length; i++) {
+            final double expected = weights[i] * NO_OF_PICKS;
+            assertTrue("Expected " + expected + " picks, got " + counts[i],
+                    Math.abs(counts[i] - expected) <= 1.0);
+        }
+    }
+
+    @Test
+    public void testZeroWeightIsNeverPicked() {
+        final double[] w = new double[] {0.5, 0.0, 0.5};
+        for (final Resampler resampler : resamplers) {
+            final int[] picks = new int[1000];
+            resampler.resample(w, w.length, picks, picks.length, RND);
+            for (final int pick : picks) {
+                assertTrue("Picked index with zero weight", pick != 1);
+            }
+        }
+    }
+
+    @Test
+    public void testResamplePool() {
+        final WeightedPool<SimpleWeighted> pool =
+                new WeightedPool<SimpleWeighted>("pool", new SimpleWeighted[2]);
+        pool.put(0, new SimpleWeighted(1));
+        pool.put(1, new SimpleWeighted(3));
+        pool.normalizeWeights(pool.getSumOfWeights());
+
+        final SimpleWeighted[] destination = new SimpleWeighted[4];
+        pool.resample(new SystematicResampler(), destination);
+        assertSame(pool.get(0), destination[0]);
+        for (int i = 1; i < destination.length; i++) {
+            assertSame(pool.get(1), destination[i]);
+        }
+    }
+}
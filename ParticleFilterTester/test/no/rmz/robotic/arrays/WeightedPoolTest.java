@@ -20,7 +20,9 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import no.rmz.robotics.arrays.WeightedCopier;
 import no.rmz.robotics.arrays.WeightedPool;
+import no.rmz.robotics.arrays.WeightedPoolSnapshot;
 import org.junit.*;
 import static org.junit.Assert.*;
 
@@ -242,4 +244,124 @@ public class WeightedPoolTest {
             }
         }
     }
+
+
+    @Test
+    public void testPickInstanceFromAliasTable() {
+        for (final WeightedPool<SimpleWeighted> pool : pools) {
+
+            final double sumOfWeights = pool.getSumOfWeights();
+            pool.normalizeWeights(sumOfWeights);
+            pool.buildAliasTable();
+            assertTrue("Expected an alias table", pool.hasAliasTable());
+
+            final Map<SimpleWeighted, Double> counters =
+                    new HashMap<SimpleWeighted, Double>();
+            final int noOfSamples = pool.getSize() * NO_OF_SAMPLES_PER_ITEM;
+            for (int i = 0; i < noOfSamples; i++) {
+                final SimpleWeighted pick = pool.pickInstanceFromAliasTable();
+                final Double oldValue = counters.get(pick);
+                counters.put(pick, (oldValue == null) ? 1.0 : oldValue + 1);
+            }
+
+            for (int i = 0; i < pool.getSize(); i++) {
+                final SimpleWeighted w = pool.get(i);
+                final Double count = counters.get(w);
+                final double normalizedSampleProbability =
+                        (count == null) ? 0.0 : count / noOfSamples;
+                assertEquals(w.getWeight(), normalizedSampleProbability, ONE_PERCENT);
+            }
+        }
+    }
+
+    @Test
+    public void testAliasTableIsInvalidatedByPut() {
+        fourElementPool.normalizeWeights(fourElementPool.getSumOfWeights());
+        fourElementPool.buildAliasTable();
+        assertTrue(fourElementPool.hasAliasTable());
+
+        fourElementPool.put(0, new SimpleWeighted(1));
+        assertFalse(fourElementPool.hasAliasTable());
+
+        fourElementPool.buildAliasTable();
+        fourElementPool.unsort();
+        assertFalse(fourElementPool.hasAliasTable());
+    }
+
+    @Test
+    public void testSnapshotIsIsolatedFromLaterChanges() {
+        assertNull(fourElementPool.acquireSnapshot());
+
+        fourElementPool.publish();
+        final WeightedPoolSnapshot<SimpleWeighted> first = fourElementPool.acquireSnapshot();
+        final SimpleWeighted third = fourElementPool.get(3);
+
+        fourElementPool.normalizeWeights(fourElementPool.getSumOfWeights());
+        fourElementPool.put(3, new SimpleWeighted(42));
+
+        assertSame(third, first.get(3));
+        assertEquals(3.0, first.getWeight(3), DELTA);
+        assertEquals(2.0, first.getWeight(2), DELTA);
+
+        final WeightedPoolSnapshot<SimpleWeighted> second = fourElementPool.publish();
+        assertTrue("Expected versions to increase", second.getVersion() > first.getVersion());
+        assertEquals(42.0, second.getWeight(3), DELTA);
+        first.release();
+    }
+
+    @Test
+    public void testSnapshotsAreReusedOnlyWhenReleased() {
+        fourElementPool.publish();
+        final WeightedPoolSnapshot<SimpleWeighted> held = fourElementPool.acquireSnapshot();
+        final long heldVersion = held.getVersion();
+
+        // While it is held, publishing uses other snapshots.
+        final WeightedPoolSnapshot<SimpleWeighted> a = fourElementPool.publish();
+        assertNotSame(held, a);
+        assertEquals(heldVersion, held.getVersion());
+
+        // Released, it is reused.
+        held.release();
+        assertSame(held, fourElementPool.publish());
+
+        // Two snapshots are enough when nobody holds on to them.
+        final WeightedPoolSnapshot<SimpleWeighted> b = fourElementPool.publish();
+        assertSame(a, b);
+        assertSame(held, fourElementPool.publish());
+    }
+
+    @Test
+    public void testCopiedSnapshotsDontSeeChangesToObjects() {
+        fourElementPool.setCopier(new WeightedCopier<SimpleWeighted>() {
+            @Override
+            public SimpleWeighted newCopy(final SimpleWeighted original) {
+                return new SimpleWeighted(original.getWeight());
+            }
+
+            @Override
+            public void copy(final SimpleWeighted source, final SimpleWeighted destination) {
+                destination.setWeight(source.getWeight());
+            }
+        });
+        fourElementPool.publish();
+        final WeightedPoolSnapshot<SimpleWeighted> snapshot = fourElementPool.acquireSnapshot();
+        fourElementPool.get(3).setWeight(17);
+        assertNotSame(fourElementPool.get(3), snapshot.get(3));
+        assertEquals(3.0, snapshot.get(3).getWeight(), DELTA);
+        snapshot.release();
+    }
+
+    @Test
+    public void testSetSizeLimitsPool() {
+        final SimpleWeighted[] items = new SimpleWeighted[] {
+            new SimpleWeighted(1), new SimpleWeighted(2), new SimpleWeighted(3)
+        };
+        final WeightedPool<SimpleWeighted> pool =
+                new WeightedPool<SimpleWeighted>("pool", items);
+        assertEquals(3, pool.getCapacity());
+        pool.setSize(2);
+        assertEquals(2, pool.getSize());
+        assertEquals(3.0, pool.getSumOfWeights(), DELTA);
+        assertEquals(2, pool.publish().getSize());
+    }
 }
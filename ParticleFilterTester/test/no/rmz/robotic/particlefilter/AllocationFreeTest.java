@@ -0,0 +1,199 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package no.rmz.robotic.particlefilter;
+
+import java.lang.management.ManagementFactory;
+import no.rmz.robotics.particlefilter.KldSampling;
+import no.rmz.robotics.particlefilter.MotionNoise;
+import no.rmz.robotics.particlefilter.NavigationMap;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.ParticleFieldConsumer;
+import no.rmz.robotics.particlefilter.ParticleFilter;
+import no.rmz.robotics.particlefilter.ParticleGrid;
+import no.rmz.robotics.particlefilter.RasterNavigationMap;
+import no.rmz.robotics.sensors.BatchSensorModel;
+import no.rmz.robotics.sensors.SensorInput;
+import no.rmz.robotics.sensors.SurfaceReflectedLightSensor;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ * Checks that the filter's steady state doesn't allocate, using the
+ * per-thread allocation counter of HotSpot JVMs.  The JIT compiler may
+ * still allocate a few objects now and then, when it deoptimizes code
+ * where allocations had been optimized away, so the tests allow a couple
+ * of kilobytes over all the rounds.  Allocating anything per particle, or
+ * even a single sensor input per round, would be more than that.
+ */
+public final class AllocationFreeTest {
+
+    private final static int NO_OF_PARTICLES = 3000;
+
+    private final static int NO_OF_ROUNDS = 100;
+
+    private final static long ALLOWANCE = 2048;
+
+    private com.sun.management.ThreadMXBean threads;
+
+    private ParticleFilter pf;
+
+    /**
+     * True if the consumer publishes a snapshot of every round, as one
+     * handing the particles on to another thread would.
+     */
+    private volatile boolean publishing = false;
+
+    @Before
+    public void setUp() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        final NavigationMap source = new NavigationMap() {
+            @Override
+            public SensorInput getExpectedSensorValue(final Particle p) {
+                return new SensorInput((byte) p.getPosition().getX(), null);
+            }
+        };
+        final RasterNavigationMap map = new RasterNavigationMap(
+                source, -12000, -12000, 12000, 12000, 10.0,
+                RasterNavigationMap.OutOfBounds.CLAMP, (byte) 0);
+        final SurfaceReflectedLightSensor sensor = new SurfaceReflectedLightSensor();
+        pf = new ParticleFilter(
+                NO_OF_PARTICLES, sensor, sensor,
+                new ParticleFieldConsumer() {
+                    @Override
+                    public void consumeParticles(final no.rmz.robotics.arrays.WeightedPool pool) {
+                        if (publishing) {
+                            pool.publish();
+                        }
+                    }
+                },
+                map);
+    }
+
+    /**
+     * The particles move 50 units per round, so the map is large enough
+     * for them to stay on it; the first lookup outside of it initializes
+     * a class, which would be counted.
+     */
+    private long allocatedBySenseEstimate() {
+        // Warm up, so that lazily made objects and class loading don't count.
+        for (int i = 0; i < NO_OF_ROUNDS; i++) {
+            pf.senseEstimate();
+        }
+        final long id = Thread.currentThread().getId();
+        // The first call to the counter allocates, so don't measure that.
+        threads.getThreadAllocatedBytes(id);
+        final long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < NO_OF_ROUNDS; i++) {
+            pf.senseEstimate();
+        }
+        return threads.getThreadAllocatedBytes(id) - before;
+    }
+
+    /**
+     * Like allocatedBySenseEstimate, for whole steps, which also copy the
+     * particles into the pool handed to the consumer.
+     */
+    private long allocatedBySteps() {
+        for (int i = 0; i < NO_OF_ROUNDS; i++) {
+            pf.step();
+        }
+        final long id = Thread.currentThread().getId();
+        threads.getThreadAllocatedBytes(id);
+        final long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < NO_OF_ROUNDS; i++) {
+            pf.step();
+        }
+        return threads.getThreadAllocatedBytes(id) - before;
+    }
+
+    private static void assertNoSteadyAllocation(final long allocated) {
+        assertTrue("Allocated " + allocated + " bytes", allocated < ALLOWANCE);
+    }
+
+    @Test
+    public void testSenseEstimateDoesNotAllocate() {
+        assertNoSteadyAllocation(allocatedBySenseEstimate());
+    }
+
+    @Test
+    public void testLogWeightsDoNotAllocate() {
+        pf.setLogWeights(true);
+        assertNoSteadyAllocation(allocatedBySenseEstimate());
+    }
+
+    @Test
+    public void testMotionNoiseDoesNotAllocate() {
+        pf.setMotionNoise(new MotionNoise(1.0, 0.01, pf.getRandomSource().split()));
+        assertNoSteadyAllocation(allocatedBySenseEstimate());
+    }
+
+    @Test
+    public void testKldSamplingDoesNotAllocate() {
+        pf.setKldSampling(new KldSampling(0.05, 2.326, 10.0, 0.5, 100));
+        assertNoSteadyAllocation(allocatedBySenseEstimate());
+    }
+
+    @Test
+    public void testParticleGridDoesNotAllocate() {
+        pf.setParticleGrid(new ParticleGrid(20.0));
+        assertNoSteadyAllocation(allocatedBySenseEstimate());
+        assertTrue(pf.getParticleGrid().findClusters() > 0);
+    }
+
+    @Test
+    public void testStepsDoNotAllocate() {
+        assertNoSteadyAllocation(allocatedBySteps());
+    }
+
+    @Test
+    public void testStepsWithSnapshotsDoNotAllocate() {
+        publishing = true;
+        assertNoSteadyAllocation(allocatedBySteps());
+    }
+
+    @Test
+    public void testCompactStepsDoNotAllocate() {
+        pf.setCompactResampling(true);
+        assertNoSteadyAllocation(allocatedBySteps());
+    }
+
+    @Test
+    public void testBatchLikelihoodsDoNotAllocate() {
+        final BatchSensorModel model = new SurfaceReflectedLightSensor();
+        final SensorInput actual = new SensorInput((byte) 17, null);
+        final byte[] expected = new byte[NO_OF_PARTICLES];
+        final double[] likelihoods = new double[NO_OF_PARTICLES];
+        for (int i = 0; i < NO_OF_ROUNDS; i++) {
+            model.probabilitiesOfMeasuredResult(actual, expected, 0, NO_OF_PARTICLES, likelihoods);
+        }
+        final long id = Thread.currentThread().getId();
+        threads.getThreadAllocatedBytes(id);
+        final long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < NO_OF_ROUNDS; i++) {
+            model.probabilitiesOfMeasuredResult(actual, expected, 0, NO_OF_PARTICLES, likelihoods);
+        }
+        assertNoSteadyAllocation(threads.getThreadAllocatedBytes(id) - before);
+    }
+}
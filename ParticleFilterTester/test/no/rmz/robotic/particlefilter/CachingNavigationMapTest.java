@@ -0,0 +1,153 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package no.rmz.robotic.particlefilter;
+
+import java.util.Random;
+import no.rmz.robotics.particlefilter.CachingNavigationMap;
+import no.rmz.robotics.particlefilter.NavigationMap;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
+import no.rmz.robotics.particlefilter.geometry.XYPair;
+import no.rmz.robotics.sensors.SensorInput;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class CachingNavigationMapTest {
+
+    private final static double DELTA = 0.000001;
+
+    /**
+     * A map whose brightness depends on position and heading, and that
+     * counts how often it is asked.
+     */
+    private static final class CountingMap implements NavigationMap {
+
+        private int noOfLookups = 0;
+
+        @Override
+        public SensorInput getExpectedSensorValue(final Particle p) {
+            noOfLookups++;
+            return new SensorInput(brightness(p), null);
+        }
+
+        static byte brightness(final Particle p) {
+            final double x = p.getPosition().getX();
+            final double y = p.getPosition().getY();
+            final double theta = p.getSpeed().getTheta();
+            return (byte) (Math.floor(x) * 7 + Math.floor(y) * 13 + Math.floor(theta * 4));
+        }
+    }
+
+    private CountingMap source;
+
+    private final Particle particle =
+            new Particle(new XYPair(0.0, 0.0), new PolarCoordinate(0.0, 0.0), 1.0);
+
+    @Before
+    public void setUp() {
+        source = new CountingMap();
+    }
+
+    private Particle at(final double x, final double y, final double theta) {
+        particle.getPosition().setX(x);
+        particle.getPosition().setY(y);
+        particle.getSpeed().setTheta(theta);
+        return particle;
+    }
+
+    @Test
+    public void testNearbyPosesShareALookup() {
+        final CachingNavigationMap cache = new CachingNavigationMap(source, 1.0, 2 * Math.PI, 100);
+        final byte first = cache.getExpectedSensorValue(at(10.1, 20.2, 0.3)).getBrightness();
+        final byte second = cache.getExpectedSensorValue(at(10.9, 20.7, 5.0)).getBrightness();
+        assertEquals(first, second);
+        // The map was asked about the middle of the cell.
+        assertEquals(CountingMap.brightness(at(10.5, 20.5, Math.PI)), first);
+        assertEquals(1, source.noOfLookups);
+        assertEquals(1, cache.getNoOfHits());
+        assertEquals(1, cache.getNoOfMisses());
+        assertEquals(0.5, cache.getHitRate(), DELTA);
+
+        final SensorInput destination = new SensorInput();
+        cache.getExpectedSensorValue(at(11.2, 20.2, 0.3), destination);
+        assertEquals(2, source.noOfLookups);
+        assertEquals(CountingMap.brightness(at(11.5, 20.5, Math.PI)), destination.getBrightness());
+    }
+
+    @Test
+    public void testHeadingsAreQuantized() {
+        final CachingNavigationMap cache = new CachingNavigationMap(source, 1.0, Math.PI / 2, 100);
+        cache.getExpectedSensorValue(at(0.5, 0.5, 0.1));
+        cache.getExpectedSensorValue(at(0.5, 0.5, 1.0));
+        cache.getExpectedSensorValue(at(0.5, 0.5, 2.0));
+        cache.getExpectedSensorValue(at(0.5, 0.5, 2.0 - 2 * Math.PI));
+        assertEquals(2, source.noOfLookups);
+        assertEquals(2, cache.getNoOfEntries());
+    }
+
+    @Test
+    public void testEvictionKeepsAnswersRight() {
+        final int maxNoOfEntries = 50;
+        final CachingNavigationMap cache = new CachingNavigationMap(source, 1.0, Math.PI / 4, maxNoOfEntries);
+        final Random random = new Random(11);
+        for (int i = 0; i < 20000; i++) {
+            // Mostly a small hot area, sometimes anywhere.
+            final double range = (random.nextInt(4) == 0) ? 100 : 4;
+            final double x = Math.floor(random.nextDouble() * range - range / 2);
+            final double y = Math.floor(random.nextDouble() * range - range / 2);
+            final double theta = Math.floor(random.nextDouble() * 8) * Math.PI / 4;
+            final byte expected = CountingMap.brightness(
+                    at(x + 0.5, y + 0.5, theta + Math.PI / 8));
+            assertEquals(expected, cache.getExpectedSensorValue(at(x + 0.3, y + 0.6, theta + 0.1)).getBrightness());
+            assertTrue(cache.getNoOfEntries() <= maxNoOfEntries);
+        }
+        assertEquals(maxNoOfEntries, cache.getNoOfEntries());
+        assertTrue(cache.getNoOfEvictions() > 0);
+        assertEquals(source.noOfLookups, cache.getNoOfMisses());
+        assertEquals(20000, cache.getNoOfHits() + cache.getNoOfMisses());
+        // The hot area has 128 poses, more than fit, but the clock keeps
+        // enough of them for a fair share of hits.
+        assertTrue("Hit rate " + cache.getHitRate(), cache.getHitRate() > 0.2);
+
+        cache.clear();
+        assertEquals(0, cache.getNoOfEntries());
+        cache.resetStatistics();
+        assertEquals(0.0, cache.getHitRate(), 0.0);
+    }
+
+    @Test
+    public void testFarApartCellsDontShareAKey() {
+        // Cells 2^21 apart would have the same key if it were truncated.
+        final double far = 1 << 21;
+        final NavigationMap farIsBright = new NavigationMap() {
+            @Override
+            public SensorInput getExpectedSensorValue(final Particle p) {
+                final boolean isFar = Math.abs(p.getPosition().getX()) > far / 2
+                        || Math.abs(p.getPosition().getY()) > far / 2;
+                return new SensorInput((byte) (isFar ? 100 : 10), null);
+            }
+        };
+        final CachingNavigationMap cache = new CachingNavigationMap(farIsBright, 1.0, 2 * Math.PI, 100);
+        assertEquals(10, cache.getExpectedSensorValue(at(3.5, 0.5, 0)).getBrightness());
+        assertEquals(100, cache.getExpectedSensorValue(at(3.5 + far, 0.5, 0)).getBrightness());
+        assertEquals(100, cache.getExpectedSensorValue(at(3.5, 0.5 - far, 0)).getBrightness());
+        assertEquals(100, cache.getExpectedSensorValue(at(3.5 - far, 0.5 + far, 0)).getBrightness());
+        assertEquals(10, cache.getExpectedSensorValue(at(3.5, 0.5, 0)).getBrightness());
+        assertEquals(1, cache.getNoOfHits());
+    }
+}
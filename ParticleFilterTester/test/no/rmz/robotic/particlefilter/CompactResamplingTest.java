@@ -0,0 +1,188 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package no.rmz.robotic.particlefilter;
+
+import java.util.Random;
+import no.rmz.robotics.arrays.WeightedPool;
+import no.rmz.robotics.particlefilter.MotionNoise;
+import no.rmz.robotics.particlefilter.NavigationMap;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.ParticleFieldConsumer;
+import no.rmz.robotics.particlefilter.ParticleFilter;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.particlefilter.delivery.ParticleFieldSnapshot;
+import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
+import no.rmz.robotics.random.Xoroshiro128PlusRandom;
+import no.rmz.robotics.sensors.Sensor;
+import no.rmz.robotics.sensors.SensorInput;
+import no.rmz.robotics.sensors.SensorModel;
+import no.rmz.robotics.telemetry.BeliefFrameDecoder;
+import no.rmz.robotics.telemetry.BeliefFrameEncoder;
+import no.rmz.robotics.telemetry.BeliefFrameFormat;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class CompactResamplingTest {
+
+    private final static double DELTA = 0.000001;
+
+    private final static int N = 900;
+
+    /**
+     * Counts the map lookups, which are one per weighed entry.
+     */
+    private static final class CountingMap implements NavigationMap {
+
+        private int noOfLookups = 0;
+
+        @Override
+        public SensorInput getExpectedSensorValue(final Particle p) {
+            noOfLookups++;
+            return new SensorInput((byte) Math.max(-128, Math.min(127, p.getPosition().getX())), null);
+        }
+    }
+
+    /**
+     * The robot sees brightness 40 and moves one unit per round, and the
+     * likelihood falls off with the distance from the expected brightness.
+     */
+    private static ParticleFilter newFilter(final NavigationMap map) {
+        return newFilter(map, new ParticleFieldConsumer() {
+            @Override
+            public void consumeParticles(final WeightedPool pool) {
+            }
+        });
+    }
+
+    private static ParticleFilter newFilter(
+            final NavigationMap map,
+            final ParticleFieldConsumer consumer) {
+        final Sensor sensor = new Sensor() {
+            @Override
+            public SensorInput sense() {
+                return new SensorInput((byte) 40, new PolarCoordinate(0, 1));
+            }
+        };
+        final SensorModel model = new SensorModel() {
+            @Override
+            public double probabilityOfMeasuredResultGivenExpectedValue(
+                    final SensorInput expected, final SensorInput actual) {
+                final double d = expected.getBrightness() - actual.getBrightness();
+                return Math.exp(-d * d / 200) + 1e-9;
+            }
+        };
+        final ParticleFilter pf = new ParticleFilter(N, sensor, model, consumer, map);
+        pf.setRandomSource(new Xoroshiro128PlusRandom(7));
+        final Random random = new Random(5);
+        final ParticleStore start = pf.getNewParticleStore();
+        for (int i = 0; i < N; i++) {
+            start.setX(i, random.nextDouble() * 120 - 60);
+            start.setY(i, random.nextDouble() * 10);
+        }
+        return pf;
+    }
+
+    @Test
+    public void testCompactMatchesExpanded() {
+        final CountingMap plainMap = new CountingMap();
+        final CountingMap compactMap = new CountingMap();
+        final ParticleFilter plain = newFilter(plainMap);
+        final ParticleFilter compact = newFilter(compactMap);
+        compact.setCompactResampling(true);
+        final ParticleStore expanded = new ParticleStore("expanded", N, 1.0);
+
+        for (int round = 0; round < 20; round++) {
+            plain.senseEstimate();
+            compact.senseEstimate();
+
+            final ParticleStore entries = compact.getNewParticleStore();
+            assertEquals(N, entries.getNoOfRepresentedParticles());
+            entries.expandTo(expanded);
+            final ParticleStore expected = plain.getNewParticleStore();
+            assertEquals(expected.getSize(), expanded.getSize());
+            for (int i = 0; i < N; i++) {
+                assertEquals(expected.getX(i), expanded.getX(i), DELTA);
+                assertEquals(expected.getY(i), expanded.getY(i), DELTA);
+            }
+            assertEquals(plain.getPoseEstimate().getX(), compact.getPoseEstimate().getX(), DELTA);
+            assertEquals(plain.getEffectiveSampleSize(), compact.getEffectiveSampleSize(), 1e-6 * N);
+        }
+        // The belief has converged on a few ancestors, which are weighed
+        // once each instead of once per copy.
+        assertTrue(compact.getNewParticleStore().getSize() < N / 10);
+        assertTrue(compactMap.noOfLookups * 2 < plainMap.noOfLookups);
+    }
+
+    @Test
+    public void testMotionNoiseExpandsCopies() {
+        final ParticleFilter pf = newFilter(new CountingMap());
+        pf.setCompactResampling(true);
+        pf.senseEstimate();
+        assertTrue(pf.getNewParticleStore().getSize() < N);
+
+        pf.setMotionNoise(new MotionNoise(0.5, 0.01, pf.getRandomSource().split()));
+        pf.senseEstimate();
+        final ParticleStore store = pf.getNewParticleStore();
+        assertEquals(N, store.getSize());
+        assertEquals(N, store.getNoOfRepresentedParticles());
+    }
+
+    @Test
+    public void testConsumerSeesEveryParticle() {
+        final int[] sizes = new int[1];
+        final ParticleFilter pf = newFilter(new CountingMap(), new ParticleFieldConsumer() {
+            @Override
+            public void consumeParticles(final WeightedPool pool) {
+                sizes[0] = pool.getSize();
+            }
+        });
+        pf.setCompactResampling(true);
+        for (int round = 0; round < 5; round++) {
+            pf.step();
+            assertEquals(N, sizes[0]);
+            assertEquals(N, pf.getNewParticles().getSize());
+        }
+        assertTrue(pf.getNewParticleStore().getSize() < N);
+    }
+
+    @Test
+    public void testSnapshotsAndFramesExpandCounts() {
+        final ParticleFilter pf = newFilter(new CountingMap());
+        pf.setCompactResampling(true);
+        for (int round = 0; round < 5; round++) {
+            pf.senseEstimate();
+        }
+        final ParticleStore entries = pf.getNewParticleStore();
+        assertTrue(entries.getSize() < N);
+
+        final ParticleFieldSnapshot snapshot = ParticleFieldSnapshot.of(0, entries);
+        assertEquals(N, snapshot.getSize());
+
+        final byte[] frame = new byte[BeliefFrameFormat.getMaxFrameSize(N)];
+        final int length = new BeliefFrameEncoder(N, 0.01, 1).encode(entries, frame, 0);
+        final ParticleStore received = new ParticleStore("received", N, 1.0);
+        new BeliefFrameDecoder(N).decode(frame, 0, length, received);
+        assertEquals(N, received.getSize());
+
+        final ParticleStore expanded = pf.getExpandedNewParticleStore();
+        for (int i = 0; i < N; i++) {
+            assertEquals(expanded.getX(i), snapshot.getX(i), 0.0);
+            assertEquals(expanded.getWeight(i), snapshot.getWeight(i), 0.0);
+            assertEquals(expanded.getX(i), received.getX(i), 0.1);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package no.rmz.robotic.particlefilter;
+
+import no.rmz.robotics.particlefilter.KldSampling;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class KldSamplingTest {
+
+    private final static int MIN_NO_OF_PARTICLES = 10;
+
+    private KldSampling kld;
+
+    @Before
+    public void setUp() {
+        kld = new KldSampling(0.05, 2.326, 1.0, Math.PI / 8, MIN_NO_OF_PARTICLES);
+        kld.ensureCapacity(100000);
+    }
+
+    @Test
+    public void testSameBinCountsOnce() {
+        assertTrue(kld.add(0.1, 0.1, 0.1));
+        assertFalse(kld.add(0.9, 0.2, 0.3));
+        // Angles are taken modulo a full turn.
+        assertFalse(kld.add(0.5, 0.5, 0.2 + 2 * Math.PI));
+        assertTrue(kld.add(-0.5, 0.5, 0.2));
+        assertEquals(2, kld.getNoOfBins());
+    }
+
+    @Test
+    public void testRequiredNoOfParticlesGrowsWithSpread() {
+        assertEquals(MIN_NO_OF_PARTICLES, kld.getRequiredNoOfParticles());
+        int previous = 0;
+        for (int k = 0; k < 1000; k++) {
+            kld.add(k, 0, 0);
+            assertTrue(kld.getRequiredNoOfParticles() >= previous);
+            previous = kld.getRequiredNoOfParticles();
+        }
+        // About 1000 / (2 * 0.05) particles for 1000 bins.
+        assertTrue(previous > 10000);
+        assertTrue(previous < 15000);
+    }
+
+    @Test
+    public void testResetForgetsBins() {
+        kld.add(0, 0, 0);
+        kld.add(5, 5, 0);
+        kld.reset();
+        assertEquals(0, kld.getNoOfBins());
+        assertEquals(MIN_NO_OF_PARTICLES, kld.getRequiredNoOfParticles());
+        assertTrue(kld.add(0, 0, 0));
+    }
+}
@@ -18,6 +18,7 @@ package no.rmz.robotic.particlefilter;
 
 
 import no.rmz.robotics.arrays.WeightedPool;
+import no.rmz.robotics.particlefilter.KldSampling;
 import no.rmz.robotics.particlefilter.NavigationMap;
 import no.rmz.robotics.particlefilter.Particle;
 import no.rmz.robotics.particlefilter.ParticleFieldConsumer;
@@ -85,6 +86,78 @@ public class ParticleFilterTester {
         pf.senseEstimate();
     }
 
+    @Test
+    public void resampleEveryRoundByDefault() {
+        pf.senseEstimate();
+        pf.senseEstimate();
+        assertEquals(0, pf.getNoOfSkippedResamples());
+    }
+
+    @Test
+    public void resampleEveryRoundByDefaultWithUniformWeights() {
+        // With a hundred particles of weight one, 1/sum(w^2) rounds to
+        // just above the number of particles.
+        givenUnitWeights();
+        final ParticleFilter filter = new ParticleFilter(
+                100,
+                sensor,
+                sensorModel,
+                particleFieldConsumer,
+                navigationMap);
+        filter.senseEstimate();
+        filter.senseEstimate();
+        filter.senseEstimate();
+        assertEquals(0, filter.getNoOfSkippedResamples());
+    }
+
+    @Test
+    public void resampleEveryRoundByDefaultWithCompactResampling() {
+        givenUnitWeights();
+        final ParticleFilter filter = new ParticleFilter(
+                100,
+                sensor,
+                sensorModel,
+                particleFieldConsumer,
+                navigationMap);
+        filter.setCompactResampling(true);
+        filter.senseEstimate();
+        filter.senseEstimate();
+        filter.senseEstimate();
+        assertEquals(0, filter.getNoOfSkippedResamples());
+    }
+
+    @Test
+    public void skipResamplingWhenWeightsAreUniform() {
+        // The mocked sensor model gives every particle the same weight.
+        pf.setResamplingThreshold(0.5);
+        pf.senseEstimate();
+        pf.senseEstimate();
+        assertEquals(NO_OF_PARTICLES, pf.getEffectiveSampleSize(), 0.000001);
+        assertEquals(2, pf.getNoOfSkippedResamples());
+    }
+
+    @Test
+    public void kldSamplingShrinksConvergedBelief() {
+        // All particles start in the same place and move the same way,
+        // so they all end up in one bin.
+        pf.setKldSampling(new KldSampling(0.05, 2.326, 1.0, 0.5, 2));
+        pf.senseEstimate();
+        assertEquals(3, pf.getNoOfParticles());
+        assertEquals(3, pf.getNewParticles().getSize());
+        pf.senseEstimate();
+        assertEquals(3, pf.getNoOfParticles());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void logWeightsNeedALogSensorModel() {
+        pf.setLogWeights(true);
+    }
+
+    private void givenUnitWeights() {
+        when(sensorModel.probabilityOfMeasuredResultGivenExpectedValue(
+                any(SensorInput.class), any(SensorInput.class))).thenReturn(1.0);
+    }
+
     private void sanityCheckPool(final String poolName, final WeightedPool<Particle> pool) {
        assertNotNull("poolName can't be null", poolName);
        assertNotNull("pool " + poolName + " can't be null", pool);
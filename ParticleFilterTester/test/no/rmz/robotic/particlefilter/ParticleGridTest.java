@@ -0,0 +1,155 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package no.rmz.robotic.particlefilter;
+
+import java.util.Random;
+import no.rmz.robotics.particlefilter.ParticleGrid;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class ParticleGridTest {
+
+    private final static double DELTA = 0.000001;
+
+    private final static int N = 1000;
+
+    private ParticleStore store;
+
+    private double[] weights;
+
+    private ParticleGrid grid;
+
+    /**
+     * Two blobs of particles on opposite sides of a circle of radius 100,
+     * like a robot that can't tell which half of a circular track it's
+     * on, with 70% of the mass in the first one.
+     */
+    @Before
+    public void setUp() {
+        final Random random = new Random(3);
+        store = new ParticleStore("store", N, 1.0);
+        weights = new double[N];
+        for (int i = 0; i < N; i++) {
+            final boolean first = i % 2 == 0;
+            store.setX(i, (first ? 100 : -100) + random.nextGaussian() * 3);
+            store.setY(i, random.nextGaussian() * 3);
+            weights[i] = (first ? 0.7 : 0.3) / (N / 2);
+        }
+        grid = new ParticleGrid(5.0);
+        grid.build(store, weights);
+    }
+
+    @Test
+    public void testCellMassesAddUp() {
+        double mass = 0;
+        int count = 0;
+        for (int i = 0; i < N; i++) {
+            final int cell = grid.getCell(store.getX(i), store.getY(i));
+            assertTrue(cell >= 0);
+        }
+        for (double x = -120; x <= 120; x += grid.getCellSize()) {
+            for (double y = -20; y <= 20; y += grid.getCellSize()) {
+                final int cell = grid.getCell(x, y);
+                mass += grid.getCellMass(cell);
+                count += grid.getCellCount(cell);
+            }
+        }
+        assertEquals(1.0, mass, DELTA);
+        assertEquals(N, count);
+    }
+
+    @Test
+    public void testTopClusters() {
+        assertEquals(2, grid.findClusters());
+        final int[] top = new int[3];
+        assertEquals(2, grid.getTopClusters(top));
+        assertEquals(0.7, grid.getClusterMass(top[0]), DELTA);
+        assertEquals(0.3, grid.getClusterMass(top[1]), DELTA);
+        assertEquals(100.0, grid.getClusterX(top[0]), 1.0);
+        assertEquals(-100.0, grid.getClusterX(top[1]), 1.0);
+        assertEquals(N / 2, grid.getClusterSize(top[0]));
+        assertEquals(top[0], grid.getClusterOfCell(grid.getCell(store.getX(0), store.getY(0))));
+    }
+
+    @Test
+    public void testNoRoomForTopClusters() {
+        assertEquals(0, grid.getTopClusters(new int[0]));
+    }
+
+    @Test
+    public void testRadiusQueryMatchesBruteForce() {
+        final int[] found = new int[N];
+        final double[][] centers = {{100, 0}, {97, 2}, {-100, -3}, {0, 0}};
+        for (final double[] c : centers) {
+            for (final double r : new double[]{1, 4, 10}) {
+                int expected = 0;
+                double expectedMass = 0;
+                for (int i = 0; i < N; i++) {
+                    final double dx = store.getX(i) - c[0];
+                    final double dy = store.getY(i) - c[1];
+                    if (dx * dx + dy * dy <= r * r) {
+                        expected++;
+                        expectedMass += weights[i];
+                    }
+                }
+                final int n = grid.query(c[0], c[1], r, found);
+                assertEquals(expected, n);
+                assertEquals(expectedMass, grid.getMassWithin(c[0], c[1], r), DELTA);
+                for (int k = 0; k < n; k++) {
+                    final double dx = store.getX(found[k]) - c[0];
+                    final double dy = store.getY(found[k]) - c[1];
+                    assertTrue(dx * dx + dy * dy <= r * r);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRebuildAndSpreadOut() {
+        // Spread the particles far apart: the cells grow so there are
+        // never many more cells than particles.
+        for (int i = 0; i < N; i++) {
+            store.setX(i, i * 1000.0);
+            store.setY(i, 0);
+        }
+        grid.build(store, null);
+        assertTrue(grid.getCellSize() > 5.0);
+        assertEquals(N, grid.getNoOfParticles());
+        assertEquals(1.0, grid.getMassWithin(500000, 0, 1e7), DELTA);
+
+        // And back again, with equal masses.
+        setUp();
+        grid.build(store, null);
+        assertEquals(5.0, grid.getCellSize(), 0.0);
+        final int[] top = new int[2];
+        grid.getTopClusters(top);
+        assertEquals(0.5, grid.getClusterMass(top[0]), DELTA);
+    }
+
+    @Test
+    public void testBuildFromPool() {
+        for (int i = 0; i < N; i++) {
+            store.setWeight(i, weights[i]);
+        }
+        final ParticleGrid fromPool = new ParticleGrid(5.0);
+        fromPool.build(store.asPool());
+        assertEquals(2, fromPool.findClusters());
+        assertEquals(grid.getMassWithin(100, 0, 5), fromPool.getMassWithin(100, 0, 5), DELTA);
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package no.rmz.robotic.particlefilter;
+
+import no.rmz.robotics.arrays.WeightedPool;
+import no.rmz.robotics.arrays.WeightedPoolSnapshot;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.particlefilter.PositionEstimation;
+import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
+import no.rmz.robotics.particlefilter.geometry.XYPair;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class ParticleStoreTest {
+
+    private final static double DELTA = 0.000001;
+
+    private ParticleStore store;
+
+    @Before
+    public void setUp() {
+        store = new ParticleStore("store", 4, 0.25);
+    }
+
+    @Test
+    public void testSetAndGetParticle() {
+        final Particle p = new Particle(new XYPair(1, 2), new PolarCoordinate(Math.PI, 3), 0.5);
+        store.set(2, p);
+
+        final Particle q = new Particle();
+        store.get(2, q);
+        assertEquals(1.0, q.getPosition().getX(), DELTA);
+        assertEquals(2.0, q.getPosition().getY(), DELTA);
+        assertEquals(Math.PI, q.getSpeed().getTheta(), DELTA);
+        assertEquals(3.0, q.getSpeed().getRadius(), DELTA);
+        assertEquals(0.5, q.getWeight(), DELTA);
+    }
+
+    @Test
+    public void testAsPoolReflectsStore() {
+        store.setX(1, 7);
+        final WeightedPool<Particle> pool = store.asPool();
+        assertEquals(store.getSize(), pool.getSize());
+        assertEquals(7.0, pool.get(1).getPosition().getX(), DELTA);
+
+        // The view is refreshed, not recreated, on every call.
+        store.setX(1, 8);
+        assertSame(pool, store.asPool());
+        assertEquals(8.0, pool.get(1).getPosition().getX(), DELTA);
+    }
+
+    @Test
+    public void testPoolSnapshotKeepsPositions() {
+        store.setX(1, 7);
+        assertNull(store.asPool().acquireSnapshot());
+        store.asPool().publish();
+        final WeightedPoolSnapshot<Particle> snapshot = store.asPool().acquireSnapshot();
+
+        // The pool's particle objects are rewritten, the snapshot's aren't.
+        store.setX(1, 8);
+        store.asPool().publish();
+        store.asPool().publish();
+        assertEquals(7.0, snapshot.get(1).getPosition().getX(), DELTA);
+        assertEquals(0.25, snapshot.getWeight(1), DELTA);
+        snapshot.release();
+    }
+
+    @Test
+    public void testNormalizeAndCumulate() {
+        for (int i = 0; i < store.getSize(); i++) {
+            store.setWeight(i, i + 1);
+        }
+        // Weights 0.1, 0.2, 0.3, 0.4 give an effective sample size of 1 / 0.3
+        assertEquals(1.0 / 0.3, store.normalizeWeights(store.getSumOfWeights()), DELTA);
+        assertEquals(1.0, store.getSumOfWeights(), DELTA);
+
+        store.cumulateWeights();
+        assertEquals(0.1, store.getWeight(0), DELTA);
+        assertEquals(1.0, store.getWeight(3), DELTA);
+
+        assertEquals(0, store.binarySearchForNumber(0.05));
+        assertEquals(1, store.binarySearchForNumber(0.15));
+        assertEquals(2, store.binarySearchForNumber(0.5));
+        assertEquals(3, store.binarySearchForNumber(0.99));
+    }
+
+    @Test
+    public void testMovementMatchesObjectApi() {
+        final Particle origin = new Particle();
+        origin.getPosition().setX(1);
+        origin.getPosition().setY(1);
+        origin.getSpeed().setTheta(Math.PI / 2);
+        origin.getSpeed().setRadius(1);
+        store.set(0, origin);
+
+        final PolarCoordinate sensedSpeed = new PolarCoordinate(Math.PI / 2, 1);
+
+        final Particle destination = new Particle();
+        PositionEstimation.estimateNewParticle(destination, origin, sensedSpeed);
+        PositionEstimation.estimateNewParticle(store, 1, store, 0, sensedSpeed);
+
+        assertEquals(destination.getPosition().getX(), store.getX(1), DELTA);
+        assertEquals(destination.getPosition().getY(), store.getY(1), DELTA);
+        assertEquals(destination.getSpeed().getTheta(), store.getTheta(1), DELTA);
+        assertEquals(destination.getSpeed().getRadius(), store.getRadius(1), DELTA);
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package no.rmz.robotic.particlefilter;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.particlefilter.PoseEstimate;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class PoseEstimateTest {
+
+    private final static double DELTA = 0.000001;
+
+    private ParticleStore store;
+
+    private PoseEstimate pose;
+
+    @Before
+    public void setUp() {
+        store = new ParticleStore("store", 4, 1.0);
+        pose = new PoseEstimate();
+        // Two pairs of particles, (100, 0) and (104, 2), the second pair
+        // three times as likely as the first.
+        final double[][] particles = {
+            {100, 0, 0.1, 1}, {100, 0, -0.1, 1}, {104, 2, 0.1, 3}, {104, 2, -0.1, 3}
+        };
+        for (int i = 0; i < particles.length; i++) {
+            store.setX(i, particles[i][0]);
+            store.setY(i, particles[i][1]);
+            store.setTheta(i, particles[i][2]);
+            store.setWeight(i, particles[i][3]);
+        }
+    }
+
+    private void assertPose() {
+        assertEquals(0, pose.getRound());
+        assertEquals(4, pose.getNoOfParticles());
+        assertEquals(103.0, pose.getX(), DELTA);
+        assertEquals(1.5, pose.getY(), DELTA);
+        assertEquals(0.0, pose.getTheta(), DELTA);
+        // Bernoulli(3/4) variances, scaled by the distance between the pairs.
+        assertEquals(16 * 0.1875, pose.getVarianceX(), DELTA);
+        assertEquals(4 * 0.1875, pose.getVarianceY(), DELTA);
+        assertEquals(8 * 0.1875, pose.getCovarianceXY(), DELTA);
+        assertEquals(1 - Math.cos(0.1), pose.getHeadingSpread(), DELTA);
+        assertEquals(104.0, pose.getBestX(), DELTA);
+        assertEquals(0.375, pose.getBestWeight(), DELTA);
+    }
+
+    @Test
+    public void testEstimateFromNormalization() {
+        final double ess = store.normalizeWeights(store.getSumOfWeights(), pose);
+        assertEquals(1 / (2 * 0.125 * 0.125 + 2 * 0.375 * 0.375), ess, DELTA);
+        assertEquals(1.0, store.getSumOfWeights(), DELTA);
+        assertPose();
+    }
+
+    @Test
+    public void testEstimateFromLogNormalization() {
+        for (int i = 0; i < store.getSize(); i++) {
+            store.setWeight(i, Math.log(store.getWeight(i)));
+        }
+        store.normalizeLogWeights(Math.log(8), pose);
+        assertEquals(1.0, store.getSumOfWeights(), DELTA);
+        assertPose();
+    }
+
+    @Test
+    public void testReadersSeeConsistentEstimates() throws Exception {
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int round = 0; round < 20000; round++) {
+                    for (int i = 0; i < store.getSize(); i++) {
+                        store.setX(i, round);
+                        store.setY(i, round);
+                        store.setWeight(i, 1.0);
+                    }
+                    store.normalizeWeights(store.getSumOfWeights(), pose);
+                }
+                done.set(true);
+            }
+        });
+        writer.start();
+
+        final PoseEstimate copy = new PoseEstimate();
+        long lastRound = -1;
+        while (!done.get()) {
+            final long round = pose.copyTo(copy);
+            assertTrue(round >= lastRound);
+            if (round >= 0) {
+                assertEquals(round, copy.getX(), DELTA);
+                assertEquals(copy.getX(), copy.getY(), 0.0);
+            }
+            lastRound = round;
+        }
+        writer.join();
+        assertEquals(19999, pose.copyTo(copy));
+        assertEquals(2 * 20000, pose.getVersion());
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package no.rmz.robotic.particlefilter;
+
+import no.rmz.robotics.particlefilter.NavigationMap;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.RasterNavigationMap;
+import no.rmz.robotics.particlefilter.RasterNavigationMap.OutOfBounds;
+import no.rmz.robotics.sensors.SensorInput;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class RasterNavigationMapTest {
+
+    /**
+     * A map that is dark (0) left of x = 5, and bright (100) to the right.
+     */
+    private final static NavigationMap HALF_DARK = new NavigationMap() {
+        @Override
+        public SensorInput getExpectedSensorValue(final Particle p) {
+            final byte brightness = (p.getPosition().getX() < 5) ? (byte) 0 : (byte) 100;
+            return new SensorInput(brightness, null);
+        }
+    };
+
+    private RasterNavigationMap raster(final OutOfBounds outOfBounds) {
+        return new RasterNavigationMap(
+                HALF_DARK, 0, 0, 10, 10, 0.5, outOfBounds, (byte) 42);
+    }
+
+    private Particle at(final double x, final double y) {
+        final Particle p = new Particle();
+        p.getPosition().setX(x);
+        p.getPosition().setY(y);
+        return p;
+    }
+
+    @Test
+    public void testRasterMatchesSource() {
+        final RasterNavigationMap map = raster(OutOfBounds.FAIL);
+        assertEquals(20, map.getColumns());
+        assertEquals(20, map.getRows());
+        for (double x = 0.1; x < 10; x += 0.5) {
+            for (double y = 0.1; y < 10; y += 0.5) {
+                final Particle p = at(x, y);
+                assertEquals(HALF_DARK.getExpectedSensorValue(p).getBrightness(),
+                             map.getExpectedSensorValue(p).getBrightness());
+            }
+        }
+    }
+
+    @Test
+    public void testClamp() {
+        final RasterNavigationMap map = raster(OutOfBounds.CLAMP);
+        assertEquals(0, map.getBrightness(-100, 5));
+        assertEquals(100, map.getBrightness(100, -5));
+    }
+
+    @Test
+    public void testConstant() {
+        final RasterNavigationMap map = raster(OutOfBounds.CONSTANT);
+        assertEquals(42, map.getBrightness(-1, 5));
+        assertEquals(42, map.getBrightness(5, 10));
+        assertEquals(42, map.getBrightness(Double.NaN, 5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFail() {
+        raster(OutOfBounds.FAIL).getBrightness(10, 5);
+    }
+}
@@ -0,0 +1,256 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package no.rmz.robotic.particlefilter.delivery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.particlefilter.delivery.DeliveryMode;
+import no.rmz.robotics.particlefilter.delivery.ParticleFieldPublisher;
+import no.rmz.robotics.particlefilter.delivery.ParticleFieldSnapshot;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class ParticleFieldPublisherTest {
+
+    private final static int NO_OF_ROUNDS = 100;
+
+    private final static long TIMEOUT_SECONDS = 30;
+
+    /**
+     * Records what it's given, taking its time over every snapshot.
+     */
+    private final static class RecordingSubscriber implements Flow.Subscriber<ParticleFieldSnapshot> {
+
+        private final long millisPerSnapshot;
+
+        private final List<ParticleFieldSnapshot> received = new ArrayList<ParticleFieldSnapshot>();
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private final long initialRequest;
+
+        private volatile Throwable error;
+
+        private Flow.Subscription subscription;
+
+        RecordingSubscriber(final long millisPerSnapshot, final long initialRequest) {
+            this.millisPerSnapshot = millisPerSnapshot;
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(final ParticleFieldSnapshot snapshot) {
+            synchronized (received) {
+                received.add(snapshot);
+            }
+            if (millisPerSnapshot > 0) {
+                try {
+                    Thread.sleep(millisPerSnapshot);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+
+        List<ParticleFieldSnapshot> getReceived() {
+            synchronized (received) {
+                return new ArrayList<ParticleFieldSnapshot>(received);
+            }
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+
+    private ExecutorService executor;
+
+    private ParticleFieldPublisher publisher;
+
+    private ParticleStore store;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        publisher = new ParticleFieldPublisher(executor, 128);
+        store = new ParticleStore("store", 10, 0.1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Publish both as a filter's consumer and directly from the store.
+     */
+    private void publishRounds(final int noOfRounds) {
+        for (int i = 0; i < noOfRounds; i++) {
+            store.setX(0, i);
+            if (i % 2 == 0) {
+                publisher.consumeParticles(store.asPool());
+            } else {
+                publisher.publish(store);
+            }
+        }
+    }
+
+    @Test
+    public void testSlowSubscribersDontSlowDownPublishing() throws InterruptedException {
+        final RecordingSubscriber slow = new RecordingSubscriber(1000, Long.MAX_VALUE);
+        publisher.subscribe(slow, DeliveryMode.LATEST);
+        final RecordingSubscriber alsoSlow = new RecordingSubscriber(1000, Long.MAX_VALUE);
+        publisher.subscribe(alsoSlow, DeliveryMode.BUFFERED);
+
+        final long before = System.nanoTime();
+        publishRounds(NO_OF_ROUNDS);
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+        assertTrue("Took " + elapsedMillis + " ms", elapsedMillis < 500);
+    }
+
+    @Test
+    public void testLatestConflates() throws InterruptedException {
+        final RecordingSubscriber subscriber = new RecordingSubscriber(5, Long.MAX_VALUE);
+        publisher.subscribe(subscriber, DeliveryMode.LATEST);
+        publishRounds(NO_OF_ROUNDS);
+        publisher.close();
+        subscriber.await();
+
+        assertNull(subscriber.error);
+        final List<ParticleFieldSnapshot> received = subscriber.getReceived();
+        assertTrue(received.size() < NO_OF_ROUNDS);
+        final ParticleFieldSnapshot last = received.get(received.size() - 1);
+        assertEquals(NO_OF_ROUNDS - 1, last.getSequenceNumber());
+        assertEquals(NO_OF_ROUNDS - 1, last.getX(0), 0.0);
+        for (int i = 1; i < received.size(); i++) {
+            assertTrue(received.get(i).getSequenceNumber() > received.get(i - 1).getSequenceNumber());
+        }
+    }
+
+    @Test
+    public void testBufferedDeliversEverythingInOrder() throws InterruptedException {
+        final RecordingSubscriber subscriber = new RecordingSubscriber(0, 1);
+        publisher.subscribe(new Flow.Subscriber<ParticleFieldSnapshot>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(final Flow.Subscription s) {
+                subscription = s;
+                subscriber.onSubscribe(s);
+            }
+
+            @Override
+            public void onNext(final ParticleFieldSnapshot snapshot) {
+                subscriber.onNext(snapshot);
+                // One at a time, as a careful consumer would.
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(final Throwable throwable) {
+                subscriber.onError(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                subscriber.onComplete();
+            }
+        }, DeliveryMode.BUFFERED);
+        publishRounds(NO_OF_ROUNDS);
+        publisher.close();
+        subscriber.await();
+
+        assertNull(subscriber.error);
+        final List<ParticleFieldSnapshot> received = subscriber.getReceived();
+        assertEquals(NO_OF_ROUNDS, received.size());
+        for (int i = 0; i < NO_OF_ROUNDS; i++) {
+            assertEquals(i, received.get(i).getSequenceNumber());
+            assertEquals(i, received.get(i).getX(0), 0.0);
+            assertEquals(10, received.get(i).getSize());
+        }
+        assertEquals(0, publisher.getNoOfSubscribers());
+    }
+
+    @Test
+    public void testBufferOverflowIsAnError() throws InterruptedException {
+        final ParticleFieldPublisher small = new ParticleFieldPublisher(executor, 4);
+        // Never requests anything, so the buffer fills up.
+        final RecordingSubscriber subscriber = new RecordingSubscriber(0, 0);
+        small.subscribe(new Flow.Subscriber<ParticleFieldSnapshot>() {
+            @Override
+            public void onSubscribe(final Flow.Subscription s) {
+            }
+
+            @Override
+            public void onNext(final ParticleFieldSnapshot snapshot) {
+                subscriber.onNext(snapshot);
+            }
+
+            @Override
+            public void onError(final Throwable throwable) {
+                subscriber.onError(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                subscriber.onComplete();
+            }
+        }, DeliveryMode.BUFFERED);
+        for (int i = 0; i < 5; i++) {
+            small.publish(store);
+        }
+        subscriber.await();
+
+        assertTrue(subscriber.error instanceof IllegalStateException);
+        assertTrue(subscriber.getReceived().isEmpty());
+        assertEquals(0, small.getNoOfSubscribers());
+    }
+
+    @Test
+    public void testNonPositiveRequestIsAnError() throws InterruptedException {
+        final RecordingSubscriber subscriber = new RecordingSubscriber(0, 0);
+        publisher.subscribe(subscriber);
+        subscriber.await();
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+}
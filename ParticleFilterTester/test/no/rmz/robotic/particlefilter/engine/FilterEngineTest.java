@@ -0,0 +1,243 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package no.rmz.robotic.particlefilter.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import no.rmz.robotics.arrays.WeightedPool;
+import no.rmz.robotics.particlefilter.NavigationMap;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.ParticleFieldConsumer;
+import no.rmz.robotics.particlefilter.ParticleFilter;
+import no.rmz.robotics.particlefilter.engine.FilterEngine;
+import no.rmz.robotics.particlefilter.engine.FilterHandle;
+import no.rmz.robotics.sensors.SensorInput;
+import no.rmz.robotics.sensors.SurfaceReflectedLightSensor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class FilterEngineTest {
+
+    private final static int NO_OF_FILTERS = 50;
+
+    private final static int NO_OF_PARTICLES = 300;
+
+    private final static int NO_OF_ROUNDS = 20;
+
+    private final static long TIMEOUT_SECONDS = 30;
+
+    private final static NavigationMap MAP = new NavigationMap() {
+        @Override
+        public SensorInput getExpectedSensorValue(final Particle p) {
+            return new SensorInput((byte) p.getPosition().getX(), null);
+        }
+    };
+
+    private final static ParticleFieldConsumer CONSUMER = new ParticleFieldConsumer() {
+        @Override
+        public void consumeParticles(final WeightedPool pool) {
+        }
+    };
+
+    private FilterEngine engine;
+
+    @Before
+    public void setUp() {
+        engine = new FilterEngine(4);
+    }
+
+    @After
+    public void tearDown() {
+        engine.close();
+    }
+
+    private static ParticleFilter newFilter() {
+        final SurfaceReflectedLightSensor sensor = new SurfaceReflectedLightSensor();
+        return new ParticleFilter(NO_OF_PARTICLES, sensor, sensor, CONSUMER, MAP);
+    }
+
+    private static void awaitRounds(final FilterHandle handle, final long noOfRounds)
+            throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (handle.getNoOfRounds() < noOfRounds) {
+            assertTrue("Timed out waiting for " + handle.getName(), System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testAllFiltersGetTheirTurns() throws InterruptedException {
+        // A single thread, held until every filter is queued, so that the
+        // order of the rounds doesn't depend on how the threads are
+        // scheduled.
+        final ForkJoinPool threads = new ForkJoinPool(
+                1, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        final CountDownLatch gate = new CountDownLatch(1);
+        threads.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final FilterEngine single = new FilterEngine(threads);
+        try {
+            final List<Integer> turns = Collections.synchronizedList(new ArrayList<Integer>());
+            for (int i = 0; i < NO_OF_FILTERS; i++) {
+                final int index = i;
+                final SurfaceReflectedLightSensor sensor = new SurfaceReflectedLightSensor();
+                single.add("robot" + i, new ParticleFilter(
+                        NO_OF_PARTICLES, sensor, sensor,
+                        new ParticleFieldConsumer() {
+                            @Override
+                            public void consumeParticles(final WeightedPool pool) {
+                                turns.add(index);
+                            }
+                        },
+                        MAP));
+            }
+            single.startAll();
+            gate.countDown();
+            final FilterHandle last = single.getFilters().get(NO_OF_FILTERS - 1);
+            awaitRounds(last, NO_OF_ROUNDS);
+            single.stopAll();
+            assertTrue(single.awaitIdle(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+            // Round robin: every filter has had a round before anybody
+            // gets the next one.
+            synchronized (turns) {
+                assertTrue(turns.size() >= NO_OF_FILTERS * NO_OF_ROUNDS);
+                for (int i = 0; i < NO_OF_FILTERS * NO_OF_ROUNDS; i++) {
+                    assertEquals("turn " + i, i % NO_OF_FILTERS, (int) turns.get(i));
+                }
+            }
+
+            long sum = 0;
+            for (final FilterHandle handle : single.getFilters()) {
+                assertFalse(handle.isRunning());
+                assertNull(handle.getFailure());
+                sum += handle.getNoOfRounds();
+            }
+            assertEquals(turns.size(), sum);
+            assertEquals(sum, single.getNoOfRounds());
+            assertTrue(single.getRoundsPerSecond() > 0);
+
+            // Stopped filters stay stopped.
+            Thread.sleep(10);
+            assertEquals(sum, single.getNoOfRounds());
+        } finally {
+            single.close();
+            threads.shutdown();
+        }
+    }
+
+    @Test
+    public void testStopAndRestartOneFilter() throws InterruptedException {
+        final FilterHandle a = engine.add("a", newFilter());
+        final FilterHandle b = engine.add("b", newFilter());
+        a.start();
+        b.start();
+        awaitRounds(a, 1);
+
+        a.stop();
+        assertTrue(a.awaitIdle(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        final long stoppedAt = a.getNoOfRounds();
+        awaitRounds(b, b.getNoOfRounds() + NO_OF_ROUNDS);
+        assertEquals(stoppedAt, a.getNoOfRounds());
+
+        a.start();
+        awaitRounds(a, stoppedAt + NO_OF_ROUNDS);
+        assertTrue(a.getMeanRoundNanos() > 0);
+    }
+
+    @Test
+    public void testFailureStopsOnlyThatFilter() throws InterruptedException {
+        final SurfaceReflectedLightSensor sensor = new SurfaceReflectedLightSensor();
+        final ParticleFilter broken = new ParticleFilter(
+                NO_OF_PARTICLES, sensor, sensor,
+                new ParticleFieldConsumer() {
+                    @Override
+                    public void consumeParticles(final WeightedPool pool) {
+                        throw new IllegalStateException("broken consumer");
+                    }
+                },
+                MAP);
+        final FilterHandle bad = engine.add("bad", broken);
+        final FilterHandle good = engine.add("good", newFilter());
+        engine.startAll();
+        awaitRounds(good, NO_OF_ROUNDS);
+
+        assertFalse(bad.isRunning());
+        assertTrue(bad.isIdle());
+        assertEquals(1, bad.getNoOfRounds());
+        assertTrue(bad.getFailure() instanceof IllegalStateException);
+        assertTrue(good.isRunning());
+    }
+
+    @Test
+    public void testErrorStopsOnlyThatFilter() throws InterruptedException {
+        final FilterEngine single = new FilterEngine(1);
+        try {
+            final SurfaceReflectedLightSensor sensor = new SurfaceReflectedLightSensor();
+            final ParticleFilter broken = new ParticleFilter(
+                    NO_OF_PARTICLES, sensor, sensor,
+                    new ParticleFieldConsumer() {
+                        @Override
+                        public void consumeParticles(final WeightedPool pool) {
+                            throw new AssertionError("broken consumer");
+                        }
+                    },
+                    MAP);
+            final FilterHandle bad = single.add("bad", broken);
+            final FilterHandle good = single.add("good", newFilter());
+            single.startAll();
+            awaitRounds(good, NO_OF_ROUNDS);
+
+            assertFalse(bad.isRunning());
+            assertTrue(bad.isIdle());
+            assertTrue(bad.getFailure() instanceof AssertionError);
+            single.stopAll();
+            assertTrue(single.awaitIdle(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } finally {
+            single.close();
+        }
+    }
+
+    @Test
+    public void testCloseKeepsTheInterrupt() throws InterruptedException {
+        engine.add("a", newFilter()).start();
+        Thread.currentThread().interrupt();
+        engine.close();
+        assertTrue(Thread.interrupted());
+        assertTrue(engine.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAwaitTerminationNeedsClose() throws InterruptedException {
+        engine.awaitTermination(1, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package no.rmz.robotic.particlefilter.geometry;
+
+import java.util.Random;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.particlefilter.ScalarColumnKernels;
+import no.rmz.robotics.particlefilter.geometry.GeometryMath;
+import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
+import no.rmz.robotics.particlefilter.geometry.XYPair;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class GeometryMathTest {
+
+    private final static int NO_OF_SAMPLES = 100000;
+
+    private final static double TRIG_ERROR = 3e-7;
+
+    private final static double ATAN_ERROR = 1e-7;
+
+    @Test
+    public void testSinCosErrorBound() {
+        final Random random = new Random(3);
+        final double[] sinCos = new double[2];
+        for (int i = 0; i < NO_OF_SAMPLES; i++) {
+            final double theta = (random.nextDouble() - 0.5) * 2e6;
+            assertEquals(Math.sin(theta), GeometryMath.sin(theta), TRIG_ERROR);
+            assertEquals(Math.cos(theta), GeometryMath.cos(theta), TRIG_ERROR);
+            GeometryMath.sinCos(theta, sinCos);
+            assertEquals(GeometryMath.sin(theta), sinCos[0], 0.0);
+            assertEquals(GeometryMath.cos(theta), sinCos[1], 0.0);
+        }
+    }
+
+    @Test
+    public void testAtan2ErrorBound() {
+        final Random random = new Random(5);
+        for (int i = 0; i < NO_OF_SAMPLES; i++) {
+            final double x = random.nextGaussian() * Math.pow(10, random.nextInt(6) - 3);
+            final double y = random.nextGaussian() * Math.pow(10, random.nextInt(6) - 3);
+            assertEquals(Math.atan2(y, x), GeometryMath.atan2(y, x), ATAN_ERROR);
+        }
+        assertEquals(0.0, GeometryMath.atan2(0, 0), 0.0);
+        assertEquals(Math.PI / 2, GeometryMath.atan2(1, 0), ATAN_ERROR);
+        assertEquals(-Math.PI / 2, GeometryMath.atan2(-1, 0), ATAN_ERROR);
+        assertEquals(Math.PI, GeometryMath.atan2(0, -1), ATAN_ERROR);
+    }
+
+    private static void assertPolarRoundTrip(final double theta, final boolean fast) {
+        final XYPair point = new XYPair(0, 0);
+        final PolarCoordinate polar = new PolarCoordinate(0, 0);
+        if (fast) {
+            point.moveFast(new PolarCoordinate(theta, 2));
+            point.copyToPolarFast(polar);
+        } else {
+            point.move(new PolarCoordinate(theta, 2));
+            point.copyToPolar(polar);
+        }
+        assertEquals(2.0, polar.getRadius(), 1e-6);
+        assertEquals(theta, polar.getTheta(), 1e-6);
+    }
+
+    @Test
+    public void testCopyToPolarInAllQuadrants() {
+        for (final double theta : new double[]{0.3, 2.0, -2.0, -0.3}) {
+            assertPolarRoundTrip(theta, false);
+            assertPolarRoundTrip(theta, true);
+        }
+    }
+
+    @Test
+    public void testFastMoveIsCloseToExactMove() {
+        final PolarCoordinate speed = new PolarCoordinate(1.234, 10);
+        final XYPair exact = new XYPair(1, 1);
+        exact.move(speed);
+
+        final XYPair fast = new XYPair(1, 1);
+        fast.moveFast(speed);
+        assertEquals(exact.getX(), fast.getX(), 10 * TRIG_ERROR);
+        assertEquals(exact.getY(), fast.getY(), 10 * TRIG_ERROR);
+        assertEquals(exact.getX() - 1, speed.getXcoordFast(), 10 * TRIG_ERROR);
+        assertEquals(exact.getY() - 1, speed.getYcoordFast(), 10 * TRIG_ERROR);
+    }
+
+    @Test
+    public void testFastKernelsDontChangeOtherKernels() {
+        final ScalarColumnKernels fastKernels = new ScalarColumnKernels(true);
+        final ScalarColumnKernels exactKernels = new ScalarColumnKernels();
+        assertTrue(fastKernels.isFastTrigonometry());
+        assertFalse(exactKernels.isFastTrigonometry());
+
+        final ParticleStore fast = new ParticleStore("fast", 100, 1.0);
+        final ParticleStore exact = new ParticleStore("exact", 100, 1.0);
+        fastKernels.applyMovement(fast, 0, 100, 1.234, 10);
+        exactKernels.applyMovement(exact, 0, 100, 1.234, 10);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(10 * Math.cos(1.234), exact.getX(i), 0.0);
+            assertEquals(10 * Math.sin(1.234), exact.getY(i), 0.0);
+            assertEquals(exact.getX(i), fast.getX(i), 10 * TRIG_ERROR);
+            assertEquals(exact.getY(i), fast.getY(i), 10 * TRIG_ERROR);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package no.rmz.robotic.particlefilter.parallel;
+
+import java.util.concurrent.ForkJoinPool;
+import no.rmz.robotics.particlefilter.NavigationMap;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.particlefilter.SequentialParticleWeigher;
+import no.rmz.robotics.particlefilter.ThreadSafe;
+import no.rmz.robotics.particlefilter.parallel.ForkJoinParticleWeigher;
+import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
+import no.rmz.robotics.sensors.SensorInput;
+import no.rmz.robotics.sensors.SurfaceReflectedLightSensor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class ForkJoinParticleWeigherTest {
+
+    private final static int NO_OF_PARTICLES = 100000;
+
+    private final static double DELTA = 0.000001;
+
+    /**
+     * A map where the brightness is a function of the x coordinate.
+     */
+    private final static class StripedMap implements NavigationMap, ThreadSafe {
+        @Override
+        public SensorInput getExpectedSensorValue(final Particle p) {
+            final byte brightness = (byte) ((int) p.getPosition().getX() % 128);
+            return new SensorInput(brightness, null);
+        }
+    }
+
+    private ForkJoinPool pool;
+    private ParticleStore sequentialStore;
+    private ParticleStore parallelStore;
+
+    @Before
+    public void setUp() {
+        pool = new ForkJoinPool(4);
+        sequentialStore = new ParticleStore("sequential", NO_OF_PARTICLES, 1.0);
+        parallelStore = new ParticleStore("parallel", NO_OF_PARTICLES, 1.0);
+        for (int i = 0; i < NO_OF_PARTICLES; i++) {
+            sequentialStore.setX(i, i);
+            parallelStore.setX(i, i);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testParallelWeightsEqualSequentialWeights() {
+        final StripedMap map = new StripedMap();
+        final SurfaceReflectedLightSensor model = new SurfaceReflectedLightSensor();
+        final SensorInput actual = new SensorInput((byte) 17, new PolarCoordinate(0, 0));
+
+        final double sequentialSum =
+                new SequentialParticleWeigher().weigh(sequentialStore, map, model, actual);
+        final double parallelSum =
+                new ForkJoinParticleWeigher(pool).weigh(parallelStore, map, model, actual);
+
+        assertEquals(sequentialSum, parallelSum, DELTA);
+        for (int i = 0; i < NO_OF_PARTICLES; i++) {
+            assertEquals(sequentialStore.getWeight(i), parallelStore.getWeight(i), 0.0);
+        }
+    }
+
+    @Test
+    public void testParallelLogWeightsEqualSequentialLogWeights() {
+        final StripedMap map = new StripedMap();
+        final SurfaceReflectedLightSensor model = new SurfaceReflectedLightSensor();
+        final SensorInput actual = new SensorInput((byte) 17, new PolarCoordinate(0, 0));
+
+        final double sequentialLogSum =
+                new SequentialParticleWeigher().weighLog(sequentialStore, map, model, actual);
+        final double parallelLogSum =
+                new ForkJoinParticleWeigher(pool).weighLog(parallelStore, map, model, actual);
+
+        assertEquals(sequentialLogSum, parallelLogSum, DELTA);
+        for (int i = 0; i < NO_OF_PARTICLES; i++) {
+            assertEquals(sequentialStore.getWeight(i), parallelStore.getWeight(i), 0.0);
+        }
+    }
+
+    @Test
+    public void testCloseShutsDownOwnedPoolOnly() {
+        final ForkJoinParticleWeigher owning = new ForkJoinParticleWeigher(2);
+        owning.close();
+        assertTrue(owning.getPool().isShutdown());
+
+        final ForkJoinParticleWeigher sharing = new ForkJoinParticleWeigher(pool);
+        sharing.close();
+        assertFalse(pool.isShutdown());
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package no.rmz.robotic.particlefilter.pipeline;
+
+import no.rmz.robotics.arrays.WeightedPool;
+import no.rmz.robotics.particlefilter.NavigationMap;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.ParticleFieldConsumer;
+import no.rmz.robotics.particlefilter.ParticleFilter;
+import no.rmz.robotics.particlefilter.pipeline.PipelinedFilterRunner;
+import no.rmz.robotics.sensors.BufferedSensor;
+import no.rmz.robotics.sensors.SensorInput;
+import no.rmz.robotics.sensors.SurfaceReflectedLightSensor;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class PipelinedFilterRunnerTest {
+
+    private final static int NO_OF_PARTICLES = 500;
+
+    private final static int NO_OF_ROUNDS = 20;
+
+    /**
+     * How long the sensor, the sensor model and the consumer each take.
+     */
+    private final static long STAGE_MILLIS = 20;
+
+    private final static long TIMEOUT_MILLIS = 30000;
+
+    private final static NavigationMap MAP = new NavigationMap() {
+        @Override
+        public SensorInput getExpectedSensorValue(final Particle p) {
+            return new SensorInput((byte) p.getPosition().getX(), null);
+        }
+    };
+
+    /**
+     * Which stages are in the middle of their slow part, and which of
+     * them have been seen doing that at the same time.  A stage sets its
+     * own flag before looking at the others', so two stages that overlap
+     * can't both miss each other.
+     */
+    private final static class Stages {
+        private volatile boolean sensing;
+        private volatile boolean computing;
+        private volatile boolean delivering;
+        private volatile boolean senseOverlappedCompute;
+        private volatile boolean computeOverlappedDelivery;
+
+        void sense() {
+            sensing = true;
+            if (computing) {
+                senseOverlappedCompute = true;
+            }
+            sleep();
+            sensing = false;
+        }
+
+        void compute() {
+            computing = true;
+            if (sensing) {
+                senseOverlappedCompute = true;
+            }
+            if (delivering) {
+                computeOverlappedDelivery = true;
+            }
+            sleep();
+            computing = false;
+        }
+
+        void deliver() {
+            delivering = true;
+            if (computing) {
+                computeOverlappedDelivery = true;
+            }
+            sleep();
+            delivering = false;
+        }
+    }
+
+    /**
+     * A sensor that takes a while, like one doing I/O.
+     */
+    private final static class SlowSensor implements BufferedSensor {
+        private final Stages stages;
+
+        SlowSensor(final Stages stages) {
+            this.stages = stages;
+        }
+
+        @Override
+        public SensorInput sense() {
+            final SensorInput input = new SensorInput();
+            sense(input);
+            return input;
+        }
+
+        @Override
+        public void sense(final SensorInput destination) {
+            stages.sense();
+            destination.setBrightness((byte) 17);
+            destination.getSpeed().setTheta(0.01);
+            destination.getSpeed().setRadius(1.0);
+        }
+    }
+
+    /**
+     * A consumer that takes a while, and checks that it's given every
+     * particle.
+     */
+    private final static class SlowConsumer implements ParticleFieldConsumer {
+        private final Stages stages;
+
+        private volatile int lastSize;
+
+        SlowConsumer(final Stages stages) {
+            this.stages = stages;
+        }
+
+        @Override
+        public void consumeParticles(final WeightedPool pool) {
+            lastSize = pool.getSize();
+            stages.deliver();
+        }
+    }
+
+    /**
+     * A sensor model that takes a while when the filter weighs its
+     * particles, so that the compute stage can be seen.
+     */
+    private final static class SlowSensorModel extends SurfaceReflectedLightSensor {
+        private final Stages stages;
+
+        SlowSensorModel(final Stages stages) {
+            this.stages = stages;
+        }
+
+        @Override
+        public void fillLikelihoodTable(final SensorInput actualSensorInput, final double[] table) {
+            stages.compute();
+            super.fillLikelihoodTable(actualSensorInput, table);
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(STAGE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitDeliveries(final PipelinedFilterRunner runner, final long n)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (runner.getNoOfDeliveries() < n) {
+            assertNull(runner.getFailure());
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testStagesOverlap() throws InterruptedException {
+        final Stages stages = new Stages();
+        final SlowConsumer consumer = new SlowConsumer(stages);
+        final ParticleFilter filter = new ParticleFilter(
+                NO_OF_PARTICLES, new SlowSensor(stages), new SlowSensorModel(stages), consumer, MAP);
+        final PipelinedFilterRunner runner = new PipelinedFilterRunner(filter);
+
+        runner.start();
+        awaitDeliveries(runner, NO_OF_ROUNDS);
+        runner.close();
+
+        // In sequence, no two stages would ever be busy at the same time.
+        assertTrue(stages.senseOverlappedCompute);
+        assertTrue(stages.computeOverlappedDelivery);
+        assertEquals(NO_OF_PARTICLES, consumer.lastSize);
+        assertFalse(runner.isRunning());
+        assertNull(runner.getFailure());
+
+        // The queues are bounded: at most one queued reading, one round,
+        // one queued result and one delivery are in flight.
+        assertTrue(runner.getNoOfReadings() - runner.getNoOfDeliveries() <= 4);
+    }
+
+    @Test
+    public void testFailureStopsThePipeline() throws InterruptedException {
+        final ParticleFilter filter = new ParticleFilter(
+                NO_OF_PARTICLES, new SlowSensor(new Stages()), new SurfaceReflectedLightSensor(),
+                new ParticleFieldConsumer() {
+                    @Override
+                    public void consumeParticles(final WeightedPool pool) {
+                        throw new IllegalStateException("broken consumer");
+                    }
+                },
+                MAP);
+        final PipelinedFilterRunner runner = new PipelinedFilterRunner(filter, 2, 2);
+        runner.start();
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (runner.getFailure() == null) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        runner.stop();
+        assertTrue(runner.getFailure() instanceof IllegalStateException);
+        assertFalse(runner.isRunning());
+    }
+
+    @Test
+    public void testErrorStopsThePipeline() throws InterruptedException {
+        final ParticleFilter filter = new ParticleFilter(
+                NO_OF_PARTICLES, new SlowSensor(new Stages()), new SurfaceReflectedLightSensor(),
+                new ParticleFieldConsumer() {
+                    @Override
+                    public void consumeParticles(final WeightedPool pool) {
+                        throw new AssertionError("broken consumer");
+                    }
+                },
+                MAP);
+        final PipelinedFilterRunner runner = new PipelinedFilterRunner(filter, 2, 2);
+        runner.start();
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (runner.getFailure() == null) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        runner.stop();
+        assertTrue(runner.getFailure() instanceof AssertionError);
+        assertFalse(runner.isRunning());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQueuesMustHaveRoom() {
+        final SurfaceReflectedLightSensor sensor = new SurfaceReflectedLightSensor();
+        new PipelinedFilterRunner(
+                new ParticleFilter(NO_OF_PARTICLES, sensor, sensor, new SlowConsumer(new Stages()), MAP), 0, 1);
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package no.rmz.robotic.particlefilter.simd;
+
+import java.util.Random;
+import no.rmz.robotics.particlefilter.ColumnKernels;
+import no.rmz.robotics.particlefilter.ColumnParticleWeigher;
+import no.rmz.robotics.particlefilter.NavigationMap;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.particlefilter.ScalarColumnKernels;
+import no.rmz.robotics.particlefilter.SequentialParticleWeigher;
+import no.rmz.robotics.particlefilter.geometry.PolarCoordinate;
+import no.rmz.robotics.particlefilter.simd.ColumnKernelsFactory;
+import no.rmz.robotics.sensors.SensorInput;
+import no.rmz.robotics.sensors.SurfaceReflectedLightSensor;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The kernels picked by the factory, vector or scalar depending on how
+ * the JVM was started, must give the same results as the scalar ones.
+ * An odd number of particles makes sure the scalar tail is exercised.
+ */
+public final class ColumnKernelsTest {
+
+    private final static double DELTA = 0.000001;
+
+    private final static int NO_OF_PARTICLES = 1001;
+
+    private final ColumnKernels scalar = new ScalarColumnKernels();
+
+    private ColumnKernels best;
+
+    private int[] expected;
+
+    private double[] table;
+
+    @Before
+    public void setUp() {
+        best = ColumnKernelsFactory.best();
+        assertNotNull(best);
+
+        final Random random = new Random(17);
+        expected = new int[NO_OF_PARTICLES];
+        for (int i = 0; i < NO_OF_PARTICLES; i++) {
+            expected[i] = random.nextInt(256);
+        }
+        table = new double[256];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = 0.001 + random.nextDouble();
+        }
+    }
+
+    private ParticleStore newStore() {
+        final ParticleStore store = new ParticleStore("store", NO_OF_PARTICLES, 1.0);
+        final Random random = new Random(42);
+        for (int i = 0; i < NO_OF_PARTICLES; i++) {
+            store.setX(i, random.nextDouble() * 100);
+            store.setY(i, random.nextDouble() * 100);
+            store.setTheta(i, random.nextDouble() * 2 * Math.PI);
+        }
+        return store;
+    }
+
+    @Test
+    public void testScalarKernelsWithoutTheVectorModule() {
+        Assume.assumeTrue(!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent());
+        assertTrue(best instanceof ScalarColumnKernels);
+    }
+
+    @Test
+    public void testMovementMatchesScalar() {
+        final ParticleStore a = newStore();
+        final ParticleStore b = newStore();
+        scalar.applyMovement(a, 3, NO_OF_PARTICLES, 0.3, 2.5);
+        best.applyMovement(b, 3, NO_OF_PARTICLES, 0.3, 2.5);
+        for (int i = 0; i < NO_OF_PARTICLES; i++) {
+            assertEquals(a.getX(i), b.getX(i), DELTA);
+            assertEquals(a.getY(i), b.getY(i), DELTA);
+            assertEquals(a.getTheta(i), b.getTheta(i), DELTA);
+            assertEquals(a.getRadius(i), b.getRadius(i), DELTA);
+        }
+    }
+
+    @Test
+    public void testLikelihoodsMatchScalar() {
+        final double[] a = new double[NO_OF_PARTICLES];
+        final double[] b = new double[NO_OF_PARTICLES];
+        final double sum = scalar.likelihoods(expected, 1, NO_OF_PARTICLES, table, a);
+        assertEquals(sum, best.likelihoods(expected, 1, NO_OF_PARTICLES, table, b), DELTA);
+        assertArrayEquals(a, b, 0.0);
+        assertEquals(0.0, b[0], 0.0);
+    }
+
+    @Test
+    public void testLogLikelihoodsMatchScalar() {
+        final double[] logTable = new double[table.length];
+        for (int i = 0; i < table.length; i++) {
+            logTable[i] = Math.log(table[i]) - 800;
+        }
+        final double[] a = new double[NO_OF_PARTICLES];
+        final double[] b = new double[NO_OF_PARTICLES];
+        final double logSum = scalar.logLikelihoods(expected, 0, NO_OF_PARTICLES, logTable, a);
+        assertEquals(logSum, best.logLikelihoods(expected, 0, NO_OF_PARTICLES, logTable, b), DELTA);
+        assertArrayEquals(a, b, 0.0);
+    }
+
+    @Test
+    public void testColumnWeigherMatchesSequentialWeigher() {
+        final NavigationMap map = new NavigationMap() {
+            @Override
+            public SensorInput getExpectedSensorValue(final Particle p) {
+                final byte brightness = (byte) ((int) p.getPosition().getX() % 128);
+                return new SensorInput(brightness, null);
+            }
+        };
+        final SurfaceReflectedLightSensor model = new SurfaceReflectedLightSensor();
+        final SensorInput actual = new SensorInput((byte) 17, new PolarCoordinate(0, 0));
+        final ParticleStore a = newStore();
+        final ParticleStore b = newStore();
+
+        final double sum = new SequentialParticleWeigher().weigh(a, map, model, actual);
+        assertEquals(sum, new ColumnParticleWeigher(best).weigh(b, map, model, actual), DELTA);
+        for (int i = 0; i < NO_OF_PARTICLES; i++) {
+            assertEquals(a.getWeight(i), b.getWeight(i), DELTA);
+        }
+
+        final double logSum = new SequentialParticleWeigher().weighLog(a, map, model, actual);
+        assertEquals(logSum, new ColumnParticleWeigher(best).weighLog(b, map, model, actual), DELTA);
+        for (int i = 0; i < NO_OF_PARTICLES; i++) {
+            assertEquals(a.getWeight(i), b.getWeight(i), DELTA);
+        }
+    }
+}
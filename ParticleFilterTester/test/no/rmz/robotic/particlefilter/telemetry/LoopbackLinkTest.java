@@ -0,0 +1,70 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package no.rmz.robotic.particlefilter.telemetry;
+
+import java.util.concurrent.TimeUnit;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.particlefilter.telemetry.BatchingFrameTransport;
+import no.rmz.robotics.particlefilter.telemetry.LoopbackLink;
+import no.rmz.robotics.telemetry.BeliefFrameEncoder;
+import no.rmz.robotics.telemetry.BeliefFrameFormat;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class LoopbackLinkTest {
+
+    private final static int N = 200;
+
+    private final static int FRAMES = 50;
+
+    @Test
+    public void testFramesArriveDecoded() throws Exception {
+        final ParticleStore store = new ParticleStore("sent", N, 1.0 / N);
+        for (int i = 0; i < N; i++) {
+            store.setX(i, i);
+            store.setY(i, 2 * i);
+        }
+        final BeliefFrameEncoder encoder = new BeliefFrameEncoder(N, 0.01, 10);
+        final LoopbackLink link = new LoopbackLink(N, 16 * 1024, 8);
+        try {
+            final BatchingFrameTransport transport = link.getTransport();
+            for (int frame = 0; frame < FRAMES; frame++) {
+                for (int i = 0; i < N; i++) {
+                    store.setX(i, store.getX(i) + 0.02);
+                }
+                transport.send(encoder, store);
+            }
+            transport.flush();
+            assertTrue(link.awaitFrames(FRAMES, 10, TimeUnit.SECONDS));
+            assertNull(link.getFailure());
+            assertEquals(FRAMES - 1, link.getLastSequenceNumber());
+            assertEquals(transport.getNoOfBytes(), link.getNoOfBytesReceived());
+            assertTrue(transport.getNoOfWrites() < FRAMES);
+            assertEquals(5, link.getDecoder().getNoOfKeyFrames());
+
+            // Delta frames keep the average well below a key frame.
+            assertTrue(transport.getBytesPerFrame() < BeliefFrameFormat.getMaxFrameSize(N));
+
+            final ParticleStore received = link.getReceivedParticles();
+            assertEquals(N, received.getSize());
+            assertEquals(store.getX(N - 1), received.getX(N - 1), 0.01);
+            assertEquals(store.getY(N - 1), received.getY(N - 1), 0.01);
+        } finally {
+            link.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package no.rmz.robotic.particlefilter.tiled;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import no.rmz.robotics.particlefilter.NavigationMap;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.tiled.TiledMapWriter;
+import no.rmz.robotics.particlefilter.tiled.TiledNavigationMap;
+import no.rmz.robotics.sensors.SensorInput;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class TiledNavigationMapTest {
+
+    /**
+     * A map where the brightness is the cell's column plus its row.
+     */
+    private final static NavigationMap GRADIENT = new NavigationMap() {
+        @Override
+        public SensorInput getExpectedSensorValue(final Particle p) {
+            final int column = (int) p.getPosition().getX();
+            final int row = (int) p.getPosition().getY();
+            return new SensorInput((byte) (column + row), null);
+        }
+    };
+
+    private final static int CACHE_CAPACITY = 3;
+
+    private File file;
+
+    private TiledNavigationMap map;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("tiledmap", ".nxtm");
+        // 50 x 30 cells in 8 x 8 tiles, so the edge tiles are padded.
+        TiledMapWriter.write(file, GRADIENT, 0, 0, 50, 30, 1.0, 8, (byte) -1);
+        map = new TiledNavigationMap(file, CACHE_CAPACITY);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        map.close();
+        file.delete();
+    }
+
+    @Test
+    public void testMapMatchesSource() {
+        assertEquals(50, map.getColumns());
+        assertEquals(30, map.getRows());
+        for (int column = 0; column < 50; column++) {
+            for (int row = 0; row < 30; row++) {
+                assertEquals((byte) (column + row), map.getBrightness(column + 0.5, row + 0.5));
+            }
+        }
+    }
+
+    @Test
+    public void testOutsideBrightness() {
+        assertEquals(-1, map.getBrightness(-0.5, 3));
+        assertEquals(-1, map.getBrightness(3, 30.5));
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        for (int column = 0; column < 50; column++) {
+            for (int row = 0; row < 30; row++) {
+                map.getBrightness(column, row);
+                assertTrue("Too many cached tiles", map.getNoOfCachedTiles() <= CACHE_CAPACITY);
+            }
+        }
+    }
+
+    @Test
+    public void testHotTileIsLoadedOnce() {
+        for (int i = 0; i < 100; i++) {
+            map.getBrightness(1, 1);
+            map.getBrightness(20, 20);
+        }
+        assertEquals(2, map.getNoOfTileLoads());
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeInt(0xCAFEBABE);
+        raf.close();
+        new TiledNavigationMap(file, CACHE_CAPACITY);
+    }
+}
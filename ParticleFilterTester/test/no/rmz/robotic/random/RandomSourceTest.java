@@ -0,0 +1,101 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package no.rmz.robotic.random;
+
+import no.rmz.robotics.random.RandomSource;
+import no.rmz.robotics.random.Xoroshiro128PlusRandom;
+import no.rmz.robotics.random.ZigguratGaussian;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class RandomSourceTest {
+
+    private final static int NO_OF_SAMPLES = 1000000;
+
+    @Test
+    public void testSeededSourcesRepeat() {
+        final RandomSource a = new Xoroshiro128PlusRandom(42);
+        final RandomSource b = new Xoroshiro128PlusRandom(42);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(a.nextLong(), b.nextLong());
+        }
+    }
+
+    @Test
+    public void testSplitsDiffer() {
+        final RandomSource a = new Xoroshiro128PlusRandom(42);
+        final RandomSource b = a.split();
+        int noOfEqual = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (a.nextLong() == b.nextLong()) {
+                noOfEqual++;
+            }
+        }
+        assertEquals(0, noOfEqual);
+    }
+
+    @Test
+    public void testUniformNumbersAreInRange() {
+        final RandomSource randomness = new Xoroshiro128PlusRandom(1);
+        final int[] counts = new int[10];
+        double sum = 0;
+        for (int i = 0; i < NO_OF_SAMPLES; i++) {
+            final double u = randomness.nextDouble();
+            assertTrue(u >= 0.0 && u < 1.0);
+            sum += u;
+            counts[randomness.nextInt(counts.length)]++;
+        }
+        assertEquals(0.5, sum / NO_OF_SAMPLES, 0.002);
+        for (int count : counts) {
+            assertEquals(0.1, (double) count / NO_OF_SAMPLES, 0.002);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveBound() {
+        new Xoroshiro128PlusRandom(1).nextInt(0);
+    }
+
+    @Test
+    public void testZigguratIsStandardNormal() {
+        final RandomSource randomness = new Xoroshiro128PlusRandom(7);
+        final double[] samples = new double[NO_OF_SAMPLES];
+        ZigguratGaussian.fill(randomness, samples, 0, NO_OF_SAMPLES, 2.0);
+
+        double sum = 0;
+        double sumOfSquares = 0;
+        int withinOne = 0;
+        int inTail = 0;
+        for (final double sample : samples) {
+            final double x = sample / 2.0;
+            sum += x;
+            sumOfSquares += x * x;
+            if (Math.abs(x) < 1.0) {
+                withinOne++;
+            }
+            if (Math.abs(x) > 3.5) {
+                inTail++;
+            }
+        }
+        assertEquals(0.0, sum / NO_OF_SAMPLES, 0.005);
+        assertEquals(1.0, sumOfSquares / NO_OF_SAMPLES, 0.005);
+        // P(|x| < 1) = 0.6827 and P(|x| > 3.5) = 0.000465
+        assertEquals(0.6827, (double) withinOne / NO_OF_SAMPLES, 0.002);
+        assertEquals(465, inTail, 100);
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package no.rmz.robotic.sensors;
+
+import no.rmz.robotics.particlefilter.NavigationMap;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.particlefilter.SequentialParticleWeigher;
+import no.rmz.robotics.sensors.SensorInput;
+import no.rmz.robotics.sensors.SurfaceReflectedLightSensor;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class BatchSensorModelTest {
+
+    private final SurfaceReflectedLightSensor model = new SurfaceReflectedLightSensor();
+
+    @Test
+    public void testBatchMatchesSingleCalls() {
+        final byte[] expected = new byte[256];
+        for (int b = 0; b < expected.length; b++) {
+            expected[b] = (byte) b;
+        }
+        final double[] likelihoods = new double[expected.length];
+
+        for (final byte actual : new byte[] {0, 1, 17, 127, -128, -1}) {
+            final SensorInput actualInput = new SensorInput(actual, null);
+            model.probabilitiesOfMeasuredResult(
+                    actualInput, expected, 0, expected.length, likelihoods);
+            for (int b = 0; b < expected.length; b++) {
+                final double single = model.probabilityOfMeasuredResultGivenExpectedValue(
+                        new SensorInput(expected[b], null), actualInput);
+                assertEquals(single, likelihoods[b], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testTableWeighingMatchesPerParticleWeighing() {
+        final NavigationMap map = new NavigationMap() {
+            @Override
+            public SensorInput getExpectedSensorValue(final Particle p) {
+                return new SensorInput((byte) p.getPosition().getX(), null);
+            }
+        };
+        final SensorInput actual = new SensorInput((byte) -1, null);
+        final ParticleStore byTable = new ParticleStore("table", 300, 1.0);
+        final ParticleStore perParticle = new ParticleStore("single", 300, 1.0);
+        for (int i = 0; i < 300; i++) {
+            byTable.setX(i, i);
+            perParticle.setX(i, i);
+        }
+
+        final double tableSum =
+                new SequentialParticleWeigher().weigh(byTable, map, model, actual);
+        final double perParticleSum = SequentialParticleWeigher.weighRange(
+                perParticle, 0, 300, map, model, actual,
+                SequentialParticleWeigher.newCursor(), null);
+
+        assertEquals(perParticleSum, tableSum, 0.0);
+        for (int i = 0; i < 300; i++) {
+            assertEquals(perParticle.getWeight(i), byTable.getWeight(i), 0.0);
+        }
+    }
+}
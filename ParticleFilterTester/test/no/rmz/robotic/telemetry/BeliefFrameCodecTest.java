@@ -0,0 +1,167 @@
+/**
+ *  Copyright 2012 Bjørn Remseth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package no.rmz.robotic.telemetry;
+
+import java.util.Random;
+import no.rmz.robotics.arrays.WeightedPool;
+import no.rmz.robotics.particlefilter.Particle;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.telemetry.BeliefFrameDecoder;
+import no.rmz.robotics.telemetry.BeliefFrameEncoder;
+import no.rmz.robotics.telemetry.BeliefFrameFormat;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public final class BeliefFrameCodecTest {
+
+    private final static int N = 500;
+
+    private final static double RESOLUTION = 0.01;
+
+    private ParticleStore store;
+
+    private ParticleStore received;
+
+    private byte[] frame;
+
+    private final Random random = new Random(17);
+
+    @Before
+    public void setUp() {
+        store = new ParticleStore("sent", N, 1.0 / N);
+        received = new ParticleStore("received", N, 1.0);
+        frame = new byte[BeliefFrameFormat.getMaxFrameSize(N)];
+        for (int i = 0; i < N; i++) {
+            store.setX(i, 10 + random.nextDouble() * 100);
+            store.setY(i, -20 + random.nextDouble() * 50);
+            store.setTheta(i, (random.nextDouble() - 0.5) * 2 * Math.PI);
+            store.setRadius(i, 1);
+            store.setWeight(i, random.nextDouble() / N);
+        }
+    }
+
+    private void assertReceived(final double positionError) {
+        assertEquals(store.getSize(), received.getSize());
+        double maxWeight = 0;
+        for (int i = 0; i < N; i++) {
+            maxWeight = Math.max(maxWeight, store.getWeight(i));
+        }
+        for (int i = 0; i < N; i++) {
+            assertEquals(store.getX(i), received.getX(i), positionError);
+            assertEquals(store.getY(i), received.getY(i), positionError);
+            final double dTheta = Math.IEEEremainder(store.getTheta(i) - received.getTheta(i), 2 * Math.PI);
+            assertEquals(0.0, dTheta, 2 * Math.PI / 65536);
+            assertEquals(store.getWeight(i), received.getWeight(i), maxWeight / 65535);
+        }
+    }
+
+    private void wiggle(final double step) {
+        for (int i = 0; i < N; i++) {
+            store.setX(i, store.getX(i) + (random.nextDouble() - 0.5) * step);
+            store.setY(i, store.getY(i) + (random.nextDouble() - 0.5) * step);
+        }
+    }
+
+    @Test
+    public void testKeyFrameRoundTrip() {
+        final BeliefFrameEncoder encoder = new BeliefFrameEncoder(N, RESOLUTION, 1);
+        final BeliefFrameDecoder decoder = new BeliefFrameDecoder(N);
+        final int length = encoder.encode(store, frame, 0);
+        assertEquals(BeliefFrameFormat.getMaxFrameSize(N), length);
+        assertEquals(0, decoder.decode(frame, 0, length, received));
+        assertEquals(1, decoder.getNoOfKeyFrames());
+        assertReceived(RESOLUTION);
+    }
+
+    @Test
+    public void testDeltaFramesAreSmaller() {
+        final BeliefFrameEncoder encoder = new BeliefFrameEncoder(N, RESOLUTION, 100);
+        final BeliefFrameDecoder decoder = new BeliefFrameDecoder(N);
+        final int keyLength = encoder.encode(store, frame, 0);
+        decoder.decode(frame, 0, keyLength, received);
+        for (int round = 0; round < 10; round++) {
+            wiggle(0.05);
+            final int length = encoder.encode(store, frame, 0);
+            assertTrue(length + " vs " + keyLength, length < keyLength);
+            assertEquals(round + 1, decoder.decode(frame, 0, length, received));
+            assertReceived(RESOLUTION);
+        }
+        assertEquals(1, decoder.getNoOfKeyFrames());
+        assertEquals(10, decoder.getNoOfDeltaFrames());
+    }
+
+    @Test
+    public void testKeyFrameIntervalAndRequest() {
+        final BeliefFrameEncoder encoder = new BeliefFrameEncoder(N, RESOLUTION, 3);
+        final BeliefFrameDecoder decoder = new BeliefFrameDecoder(N);
+        for (int round = 0; round < 5; round++) {
+            decoder.decode(frame, 0, encoder.encode(store, frame, 0), received);
+        }
+        assertEquals(2, decoder.getNoOfKeyFrames());
+        decoder.decode(frame, 0, encoder.encode(store, frame, 0), received);
+        assertEquals(2, decoder.getNoOfKeyFrames());
+        encoder.requestKeyFrame();
+        decoder.decode(frame, 0, encoder.encode(store, frame, 0), received);
+        assertEquals(3, decoder.getNoOfKeyFrames());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDeltaWithoutReference() {
+        final BeliefFrameEncoder encoder = new BeliefFrameEncoder(N, RESOLUTION, 100);
+        final BeliefFrameDecoder decoder = new BeliefFrameDecoder(N);
+        encoder.encode(store, frame, 0);
+        wiggle(0.05);
+        // The key frame was lost on the way.
+        decoder.decode(frame, 0, encoder.encode(store, frame, 0), received);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadMagic() {
+        final BeliefFrameEncoder encoder = new BeliefFrameEncoder(N, RESOLUTION, 1);
+        final int length = encoder.encode(store, frame, 0);
+        frame[0] = 0;
+        new BeliefFrameDecoder(N).decode(frame, 0, length, received);
+    }
+
+    @Test
+    public void testEncodeFromPool() {
+        final BeliefFrameEncoder encoder = new BeliefFrameEncoder(N, RESOLUTION, 1);
+        final int length = encoder.encode(store.asPool(), frame, 0);
+        new BeliefFrameDecoder(N).decode(frame, 0, length, received);
+        assertReceived(RESOLUTION);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyFrameIsRejected() {
+        final BeliefFrameEncoder encoder = new BeliefFrameEncoder(N, RESOLUTION, 1);
+        encoder.encode(store, frame, 0);
+        // The number of particles is the big-endian int at byte 16 of
+        // the header.  An empty key frame is just the header.
+        frame[16] = 0;
+        frame[17] = 0;
+        frame[18] = 0;
+        frame[19] = 0;
+        new BeliefFrameDecoder(N).decode(frame, 0, BeliefFrameFormat.HEADER_SIZE, received);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyPoolIsNotEncoded() {
+        final BeliefFrameEncoder encoder = new BeliefFrameEncoder(N, RESOLUTION, 1);
+        encoder.encode(new WeightedPool<Particle>("empty", new Particle[0]), frame, 0);
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2012 Bjørn Remseth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package no.rmz.robotics.particlefilter.simd;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import no.rmz.robotics.particlefilter.ColumnKernels;
+import no.rmz.robotics.particlefilter.ParticleStore;
+import no.rmz.robotics.particlefilter.ScalarColumnKernels;
+
+/**
+ * Column kernels using the Java Vector API, doing as many particles at a
+ * time as the CPU has double lanes in its preferred vector size.  The
+ * particles left over at the end of a range are done by the scalar
+ * kernels.
+ *
+ * The Vector API is an incubator module, so this class can only be loaded
+ * on a JVM started with --add-modules jdk.incubator.vector, and it is
+ * built on its own, see build.xml.  Use
+ * ColumnKernelsFactory.best() to get these kernels when they are
+ * available, and scalar ones when they are not.
+ */
+public final class VectorColumnKernels implements ColumnKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private final ScalarColumnKernels scalar = new ScalarColumnKernels();
+
+    /**
+     * @throws UnsupportedOperationException if the CPU can't do more than
+     *         one double at a time, where the scalar kernels are faster.
+     */
+    public VectorColumnKernels() {
+        if (SPECIES.length() < 2) {
+            throw new UnsupportedOperationException("No SIMD lanes for doubles");
+        }
+    }
+
+    /**
+     * @return the number of particles done at a time.
+     */
+    public int getNoOfLanes() {
+        return SPECIES.length();
+    }
+
+    @Override
+    public void applyMovement(
+            final ParticleStore store,
+            final int from,
+            final int to,
+            final double deltaTheta,
+            final double radius) {
+        final double[] x = store.getXs();
+        final double[] y = store.getYs();
+        final double[] theta = store.getThetas();
+        final double[] radii = store.getRadii();
+
+        final DoubleVector deltaThetas = DoubleVector.broadcast(SPECIES, deltaTheta);
+        final DoubleVector radiusVector = DoubleVector.broadcast(SPECIES, radius);
+        final int upperBound = from + SPECIES.loopBound(to - from);
+        int i = from;
+        for (; i < upperBound; i += SPECIES.length()) {
+            final DoubleVector t = DoubleVector.fromArray(SPECIES, theta, i).add(deltaThetas);
+            t.intoArray(theta, i);
+            radiusVector.intoArray(radii, i);
+            DoubleVector.fromArray(SPECIES, x, i)
+                    .add(t.lanewise(VectorOperators.COS).mul(radiusVector))
+                    .intoArray(x, i);
+            DoubleVector.fromArray(SPECIES, y, i)
+                    .add(t.lanewise(VectorOperators.SIN).mul(radiusVector))
+                    .intoArray(y, i);
+        }
+        scalar.applyMovement(store, i, to, deltaTheta, radius);
+    }
+
+    @Override
+    public double likelihoods(
+            final int[] expected,
+            final int from,
+            final int to,
+            final double[] table,
+            final double[] weights) {
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        final int upperBound = from + SPECIES.loopBound(to - from);
+        int i = from;
+        for (; i < upperBound; i += SPECIES.length()) {
+            final DoubleVector w = DoubleVector.fromArray(SPECIES, table, 0, expected, i);
+            w.intoArray(weights, i);
+            sums = sums.add(w);
+        }
+        return sums.reduceLanes(VectorOperators.ADD)
+                + scalar.likelihoods(expected, i, to, table, weights);
+    }
+
+    @Override
+    public double logLikelihoods(
+            final int[] expected,
+            final int from,
+            final int to,
+            final double[] logTable,
+            final double[] weights) {
+        // First gather the log weights and find the largest one...
+        DoubleVector maxima = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+        final int upperBound = from + SPECIES.loopBound(to - from);
+        int i = from;
+        for (; i < upperBound; i += SPECIES.length()) {
+            final DoubleVector lw = DoubleVector.fromArray(SPECIES, logTable, 0, expected, i);
+            lw.intoArray(weights, i);
+            maxima = maxima.max(lw);
+        }
+        double max = maxima.reduceLanes(VectorOperators.MAX);
+        for (int j = i; j < to; j++) {
+            final double lw = logTable[expected[j]];
+            weights[j] = lw;
+            max = Math.max(max, lw);
+        }
+        if (max == Double.NEGATIVE_INFINITY) {
+            return max;
+        }
+
+        // ...then add up the weights scaled by it.
+        final DoubleVector maxVector = DoubleVector.broadcast(SPECIES, max);
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        for (i = from; i < upperBound; i += SPECIES.length()) {
+            sums = sums.add(DoubleVector.fromArray(SPECIES, weights, i)
+                    .sub(maxVector)
+                    .lanewise(VectorOperators.EXP));
+        }
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) {
+            sum += Math.exp(weights[i] - max);
+        }
+        return max + Math.log(sum);
+    }
+}